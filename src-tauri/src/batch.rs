@@ -0,0 +1,332 @@
+//! 批量语句的公共部分：把一组数据行依次写入 `前缀 项, 项, ... 结尾` 形式的语句，按字节上限拆分
+
+use std::collections::{HashMap, HashSet};
+
+use crate::plan::GenerationPlan;
+use crate::table::{Row, Rows};
+
+/// 批量生成时一行数据的处理方式
+pub enum BatchRow {
+    /// 跳过
+    Skip,
+    /// 合并到批量语句中
+    Item,
+    /// 不能合并，单独生成一条语句
+    Single,
+}
+
+/// 把一组数据行写成以 plan.batch_prefix 开头、plan.batch_suffix 结尾的批量语句，项之间用 separator 分隔；
+/// 语句超过 max_statement_bytes 时拆成多条，单个项本身超过上限时单独成句
+pub fn write_list(
+    plan: &GenerationPlan,
+    rows: Rows<'_>,
+    out: &mut String,
+    separator: &str,
+    classify: fn(&GenerationPlan, Row<'_>) -> BatchRow,
+    write_item: fn(&GenerationPlan, Row<'_>, &mut String),
+) {
+    write_items(plan, rows, out, separator, classify, write_item, false);
+}
+
+/// 与 write_list 相同，但同一条语句中条件值不重复：条件值再次出现时先结束当前语句，
+/// 用于 JOIN 更新这类重复的条件值会让结果不确定的语句
+pub fn write_unique_list(
+    plan: &GenerationPlan,
+    rows: Rows<'_>,
+    out: &mut String,
+    separator: &str,
+    classify: fn(&GenerationPlan, Row<'_>) -> BatchRow,
+    write_item: fn(&GenerationPlan, Row<'_>, &mut String),
+) {
+    write_items(plan, rows, out, separator, classify, write_item, true);
+}
+
+fn write_items<'a>(
+    plan: &GenerationPlan,
+    rows: Rows<'a>,
+    out: &mut String,
+    separator: &str,
+    classify: fn(&GenerationPlan, Row<'_>) -> BatchRow,
+    write_item: fn(&GenerationPlan, Row<'_>, &mut String),
+    unique_keys: bool,
+) {
+    let max_bytes = plan.options.max_statement_bytes;
+    let mut statement_start = 0;
+    let mut statement_items = 0;
+    // 当前语句中已有的条件值，只在 unique_keys 时记录
+    let mut seen: HashSet<&'a str> = HashSet::new();
+    for row in rows.iter() {
+        match classify(plan, row) {
+            BatchRow::Skip => continue,
+            BatchRow::Single => {
+                // 先结束当前语句，保持行的原始顺序
+                if statement_items > 0 {
+                    out.push_str(&plan.batch_suffix);
+                    statement_items = 0;
+                    seen.clear();
+                }
+                plan.write_row(row, out);
+                continue;
+            }
+            BatchRow::Item => {}
+        }
+
+        let key = if unique_keys { plan.condition_value(row) } else { None };
+        if let Some(key) = key {
+            if !seen.insert(key) {
+                out.push_str(&plan.batch_suffix);
+                statement_items = 0;
+                seen.clear();
+                seen.insert(key);
+            }
+        }
+
+        let mark = out.len();
+        if statement_items > 0 {
+            out.push_str(separator);
+        } else {
+            statement_start = out.len();
+            out.push_str(&plan.batch_prefix);
+        }
+        write_item(plan, row, out);
+
+        // 加上语句结尾超过上限时，把这一项移到新语句中
+        let statement_len = out.len() + plan.batch_suffix.len() - statement_start;
+        if statement_items > 0 && statement_len > max_bytes {
+            out.truncate(mark);
+            out.push_str(&plan.batch_suffix);
+            statement_start = out.len();
+            out.push_str(&plan.batch_prefix);
+            write_item(plan, row, out);
+            statement_items = 0;
+            if let Some(key) = key {
+                seen.clear();
+                seen.insert(key);
+            }
+        }
+        statement_items += 1;
+    }
+
+    if statement_items > 0 {
+        out.push_str(&plan.batch_suffix);
+    }
+}
+
+/// 条件值存在的行合并，用于按条件字段批量删除
+pub fn classify_condition(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.condition_value(row).is_some() {
+        BatchRow::Item
+    } else {
+        BatchRow::Skip
+    }
+}
+
+/// 写入格式化后的条件值
+pub fn write_condition_value(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if let (Some(condition), Some(value)) = (&plan.condition, plan.condition_value(row)) {
+        condition.write(out, value);
+    }
+}
+
+/// 按更新内容合并：SET 部分完全相同的行合并为一条按条件字段列表更新的语句，各组按首次出现的顺序输出。
+/// 同一组数据中条件值重复出现时，先输出已合并的语句再继续，保证同一行的多次更新顺序不变；
+/// parts 根据格式化后的更新内容返回语句的开头和结尾，条件值列表写在两者之间
+pub fn write_grouped<'a>(
+    plan: &GenerationPlan,
+    rows: Rows<'a>,
+    out: &mut String,
+    write_payload: fn(&GenerationPlan, Row<'_>, &mut String),
+    parts: fn(&GenerationPlan, &str) -> (String, String),
+) {
+    let condition = match &plan.condition {
+        Some(condition) => condition,
+        None => return,
+    };
+    let mut groups = PayloadGroups::default();
+    let mut seen: HashSet<&'a str> = HashSet::new();
+    let mut payload = String::new();
+    for row in rows.iter() {
+        let key = match plan.condition_value(row) {
+            Some(key) => key,
+            None => continue,
+        };
+        if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+            continue;
+        }
+        if !seen.insert(key) {
+            groups.write(plan, out, parts);
+            seen.clear();
+            seen.insert(key);
+        }
+
+        payload.clear();
+        write_payload(plan, row, &mut payload);
+        let index = match groups.index.get(payload.as_str()) {
+            Some(&index) => index,
+            None => {
+                groups.index.insert(payload.clone(), groups.payloads.len());
+                groups.payloads.push(payload.clone());
+                groups.keys.push(Vec::new());
+                groups.payloads.len() - 1
+            }
+        };
+        let start = groups.key_text.len();
+        condition.write(&mut groups.key_text, key);
+        groups.keys[index].push((start, groups.key_text.len()));
+    }
+    groups.write(plan, out, parts);
+}
+
+/// 按更新内容分组的条件值，格式化后的条件值保存在同一个缓冲区中
+#[derive(Default)]
+struct PayloadGroups {
+    index: HashMap<String, usize>,
+    payloads: Vec<String>,
+    key_text: String,
+    keys: Vec<Vec<(usize, usize)>>,
+}
+
+impl PayloadGroups {
+    /// 输出所有分组并清空；一组的语句超过 max_statement_bytes 时拆成多条
+    fn write(
+        &mut self,
+        plan: &GenerationPlan,
+        out: &mut String,
+        parts: fn(&GenerationPlan, &str) -> (String, String),
+    ) {
+        let max_bytes = plan.options.max_statement_bytes;
+        for (payload, keys) in self.payloads.iter().zip(&self.keys) {
+            let (open, close) = parts(plan, payload);
+            let mut statement_start = out.len();
+            out.push_str(&open);
+            let mut statement_keys = 0;
+            for &(start, end) in keys {
+                let key = &self.key_text[start..end];
+                let mark = out.len();
+                if statement_keys > 0 {
+                    out.push_str(", ");
+                }
+                out.push_str(key);
+                if statement_keys > 0 && out.len() + close.len() - statement_start > max_bytes {
+                    out.truncate(mark);
+                    out.push_str(&close);
+                    statement_start = out.len();
+                    out.push_str(&open);
+                    out.push_str(key);
+                    statement_keys = 0;
+                }
+                statement_keys += 1;
+            }
+            out.push_str(&close);
+        }
+        self.index.clear();
+        self.payloads.clear();
+        self.key_text.clear();
+        self.keys.clear();
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::{mappings, Dialect, GenerationOptions, Operation, UpdateMode};
+    use crate::table::RowTable;
+
+    fn compile(options: GenerationOptions) -> Result<GenerationPlan, String> {
+        let field_mappings = mappings(&[("id", 0, "Long"), ("status", 1, "String")]);
+        GenerationPlan::compile(
+            Dialect::MySql,
+            Operation::Update,
+            &field_mappings,
+            "id",
+            &["status".to_string()],
+            "t",
+            &options,
+        )
+    }
+
+    fn plan(max_statement_bytes: usize) -> GenerationPlan {
+        compile(GenerationOptions {
+            batch_rows: 100,
+            max_statement_bytes,
+            update_mode: UpdateMode::Coalesce,
+            ..GenerationOptions::default()
+        })
+        .unwrap()
+    }
+
+    /// 按顺序执行生成的 UPDATE 语句，返回每个条件值最终的 status
+    fn apply(script: &str) -> HashMap<String, String> {
+        let mut state = HashMap::new();
+        for line in script.lines() {
+            let rest = line.strip_prefix("UPDATE t SET status = ").unwrap();
+            let (value, keys) = rest.split_once(" WHERE id ").unwrap();
+            let keys = keys.trim_end_matches(';');
+            let keys: Vec<&str> = match keys.strip_prefix("IN (") {
+                Some(list) => list.trim_end_matches(')').split(", ").collect(),
+                None => vec![keys.strip_prefix("= ").unwrap()],
+            };
+            for key in keys {
+                state.insert(key.to_string(), value.to_string());
+            }
+        }
+        state
+    }
+
+    #[test]
+    fn grouped_rows_keep_update_order() {
+        let table = RowTable::from_vecs(
+            &[["1", "A"], ["2", "A"], ["3", "B"], ["2", "B"], ["4", "B"]]
+                .map(|row| row.map(|cell| cell.to_string()).to_vec()),
+        );
+
+        let mut out = String::new();
+        plan(1 << 20).write_rows(table.rows(), &mut out);
+        assert_eq!(
+            out,
+            "UPDATE t SET status = 'A' WHERE id IN (1, 2);\n\
+             UPDATE t SET status = 'B' WHERE id IN (3);\n\
+             UPDATE t SET status = 'B' WHERE id IN (2, 4);\n"
+        );
+
+        let mut out = String::new();
+        plan(44).write_rows(table.rows().slice(0, 2), &mut out);
+        assert_eq!(
+            out,
+            "UPDATE t SET status = 'A' WHERE id IN (1);\n\
+             UPDATE t SET status = 'A' WHERE id IN (2);\n"
+        );
+    }
+
+    #[test]
+    fn coalesced_updates_match_per_row_result() {
+        // 每个条件值出现多次，后出现的行覆盖先出现的行
+        let rows: Vec<Vec<String>> = (0..300)
+            .map(|i| vec![(i % 13).to_string(), ["A", "B", "C"][i * 7 % 3].to_string()])
+            .collect();
+        let table = RowTable::from_vecs(&rows);
+
+        let single = compile(GenerationOptions::default()).unwrap();
+        let mut per_row = String::new();
+        single.write_rows(table.rows(), &mut per_row);
+
+        for max_statement_bytes in [60, 1 << 20] {
+            let coalesce = plan(max_statement_bytes);
+            let mut coalesced = String::new();
+            for chunk in table.rows().chunks(coalesce.align_rows(100)) {
+                coalesce.write_rows(chunk, &mut coalesced);
+            }
+            assert!(coalesced.lines().count() < per_row.lines().count());
+            assert_eq!(apply(&coalesced), apply(&per_row));
+        }
+    }
+
+    #[test]
+    fn coalesce_requires_multi_row_statements() {
+        let options = GenerationOptions {
+            update_mode: UpdateMode::Coalesce,
+            ..GenerationOptions::default()
+        };
+        assert!(compile(options).is_err());
+    }
+}
@@ -0,0 +1,285 @@
+//! 多线程分块解析 CSV：按引号状态找到记录边界切分数据，各线程分别解析，再按原始顺序交给调用方
+
+use std::fs::File;
+use std::io::Read;
+use std::thread;
+
+use crate::ingest::{self, CsvOptions};
+use crate::parallel;
+use crate::table::RowTable;
+
+/// 每个工作线程每次分到的字节数
+const CHUNK_BYTES: usize = 8 << 20;
+
+/// 小于这个大小的分段不再切分
+const MIN_CHUNK_BYTES: usize = 1 << 20;
+
+/// 记录边界扫描器，只跟踪引号状态，不解析字段
+struct BoundaryScanner {
+    delimiter: u8,
+    quote: u8,
+    quoting: bool,
+    double_quote: bool,
+    escape: Option<u8>,
+}
+
+impl BoundaryScanner {
+    fn new(csv_options: &CsvOptions) -> Result<BoundaryScanner, String> {
+        // 借用 reader_builder 校验分隔符等选项
+        csv_options.reader_builder(false)?;
+        Ok(BoundaryScanner {
+            delimiter: csv_options.delimiter as u8,
+            quote: csv_options.quote as u8,
+            quoting: csv_options.quoting,
+            double_quote: csv_options.double_quote,
+            escape: csv_options.escape.map(|c| c as u8),
+        })
+    }
+
+    /// 从记录开头扫描 data，返回切分位置（每隔约 step 字节取一个记录结尾），
+    /// 最后一个元素是 data 中最后一个完整记录的结尾；没有完整记录时返回空
+    fn split_points(&self, data: &[u8], step: usize) -> Vec<usize> {
+        let mut points = Vec::new();
+        let mut next_split = step;
+        let mut last_end = 0;
+        let mut in_quotes = false;
+        let mut field_start = true;
+        let mut i = 0;
+        while i < data.len() {
+            let b = data[i];
+            if in_quotes {
+                if Some(b) == self.escape {
+                    i += 1;
+                } else if b == self.quote {
+                    if self.double_quote && data.get(i + 1) == Some(&self.quote) {
+                        i += 1;
+                    } else {
+                        in_quotes = false;
+                    }
+                }
+            } else if b == b'\n' {
+                last_end = i + 1;
+                field_start = true;
+                if last_end >= next_split {
+                    points.push(last_end);
+                    next_split = last_end + step;
+                }
+            } else if b == self.delimiter || b == b'\r' {
+                field_start = true;
+            } else if field_start && self.quoting && b == self.quote {
+                // 只有字段开头的引号才开始引号字段，其他位置的引号按普通字符处理
+                in_quotes = true;
+                field_start = false;
+            } else {
+                field_start = false;
+            }
+            i += 1;
+        }
+
+        if last_end > 0 && points.last() != Some(&last_end) {
+            points.push(last_end);
+        }
+        points
+    }
+}
+
+/// 逐批读取数据行（不含表头），sink 返回 false 时停止读取，返回读取的行数；
+/// 各分块的解析结果按 batch_rows 行重新分批，批次划分与顺序读取完全相同
+pub fn read_batches<F>(
+    path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    batch_rows: usize,
+    mut sink: F,
+) -> Result<usize, String>
+where
+    F: FnMut(RowTable) -> bool,
+{
+    let scanner = BoundaryScanner::new(csv_options)?;
+    let workers = parallel::worker_count();
+    let segment_bytes = CHUNK_BYTES * workers;
+    let mut file = File::open(path).map_err(|e| format!("无法打开CSV文件: {}", e))?;
+
+    let mut buffer: Vec<u8> = Vec::with_capacity(segment_bytes + MIN_CHUNK_BYTES);
+    let mut skip_header = has_headers;
+    let mut at_start = true;
+    let batch_rows = batch_rows.max(1);
+    let mut batch = RowTable::with_capacity(batch_rows, 0);
+    let mut total = 0;
+    loop {
+        let read = (&mut file)
+            .take(segment_bytes as u64)
+            .read_to_end(&mut buffer)
+            .map_err(|e| format!("读取CSV文件失败: {}", e))?;
+        let eof = read < segment_bytes;
+
+        // 去掉文件开头的 UTF-8 BOM
+        if at_start {
+            at_start = false;
+            if buffer.starts_with(b"\xEF\xBB\xBF") {
+                buffer.drain(..3);
+            }
+        }
+
+        let step = (buffer.len() / workers + 1).max(MIN_CHUNK_BYTES);
+        let mut points = scanner.split_points(&buffer, step);
+        // 文件末尾的最后一条记录可能没有换行符
+        if eof && points.last() != Some(&buffer.len()) && !buffer.is_empty() {
+            points.push(buffer.len());
+        }
+        // 单条记录超过分段大小时继续读取
+        let end = match points.last() {
+            Some(&end) => end,
+            None if eof => 0,
+            None => continue,
+        };
+
+        // 表头只出现在第一个分块的开头
+        let chunks = split_at(&buffer[..end], &points);
+        let parsed = parse_chunks(&chunks, csv_options, skip_header)?;
+        if csv_options.verify_chunks {
+            verify(&buffer[..end], &parsed, csv_options, skip_header)?;
+        }
+        skip_header = false;
+
+        for rows in parsed {
+            let mut start = 0;
+            while start < rows.len() {
+                let stop = (start + batch_rows - batch.len()).min(rows.len());
+                batch.extend_from(rows.rows().slice(start, stop));
+                start = stop;
+                if batch.len() >= batch_rows {
+                    total += batch.len();
+                    let next = RowTable::with_capacity(batch_rows, 0);
+                    if !sink(std::mem::replace(&mut batch, next)) {
+                        return Ok(total);
+                    }
+                }
+            }
+        }
+
+        if eof {
+            break;
+        }
+        buffer.drain(..end);
+    }
+
+    if !batch.is_empty() {
+        total += batch.len();
+        sink(batch);
+    }
+    Ok(total)
+}
+
+/// 按切分位置把数据切成连续的分块
+fn split_at<'a>(data: &'a [u8], points: &[usize]) -> Vec<&'a [u8]> {
+    let mut chunks = Vec::with_capacity(points.len());
+    let mut start = 0;
+    for &point in points {
+        if point > start {
+            chunks.push(&data[start..point]);
+            start = point;
+        }
+    }
+    chunks
+}
+
+/// 每个分块由一个线程解析，结果按分块顺序返回
+fn parse_chunks(
+    chunks: &[&[u8]],
+    csv_options: &CsvOptions,
+    has_headers: bool,
+) -> Result<Vec<RowTable>, String> {
+    if chunks.len() <= 1 {
+        return chunks
+            .iter()
+            .map(|chunk| parse_chunk(chunk, csv_options, has_headers))
+            .collect();
+    }
+
+    thread::scope(|scope| {
+        let handles: Vec<_> = chunks
+            .iter()
+            .enumerate()
+            .map(|(index, chunk)| {
+                let has_headers = has_headers && index == 0;
+                scope.spawn(move || parse_chunk(chunk, csv_options, has_headers))
+            })
+            .collect();
+        handles
+            .into_iter()
+            .map(|handle| {
+                handle
+                    .join()
+                    .map_err(|_| "CSV解析线程异常退出".to_string())
+                    .and_then(|rows| rows)
+            })
+            .collect()
+    })
+}
+
+fn parse_chunk(
+    chunk: &[u8],
+    csv_options: &CsvOptions,
+    has_headers: bool,
+) -> Result<RowTable, String> {
+    let mut reader = csv_options.reader_builder(has_headers)?.from_reader(chunk);
+    let mut record = csv::StringRecord::new();
+    let mut rows = RowTable::with_capacity(0, chunk.len());
+    while reader
+        .read_record(&mut record)
+        .map_err(|e| format!("读取CSV文件失败: {}", e))?
+    {
+        ingest::push_record(&mut rows, &record, false);
+    }
+    Ok(rows)
+}
+
+/// 校验模式：整段顺序解析一遍，与分块解析的结果比较
+fn verify(
+    data: &[u8],
+    parsed: &[RowTable],
+    csv_options: &CsvOptions,
+    has_headers: bool,
+) -> Result<(), String> {
+    let expected = parse_chunk(data, csv_options, has_headers)?;
+    let mut actual = parsed.iter().flat_map(|rows| rows.rows().iter());
+    for (index, row) in expected.rows().iter().enumerate() {
+        if actual.next() != Some(row) {
+            return Err(format!(
+                "CSV分块边界校验失败：分段第 {} 行与顺序解析结果不一致，分块可能拆开了引号字段，请关闭多线程解析",
+                index + 1
+            ));
+        }
+    }
+    if actual.next().is_some() {
+        return Err("CSV分块边界校验失败：分块解析的行数多于顺序解析，请关闭多线程解析".to_string());
+    }
+    Ok(())
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn split_points_never_fall_inside_quoted_fields() {
+        let mut data = Vec::new();
+        for i in 0..500 {
+            data.extend_from_slice(
+                format!("{},\"multi\nline \"\"{}\"\"\",a\"b,\"x,\ny\"\r\n", i, i).as_bytes(),
+            );
+        }
+        let csv_options = CsvOptions::default();
+        let scanner = BoundaryScanner::new(&csv_options).unwrap();
+
+        for step in [1, 7, 64, 1000] {
+            let points = scanner.split_points(&data, step);
+            assert_eq!(points.last(), Some(&data.len()));
+            let chunks = split_at(&data, &points);
+            let parsed = parse_chunks(&chunks, &csv_options, false).unwrap();
+            assert_eq!(parsed.iter().map(|rows| rows.len()).sum::<usize>(), 500);
+            verify(&data, &parsed, &csv_options, false).unwrap();
+        }
+    }
+}
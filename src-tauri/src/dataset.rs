@@ -0,0 +1,124 @@
+//! 导入的数据集常驻在后端，前端只持有句柄，生成脚本时不再传输行数据
+
+use serde::Serialize;
+use std::collections::HashMap;
+use std::sync::atomic::{AtomicU64, Ordering};
+use std::sync::{Arc, Mutex};
+
+use crate::ingest::{self, CsvOptions};
+use crate::jobs::JobContext;
+use crate::table::RowTable;
+
+/// 每批读取的行数
+const BATCH_ROWS: usize = 4096;
+
+/// 返回给前端的预览行数
+pub const PREVIEW_ROWS: usize = 10;
+
+/// 已解析的数据文件
+pub struct Dataset {
+    pub path: String,
+    pub headers: Vec<String>,
+    pub rows: RowTable,
+}
+
+/// 导入结果：句柄、表头、行数和预览数据
+#[derive(Serialize, Debug)]
+#[serde(rename_all = "camelCase")]
+pub struct DatasetInfo {
+    pub handle: u64,
+    pub path: String,
+    pub headers: Vec<String>,
+    pub row_count: usize,
+    pub preview: Vec<Vec<String>>,
+}
+
+/// 已导入数据集的登记表，保存在 Tauri 的托管状态中
+#[derive(Default)]
+pub struct DatasetRegistry {
+    next_handle: AtomicU64,
+    datasets: Mutex<HashMap<u64, Arc<Dataset>>>,
+}
+
+impl DatasetRegistry {
+    pub fn insert(&self, dataset: Dataset) -> DatasetInfo {
+        let handle = self.next_handle.fetch_add(1, Ordering::Relaxed) + 1;
+        let info = DatasetInfo {
+            handle,
+            path: dataset.path.clone(),
+            headers: dataset.headers.clone(),
+            row_count: dataset.rows.len(),
+            preview: dataset.rows.rows().slice(0, PREVIEW_ROWS).to_vecs(),
+        };
+        self.datasets
+            .lock()
+            .unwrap()
+            .insert(handle, Arc::new(dataset));
+        info
+    }
+
+    pub fn get(&self, handle: u64) -> Result<Arc<Dataset>, String> {
+        self.datasets
+            .lock()
+            .unwrap()
+            .get(&handle)
+            .cloned()
+            .ok_or_else(|| "数据集不存在，请重新导入数据文件".to_string())
+    }
+
+    /// 释放数据集，句柄不存在时返回 false
+    pub fn remove(&self, handle: u64) -> bool {
+        self.datasets.lock().unwrap().remove(&handle).is_some()
+    }
+}
+
+/// 解析整个数据文件；没有表头时按列数生成 列1、列2 ...
+pub fn load(
+    path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    context: &JobContext,
+) -> Result<Dataset, String> {
+    let mut headers: Option<Vec<String>> = None;
+    let mut rows = RowTable::new();
+
+    ingest::read_batches(
+        path,
+        false,
+        csv_options,
+        sheet_name,
+        BATCH_ROWS,
+        |batch| {
+            if context.is_cancelled() {
+                return false;
+            }
+            context.add_rows(batch.len());
+            let mut skip = 0;
+            if headers.is_none() && !batch.is_empty() {
+                let first = batch.row(0);
+                headers = Some(if has_headers {
+                    skip = 1;
+                    first.to_vec()
+                } else {
+                    (1..=first.len()).map(|i| format!("列{}", i)).collect()
+                });
+            }
+            // 第一批直接使用，不再复制
+            if rows.is_empty() && skip == 0 {
+                rows = batch;
+            } else {
+                rows.extend_from(batch.rows().slice(skip, batch.len()));
+            }
+            true
+        },
+    )?;
+    context.check()?;
+    rows.shrink_to_fit();
+
+    Ok(Dataset {
+        path: path.to_string(),
+        headers: headers.unwrap_or_default(),
+        rows,
+    })
+}
@@ -0,0 +1,299 @@
+//! 重复键合并：条件值相同的多行只保留第一次或最后一次出现的一行。
+//! 精确模式用哈希表记录全部条件值；布隆过滤器模式先扫描一遍文件找出可能重复的条件值，
+//! 之后只精确跟踪这些值，内存占用取决于重复值的个数而不是总行数，合并结果仍然是精确的
+
+use std::collections::hash_map::DefaultHasher;
+use std::collections::{HashMap, HashSet};
+use std::hash::{Hash, Hasher};
+
+use crate::ingest::{self, CsvOptions};
+use crate::jobs::JobContext;
+use crate::plan::{DedupeMode, GenerationPlan};
+use crate::table::{RowTable, Rows};
+
+/// 预扫描时每批读取的行数
+const SCAN_BATCH_ROWS: usize = 4096;
+
+/// 布隆过滤器每个值使用的哈希函数个数
+const BLOOM_HASHES: u64 = 7;
+
+/// 合并内存中的数据，返回合并后的副本和被合并掉的行数；未启用或没有条件字段时返回 None
+pub fn dedupe_rows(plan: &GenerationPlan, rows: Rows<'_>) -> Option<(RowTable, usize)> {
+    plan.condition.as_ref()?;
+    let keep: Vec<bool> = match plan.options.dedupe {
+        DedupeMode::None => return None,
+        DedupeMode::KeepFirst => {
+            let mut seen = HashSet::new();
+            rows.iter()
+                .map(|row| plan.condition_value(row).map_or(true, |key| seen.insert(key)))
+                .collect()
+        }
+        DedupeMode::KeepLast => {
+            let mut last = HashMap::new();
+            for (index, row) in rows.iter().enumerate() {
+                if let Some(key) = plan.condition_value(row) {
+                    last.insert(key, index);
+                }
+            }
+            rows.iter()
+                .enumerate()
+                .map(|(index, row)| {
+                    plan.condition_value(row)
+                        .map_or(true, |key| last.get(key) == Some(&index))
+                })
+                .collect()
+        }
+    };
+    Some(copy_kept(rows, &keep))
+}
+
+/// 复制 keep 为 true 的行，连续保留的行一次复制
+fn copy_kept(rows: Rows<'_>, keep: &[bool]) -> (RowTable, usize) {
+    let mut table = RowTable::with_capacity(rows.len(), 0);
+    let mut start = None;
+    for (index, &kept) in keep.iter().enumerate() {
+        match (kept, start) {
+            (true, None) => start = Some(index),
+            (false, Some(first)) => {
+                table.extend_from(rows.slice(first, index));
+                start = None;
+            }
+            _ => {}
+        }
+    }
+    if let Some(first) = start {
+        table.extend_from(rows.slice(first, rows.len()));
+    }
+    let collapsed = rows.len() - table.len();
+    (table, collapsed)
+}
+
+/// 流式生成时逐批过滤重复行
+pub struct StreamFilter {
+    keep_last: bool,
+    /// 布隆过滤器模式下可能重复的条件值；精确模式为 None，跟踪所有条件值
+    candidates: Option<HashSet<String>>,
+    seen: HashSet<String>,
+    /// 保留最后一次时，每个重复的条件值还剩几次出现
+    remaining: HashMap<String, usize>,
+}
+
+impl StreamFilter {
+    /// 按需要预先扫描输入文件：布隆过滤器模式找出可能重复的条件值，保留最后一次时统计出现次数；
+    /// 未启用或没有条件字段时返回 None
+    pub fn prepare(
+        plan: &GenerationPlan,
+        path: &str,
+        has_headers: bool,
+        csv_options: &CsvOptions,
+        sheet_name: Option<&str>,
+        context: &JobContext,
+    ) -> Result<Option<StreamFilter>, String> {
+        let keep_last = match plan.options.dedupe {
+            DedupeMode::None => return Ok(None),
+            DedupeMode::KeepFirst => false,
+            DedupeMode::KeepLast => true,
+        };
+        if plan.condition.is_none() {
+            return Ok(None);
+        }
+        let scan = |sink: &mut dyn FnMut(&str)| {
+            scan_keys(plan, path, has_headers, csv_options, sheet_name, context, sink)
+        };
+
+        let candidates = if plan.options.dedupe_bloom {
+            let mut bloom = BloomFilter::new(plan.options.dedupe_memory_mb.max(1) << 20);
+            let mut candidates = HashSet::new();
+            scan(&mut |key| {
+                if !bloom.insert(key) && !candidates.contains(key) {
+                    candidates.insert(key.to_string());
+                }
+            })?;
+            Some(candidates)
+        } else {
+            None
+        };
+
+        let mut remaining: HashMap<String, usize> = HashMap::new();
+        if keep_last {
+            scan(&mut |key| {
+                if candidates.as_ref().map_or(false, |candidates| !candidates.contains(key)) {
+                    return;
+                }
+                match remaining.get_mut(key) {
+                    Some(count) => *count += 1,
+                    None => {
+                        remaining.insert(key.to_string(), 1);
+                    }
+                }
+            })?;
+            remaining.retain(|_, count| *count > 1);
+        }
+
+        Ok(Some(StreamFilter {
+            keep_last,
+            candidates,
+            seen: HashSet::new(),
+            remaining,
+        }))
+    }
+
+    /// 过滤一批数据，返回保留的行和被合并掉的行数
+    pub fn apply(&mut self, plan: &GenerationPlan, batch: RowTable) -> (RowTable, usize) {
+        let keep: Vec<bool> = batch
+            .rows()
+            .iter()
+            .map(|row| self.keep(plan.condition_value(row)))
+            .collect();
+        if keep.iter().all(|&kept| kept) {
+            return (batch, 0);
+        }
+        copy_kept(batch.rows(), &keep)
+    }
+
+    fn keep(&mut self, key: Option<&str>) -> bool {
+        let key = match key {
+            Some(key) => key,
+            None => return true,
+        };
+        if self.keep_last {
+            return match self.remaining.get_mut(key) {
+                Some(count) => {
+                    *count -= 1;
+                    *count == 0
+                }
+                None => true,
+            };
+        }
+        if self.candidates.as_ref().map_or(false, |candidates| !candidates.contains(key)) {
+            return true;
+        }
+        if self.seen.contains(key) {
+            false
+        } else {
+            self.seen.insert(key.to_string());
+            true
+        }
+    }
+}
+
+/// 读取整个输入文件，把每行的条件值交给 sink
+fn scan_keys(
+    plan: &GenerationPlan,
+    path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    context: &JobContext,
+    sink: &mut dyn FnMut(&str),
+) -> Result<(), String> {
+    ingest::read_batches(path, has_headers, csv_options, sheet_name, SCAN_BATCH_ROWS, |batch| {
+        for row in batch.rows().iter() {
+            if let Some(key) = plan.condition_value(row) {
+                sink(key);
+            }
+        }
+        !context.is_cancelled()
+    })?;
+    context.check()
+}
+
+/// 布隆过滤器：不会漏报，可能误报
+struct BloomFilter {
+    bits: Vec<u64>,
+}
+
+impl BloomFilter {
+    fn new(bytes: usize) -> BloomFilter {
+        BloomFilter {
+            bits: vec![0; (bytes / 8).max(1)],
+        }
+    }
+
+    /// 加入一个值；对应的位都已经被设置过（可能出现过）时返回 false
+    fn insert(&mut self, key: &str) -> bool {
+        let mut hasher = DefaultHasher::new();
+        key.hash(&mut hasher);
+        let hash = hasher.finish();
+        let (h1, h2) = (hash & 0xffff_ffff, (hash >> 32) | 1);
+        let bit_count = self.bits.len() as u64 * 64;
+
+        let mut added = false;
+        for i in 0..BLOOM_HASHES {
+            let bit = h1.wrapping_add(i.wrapping_mul(h2)) % bit_count;
+            let (word, mask) = ((bit / 64) as usize, 1u64 << (bit % 64));
+            if self.bits[word] & mask == 0 {
+                self.bits[word] |= mask;
+                added = true;
+            }
+        }
+        added
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::{mappings, Dialect, GenerationOptions, Operation};
+
+    fn plan(dedupe: DedupeMode) -> GenerationPlan {
+        let field_mappings = mappings(&[("id", 0, "String"), ("status", 1, "String")]);
+        let options = GenerationOptions {
+            dedupe,
+            ..GenerationOptions::default()
+        };
+        GenerationPlan::compile(
+            Dialect::MySql,
+            Operation::Delete,
+            &field_mappings,
+            "id",
+            &[],
+            "t",
+            &options,
+        )
+        .unwrap()
+    }
+
+    #[test]
+    fn keeps_first_or_last_occurrence() {
+        let table = RowTable::from_vecs(
+            &[["a", "1"], ["b", "2"], ["a", "3"], ["", "4"], ["b", "5"], ["c", "6"]]
+                .map(|row| row.map(|cell| cell.to_string()).to_vec()),
+        );
+        let statuses = |table: &RowTable| -> Vec<String> {
+            table.rows().iter().filter_map(|row| row.get(1)).map(String::from).collect()
+        };
+
+        let (first, collapsed) = dedupe_rows(&plan(DedupeMode::KeepFirst), table.rows()).unwrap();
+        assert_eq!(statuses(&first), ["1", "2", "4", "6"]);
+        assert_eq!(collapsed, 2);
+
+        let (last, collapsed) = dedupe_rows(&plan(DedupeMode::KeepLast), table.rows()).unwrap();
+        assert_eq!(statuses(&last), ["3", "4", "5", "6"]);
+        assert_eq!(collapsed, 2);
+
+        // 只跟踪候选值时，不在候选集合中的值不会被合并
+        let keep_first = plan(DedupeMode::KeepFirst);
+        let mut filter = StreamFilter {
+            keep_last: false,
+            candidates: Some(HashSet::from(["a".to_string()])),
+            seen: HashSet::new(),
+            remaining: HashMap::new(),
+        };
+        let mut batch = RowTable::new();
+        batch.extend_from(table.rows());
+        let (kept, collapsed) = filter.apply(&keep_first, batch);
+        assert_eq!(statuses(&kept), ["1", "2", "4", "5", "6"]);
+        assert_eq!(collapsed, 1);
+    }
+
+    #[test]
+    fn bloom_filter_has_no_false_negatives() {
+        let mut bloom = BloomFilter::new(1024);
+        let keys: Vec<String> = (0..500).map(|i| format!("key-{}", i)).collect();
+        for key in &keys {
+            bloom.insert(key);
+        }
+        assert!(keys.iter().all(|key| !bloom.insert(key)));
+    }
+}
@@ -0,0 +1,464 @@
+//! 增量对比生成：按条件字段关联新旧两份数据，只为发生变化的行生成脚本——
+//! 值有变化的列生成 UPDATE，新增的条件值生成 INSERT，可选为消失的条件值生成 DELETE
+
+use serde::Serialize;
+use std::collections::{HashMap, HashSet};
+use std::fs::File;
+use std::io::{BufWriter, Write};
+use std::time::Instant;
+
+use crate::ingest::{self, CsvOptions};
+use crate::jobs::JobContext;
+use crate::plan::{
+    Dialect, GenerationOptions, GenerationPlan, GenerationRequest, MongoUpdateMode, Operation,
+    PgUpdateMode, UpdateMode,
+};
+use crate::table::{Row, RowTable};
+
+/// 每批读取的行数
+const BATCH_ROWS: usize = 4096;
+
+/// 输出文件的写入缓冲区大小
+const WRITE_BUFFER_BYTES: usize = 1 << 20;
+
+/// 返回给前端的对比结果摘要
+#[derive(Serialize, Debug)]
+#[serde(rename_all = "camelCase")]
+pub struct DiffSummary {
+    /// 新数据的行数
+    pub rows: usize,
+    pub updated_rows: usize,
+    pub inserted_rows: usize,
+    pub deleted_rows: usize,
+    pub unchanged_rows: usize,
+    pub bytes_written: u64,
+    pub elapsed_ms: u64,
+    pub output_path: String,
+}
+
+/// 对比生成用到的三个生成计划，字段映射和类型格式化与普通生成相同
+struct DiffPlans {
+    update: GenerationPlan,
+    insert: GenerationPlan,
+    delete: GenerationPlan,
+}
+
+impl DiffPlans {
+    fn compile(request: &GenerationRequest) -> Result<DiffPlans, String> {
+        // 临时表和暂存集合方式在脚本结尾统一更新全部行，无法只更新变化的列
+        let staged = match request.db_type {
+            Dialect::MySql => request.options.update_mode == UpdateMode::TempTable,
+            Dialect::MongoDb => request.options.mongo_update_mode == MongoUpdateMode::Merge,
+            Dialect::PostgreSql => false,
+        };
+        if staged {
+            return Err("增量对比不支持临时表和暂存集合更新方式，请选择其他更新方式".to_string());
+        }
+        // 未选择更新字段时比较条件字段以外的全部映射字段
+        let update_fields = if request.update_fields.is_empty() {
+            let mut mappings: Vec<_> = request
+                .field_mappings
+                .values()
+                .filter(|info| info.db_field != request.condition_field)
+                .collect();
+            mappings.sort_by(|a, b| {
+                a.csv_index
+                    .cmp(&b.csv_index)
+                    .then_with(|| a.db_field.cmp(&b.db_field))
+            });
+            mappings.iter().map(|info| info.db_field.clone()).collect()
+        } else {
+            request.update_fields.clone()
+        };
+        // 每行只更新变化的列，各行的 SET 部分不同，逐行生成 UPDATE，事务分段按语句数计算；
+        // 批量导入设置作用于整个脚本，只由 INSERT 计划的开头和结尾写入一次
+        let update_options = GenerationOptions {
+            update_mode: UpdateMode::Single,
+            mongo_update_mode: MongoUpdateMode::UpdateOne,
+            pg_update_mode: PgUpdateMode::Single,
+            batch_rows: 1,
+            bulk_load: false,
+            ..request.options.clone()
+        };
+        let delete_options = GenerationOptions {
+            bulk_load: false,
+            ..request.options.clone()
+        };
+        // 新增行与更新、删除写在同一个脚本中，不使用 LOAD DATA 和 Extended JSON 输出
+        let insert_options = GenerationOptions {
+            load_data: false,
+            extended_json: false,
+            ..request.options.clone()
+        };
+        let compile = |operation, options: &GenerationOptions| {
+            GenerationPlan::compile(
+                request.db_type,
+                operation,
+                &request.field_mappings,
+                &request.condition_field,
+                &update_fields,
+                &request.table_name,
+                options,
+            )
+        };
+        Ok(DiffPlans {
+            update: compile(Operation::Update, &update_options)?,
+            insert: compile(Operation::Insert, &insert_options)?,
+            delete: compile(Operation::Delete, &delete_options)?,
+        })
+    }
+}
+
+/// 对比旧数据文件和新数据文件，把差异脚本写入输出文件
+pub fn run(
+    request: &GenerationRequest,
+    old_path: &str,
+    new_path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    include_deletes: bool,
+    output_path: &str,
+    context: &JobContext,
+) -> Result<DiffSummary, String> {
+    let started = Instant::now();
+    let plans = DiffPlans::compile(request)?;
+    let result = write_diff(
+        &plans,
+        old_path,
+        new_path,
+        has_headers,
+        csv_options,
+        sheet_name,
+        include_deletes,
+        output_path,
+        context,
+    )
+    .map(|mut summary| {
+        summary.elapsed_ms = started.elapsed().as_millis() as u64;
+        summary
+    });
+
+    // 失败或取消时删除写了一半的输出文件
+    if result.is_err() {
+        let _ = std::fs::remove_file(output_path);
+    }
+    result
+}
+
+fn write_diff(
+    plans: &DiffPlans,
+    old_path: &str,
+    new_path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    include_deletes: bool,
+    output_path: &str,
+    context: &JobContext,
+) -> Result<DiffSummary, String> {
+    let update = &plans.update;
+
+    // 旧数据整体读入内存并按条件值建立索引，条件值重复时以最后一行为准；
+    // 新数据逐批读取，只另存新增或变化的行，内存占用与旧数据大小和变化的行数有关
+    let mut old = RowTable::new();
+    ingest::read_batches(
+        old_path,
+        has_headers,
+        csv_options,
+        sheet_name,
+        BATCH_ROWS,
+        |batch| {
+            if context.is_cancelled() {
+                return false;
+            }
+            if old.is_empty() {
+                old = batch;
+            } else {
+                old.extend_from(batch.rows());
+            }
+            true
+        },
+    )?;
+    context.check()?;
+    let mut index: HashMap<&str, usize> = HashMap::with_capacity(old.len());
+    for (i, row) in old.rows().iter().enumerate() {
+        if let Some(key) = update.condition_value(row) {
+            index.insert(key, i);
+        }
+    }
+    let mut matched = vec![false; old.len()];
+
+    let file = File::create(output_path).map_err(|e| format!("无法创建输出文件: {}", e))?;
+    let mut out = BufWriter::with_capacity(WRITE_BUFFER_BYTES, file);
+    let mut bytes_written = 0u64;
+    let mut flush = |text: &mut String| -> Result<(), String> {
+        out.write_all(text.as_bytes())
+            .map_err(|e| format!("写入输出文件失败: {}", e))?;
+        bytes_written += text.len() as u64;
+        context.add_bytes(text.len() as u64);
+        text.clear();
+        Ok(())
+    };
+
+    // 三个计划各自的开头和结尾都写入脚本，批量导入设置在最外层
+    let mut text = String::new();
+    plans.insert.write_header(&mut text);
+    update.write_header(&mut text);
+    if include_deletes {
+        plans.delete.write_header(&mut text);
+    }
+
+    // 每批中变化的行和对应的变化列标记，整批交给 UPDATE 计划生成
+    let mut changed = vec![false; update.columns.len()];
+    let mut pending = PendingRows::default();
+    // 新数据中新增或变化过的条件值的当前内容（新行覆盖到旧行上），同一条件值再次出现时与它比较
+    let mut latest = RowTable::new();
+    let mut latest_index: HashMap<String, usize> = HashMap::new();
+    let mut merged = RowTable::new();
+    let mut unchanged_rows = 0;
+    let mut write_error = None;
+    let rows = ingest::read_batches(
+        new_path,
+        has_headers,
+        csv_options,
+        sheet_name,
+        BATCH_ROWS,
+        |batch| {
+            if context.is_cancelled() {
+                return false;
+            }
+            for (i, row) in batch.rows().iter().enumerate() {
+                let key = match update.condition_value(row) {
+                    Some(key) => key,
+                    None => continue,
+                };
+                let old_index = index.get(key).copied();
+                if let Some(old_index) = old_index {
+                    matched[old_index] = true;
+                }
+                let base = match latest_index.get(key) {
+                    Some(&latest_row) => {
+                        // 本批中刚新增的条件值再次出现，先写出 INSERT，保证 UPDATE 在它之后执行
+                        if pending.inserted_keys.contains(key) {
+                            pending.write(plans, &mut text);
+                        }
+                        latest.row(latest_row)
+                    }
+                    None => match old_index {
+                        Some(old_index) => old.row(old_index),
+                        None => {
+                            pending.inserts.extend_from(batch.rows().slice(i, i + 1));
+                            pending.inserted_keys.insert(key.to_string());
+                            latest_index.insert(key.to_string(), latest.len());
+                            latest.extend_from(batch.rows().slice(i, i + 1));
+                            continue;
+                        }
+                    },
+                };
+
+                // 新数据中缺失的列不更新
+                let mut any_changed = false;
+                for (flag, column) in changed.iter_mut().zip(&update.columns) {
+                    *flag = column
+                        .value(row)
+                        .map_or(false, |value| column.value(base) != Some(value));
+                    any_changed |= *flag;
+                }
+                if any_changed {
+                    pending.updates.extend_from(batch.rows().slice(i, i + 1));
+                    pending.update_flags.extend_from_slice(&changed);
+                    merged.clear();
+                    push_merged(&mut merged, row, base);
+                    latest_index.insert(key.to_string(), latest.len());
+                    latest.extend_from(merged.rows());
+                } else {
+                    unchanged_rows += 1;
+                }
+            }
+            pending.write(plans, &mut text);
+            context.add_rows(batch.len());
+            match flush(&mut text) {
+                Ok(()) => true,
+                Err(e) => {
+                    write_error = Some(e);
+                    false
+                }
+            }
+        },
+    )?;
+    if let Some(e) = write_error {
+        return Err(e);
+    }
+    context.check()?;
+
+    // 只在旧数据中出现的条件值，重复的条件值只删除一次
+    let mut deleted_rows = 0;
+    if include_deletes {
+        let mut deletes = RowTable::new();
+        for (i, row) in old.rows().iter().enumerate() {
+            let removed = update
+                .condition_value(row)
+                .map_or(false, |key| !matched[i] && index.get(key) == Some(&i));
+            if removed {
+                deletes.extend_from(old.rows().slice(i, i + 1));
+            }
+        }
+        deleted_rows = deletes.len();
+        for group in deletes.rows().chunks(plans.delete.align_rows(BATCH_ROWS)) {
+            plans.delete.write_rows(group, &mut text);
+            flush(&mut text)?;
+        }
+    }
+
+    let PendingRows {
+        updated_rows,
+        inserted_rows,
+        ..
+    } = pending;
+    update.write_footer(updated_rows, &mut text);
+    if include_deletes {
+        plans.delete.write_footer(deleted_rows, &mut text);
+    }
+    plans.insert.write_footer(inserted_rows, &mut text);
+    flush(&mut text)?;
+    out.flush().map_err(|e| format!("写入输出文件失败: {}", e))?;
+
+    Ok(DiffSummary {
+        rows,
+        updated_rows,
+        inserted_rows,
+        deleted_rows,
+        unchanged_rows,
+        bytes_written,
+        elapsed_ms: 0,
+        output_path: output_path.to_string(),
+    })
+}
+
+/// 一批新数据中待写出的 UPDATE 和 INSERT 行，以及已写出的行数
+#[derive(Default)]
+struct PendingRows {
+    updates: RowTable,
+    /// 与 updates 中的行一一对应的变化列标记
+    update_flags: Vec<bool>,
+    inserts: RowTable,
+    /// inserts 中的条件值
+    inserted_keys: HashSet<String>,
+    updated_rows: usize,
+    inserted_rows: usize,
+}
+
+impl PendingRows {
+    /// 依次写出暂存的 UPDATE 和 INSERT 并清空
+    fn write(&mut self, plans: &DiffPlans, text: &mut String) {
+        if !self.updates.is_empty() {
+            self.updated_rows += self.updates.len();
+            plans
+                .update
+                .write_rows_changed(self.updates.rows(), &self.update_flags, text);
+            self.updates.clear();
+            self.update_flags.clear();
+        }
+        if !self.inserts.is_empty() {
+            self.inserted_rows += self.inserts.len();
+            plans.insert.write_rows(self.inserts.rows(), text);
+            self.inserts.clear();
+        }
+        self.inserted_keys.clear();
+    }
+}
+
+/// 把 row 中存在的字段覆盖到 base 上，作为一行写入 out
+fn push_merged(out: &mut RowTable, row: Row<'_>, base: Row<'_>) {
+    for i in 0..row.len().max(base.len()) {
+        out.push_cell(row.get(i).or_else(|| base.get(i)).unwrap_or_default());
+    }
+    out.end_row();
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::mappings;
+
+    fn run_diff(options: GenerationOptions) -> Result<(DiffSummary, String), String> {
+        let field_mappings =
+            mappings(&[("id", 0, "String"), ("name", 1, "String"), ("age", 2, "Integer")]);
+        let request = GenerationRequest {
+            db_type: Dialect::MySql,
+            operation_type: Operation::Update,
+            field_mappings,
+            condition_field: "id".to_string(),
+            update_fields: Vec::new(),
+            table_name: "t".to_string(),
+            options,
+        };
+
+        let dir = std::env::temp_dir();
+        let id = format!("{}-{:?}", std::process::id(), std::thread::current().id());
+        let old_path = dir.join(format!("sql-helper-diff-old-{}.csv", id));
+        let new_path = dir.join(format!("sql-helper-diff-new-{}.csv", id));
+        let output_path = dir.join(format!("sql-helper-diff-out-{}.sql", id));
+        std::fs::write(&old_path, "id,name,age\n1,a,10\n2,b,20\n3,c,30\n5,e,50\n").unwrap();
+        // 新增的 4 和已有的 2 在新数据中各出现两次
+        let new_rows = "id,name,age\n1,a,10\n2,b,21\n4,d,40\n5,f,50\n4,d,41\n2,b,21\n";
+        std::fs::write(&new_path, new_rows).unwrap();
+
+        let result = run(
+            &request,
+            old_path.to_str().unwrap(),
+            new_path.to_str().unwrap(),
+            true,
+            &CsvOptions::default(),
+            None,
+            true,
+            output_path.to_str().unwrap(),
+            &JobContext::detached(),
+        );
+        let script = std::fs::read_to_string(&output_path).unwrap_or_default();
+        for path in [&old_path, &new_path, &output_path] {
+            let _ = std::fs::remove_file(path);
+        }
+        result.map(|summary| (summary, script))
+    }
+
+    #[test]
+    fn writes_only_changed_rows() {
+        let (summary, script) = run_diff(GenerationOptions::default()).unwrap();
+        assert_eq!(
+            (summary.updated_rows, summary.inserted_rows, summary.deleted_rows),
+            (3, 1, 1)
+        );
+        assert_eq!(summary.unchanged_rows, 2);
+        let lines: Vec<&str> = script.lines().collect();
+        assert_eq!(lines.len(), 5);
+        assert!(lines[0].starts_with("UPDATE t SET age = 21 WHERE id = '2'"));
+        assert!(lines[1].starts_with("UPDATE t SET name = 'f' WHERE id = '5'"));
+        assert!(lines[2].starts_with("INSERT INTO t"));
+        // 再次出现的新增条件值与先插入的行比较，只更新变化的列
+        assert!(lines[3].starts_with("UPDATE t SET age = 41 WHERE id = '4'"));
+        assert!(lines[4].starts_with("DELETE FROM t WHERE id = '3'"));
+    }
+
+    #[test]
+    fn wraps_changed_rows_in_transactions() {
+        let options = GenerationOptions {
+            transaction_statements: 1,
+            bulk_load: true,
+            ..GenerationOptions::default()
+        };
+        let (_, script) = run_diff(options).unwrap();
+        // 每条 UPDATE 各自一个事务，批量导入设置只写一次
+        assert_eq!(script.matches("START TRANSACTION;\nUPDATE t SET").count(), 3);
+        assert_eq!(script.matches("START TRANSACTION;").count(), 5);
+        assert_eq!(script.matches("SET autocommit = 0;").count(), 1);
+        assert!(script.ends_with("SET autocommit = 1;\n"));
+
+        let staged = GenerationOptions {
+            update_mode: UpdateMode::TempTable,
+            ..GenerationOptions::default()
+        };
+        assert!(run_diff(staged).is_err());
+    }
+}
@@ -0,0 +1,365 @@
+//! 按文件路径读取 CSV / Excel 数据，按 RowTable 分批交给调用方处理；Excel 可按工作表读取
+
+use calamine::{open_workbook_auto, Data, DataRef, Reader, Sheets, Xlsx};
+use serde::Deserialize;
+use std::fs::File;
+use std::io::BufReader;
+use std::path::Path;
+
+use crate::csv_chunks;
+use crate::table::RowTable;
+
+/// CSV 读取缓冲区大小
+const CSV_BUFFER_BYTES: usize = 1 << 20;
+
+/// CSV 格式选项，默认按 RFC 4180 解析
+#[derive(Deserialize, Debug, Clone)]
+#[serde(rename_all = "camelCase", default)]
+pub struct CsvOptions {
+    /// 分隔符
+    pub delimiter: char,
+    /// 引号字符
+    pub quote: char,
+    /// 是否识别引号，关闭后引号作为普通字符
+    pub quoting: bool,
+    /// 引号内用两个引号表示一个引号
+    pub double_quote: bool,
+    /// 引号内的转义字符，例如反斜杠
+    pub escape: Option<char>,
+    /// 去掉字段两端的空白
+    pub trim: bool,
+    /// 多线程分块解析（仅 CSV），适合很大的文件
+    pub parallel: bool,
+    /// 多线程解析时再顺序解析一遍，校验分块边界没有拆开引号字段
+    pub verify_chunks: bool,
+}
+
+impl Default for CsvOptions {
+    fn default() -> Self {
+        CsvOptions {
+            delimiter: ',',
+            quote: '"',
+            quoting: true,
+            double_quote: true,
+            escape: None,
+            trim: true,
+            parallel: false,
+            verify_chunks: false,
+        }
+    }
+}
+
+impl CsvOptions {
+    pub fn reader_builder(&self, has_headers: bool) -> Result<csv::ReaderBuilder, String> {
+        let mut builder = csv::ReaderBuilder::new();
+        builder
+            .has_headers(has_headers)
+            .flexible(true)
+            .buffer_capacity(CSV_BUFFER_BYTES)
+            .delimiter(ascii_byte(self.delimiter, "分隔符")?)
+            .quote(ascii_byte(self.quote, "引号")?)
+            .quoting(self.quoting)
+            .double_quote(self.double_quote)
+            .trim(if self.trim { csv::Trim::All } else { csv::Trim::None });
+        if let Some(escape) = self.escape {
+            builder.escape(Some(ascii_byte(escape, "转义字符")?));
+        }
+        Ok(builder)
+    }
+}
+
+fn ascii_byte(c: char, name: &str) -> Result<u8, String> {
+    if c.is_ascii() {
+        Ok(c as u8)
+    } else {
+        Err(format!("CSV{}必须是单个ASCII字符: {}", name, c))
+    }
+}
+
+/// 根据扩展名判断是否为 Excel 文件
+pub fn is_excel(path: &str) -> bool {
+    match Path::new(path).extension().and_then(|ext| ext.to_str()) {
+        Some(ext) => ext.eq_ignore_ascii_case("xlsx") || ext.eq_ignore_ascii_case("xls"),
+        None => false,
+    }
+}
+
+/// 列出 Excel 文件中的工作表名称，只读取工作簿目录，不解析单元格
+pub fn excel_sheet_names(path: &str) -> Result<Vec<String>, String> {
+    let workbook = open_workbook_auto(path).map_err(|e| format!("无法打开Excel文件: {}", e))?;
+    Ok(workbook.sheet_names())
+}
+
+/// 读取文件开头的 limit 行（含表头）用于预览，读够后立即停止
+pub fn preview(
+    path: &str,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    limit: usize,
+) -> Result<Vec<Vec<String>>, String> {
+    // 只读几行，不需要多线程分块
+    let csv_options = CsvOptions {
+        parallel: false,
+        ..csv_options.clone()
+    };
+    let mut rows = Vec::new();
+    read_batches(path, false, &csv_options, sheet_name, limit.max(1), |batch| {
+        rows = batch.rows().slice(0, limit).to_vecs();
+        false
+    })?;
+    Ok(rows)
+}
+
+/// 逐批读取数据行（不含表头），sink 返回 false 时停止读取，返回读取的行数；
+/// Excel 文件读取 sheet_name 指定的工作表，未指定时读取第一个工作表
+pub fn read_batches<F>(
+    path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    batch_rows: usize,
+    sink: F,
+) -> Result<usize, String>
+where
+    F: FnMut(RowTable) -> bool,
+{
+    if is_excel(path) {
+        read_excel_batches(path, has_headers, sheet_name, batch_rows, sink)
+    } else if csv_options.parallel {
+        csv_chunks::read_batches(path, has_headers, csv_options, batch_rows, sink)
+    } else {
+        read_csv_batches(path, has_headers, csv_options, batch_rows, sink)
+    }
+}
+
+fn read_csv_batches<F>(
+    path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    batch_rows: usize,
+    mut sink: F,
+) -> Result<usize, String>
+where
+    F: FnMut(RowTable) -> bool,
+{
+    let mut reader = csv_options
+        .reader_builder(has_headers)?
+        .from_path(path)
+        .map_err(|e| format!("无法打开CSV文件: {}", e))?;
+
+    let mut record = csv::StringRecord::new();
+    let mut batch = RowTable::with_capacity(batch_rows, 0);
+    let mut total = 0;
+    loop {
+        let has_record = reader
+            .read_record(&mut record)
+            .map_err(|e| format!("读取CSV文件失败: {}", e))?;
+        if !has_record {
+            break;
+        }
+        // 去掉文件开头的 UTF-8 BOM
+        let at_start = record.position().map_or(false, |pos| pos.byte() == 0);
+        if !push_record(&mut batch, &record, at_start) {
+            continue;
+        }
+        if batch.len() >= batch_rows {
+            total += batch.len();
+            if !sink(std::mem::replace(&mut batch, RowTable::with_capacity(batch_rows, 0))) {
+                return Ok(total);
+            }
+        }
+    }
+
+    if !batch.is_empty() {
+        total += batch.len();
+        sink(batch);
+    }
+    Ok(total)
+}
+
+/// 将 CSV 记录追加到表中，strip_bom 时去掉第一个字段开头的 UTF-8 BOM；空行不追加，返回 false
+pub fn push_record(table: &mut RowTable, record: &csv::StringRecord, strip_bom: bool) -> bool {
+    if record.len() == 1 && record[0].trim().is_empty() {
+        return false;
+    }
+    for (i, field) in record.iter().enumerate() {
+        if i == 0 && strip_bom {
+            table.push_cell(field.strip_prefix('\u{feff}').unwrap_or(field));
+        } else {
+            table.push_cell(field);
+        }
+    }
+    table.end_row();
+    true
+}
+
+fn read_excel_batches<F>(
+    path: &str,
+    has_headers: bool,
+    sheet_name: Option<&str>,
+    batch_rows: usize,
+    sink: F,
+) -> Result<usize, String>
+where
+    F: FnMut(RowTable) -> bool,
+{
+    let mut workbook = open_workbook_auto(path).map_err(|e| format!("无法打开Excel文件: {}", e))?;
+
+    // 未指定工作表时使用第一个工作表
+    let sheet_names = workbook.sheet_names();
+    let sheet_name = match sheet_name {
+        Some(name) if sheet_names.iter().any(|sheet| sheet == name) => name.to_string(),
+        Some(name) => return Err(format!("找不到工作表: {}", name)),
+        None => match sheet_names.into_iter().next() {
+            Some(name) => name,
+            None => return Err("Excel文件中没有工作表".to_string()),
+        },
+    };
+
+    let mut rows = ExcelRows {
+        batch: RowTable::with_capacity(batch_rows, 0),
+        batch_rows,
+        total: 0,
+        skip_header: has_headers,
+        sink,
+    };
+
+    // xlsx 按单元格流式解析，sink 停止读取后剩余的行不会被解析
+    if let Sheets::Xlsx(xlsx) = &mut workbook {
+        read_xlsx_rows(xlsx, &sheet_name, &mut rows)?;
+        return Ok(rows.finish());
+    }
+
+    // xls 没有流式接口，只能把选中的工作表整体解析后再逐行转换
+    let range = workbook
+        .worksheet_range(&sheet_name)
+        .map_err(|e| format!("无法读取工作表: {}", e))?;
+    drop(workbook);
+    for row in range.rows() {
+        if !rows.push_range_row(row) {
+            break;
+        }
+    }
+    Ok(rows.finish())
+}
+
+/// 逐个读取 xlsx 单元格，凑满一行后交给 rows
+fn read_xlsx_rows<F>(
+    xlsx: &mut Xlsx<BufReader<File>>,
+    sheet_name: &str,
+    rows: &mut ExcelRows<F>,
+) -> Result<(), String>
+where
+    F: FnMut(RowTable) -> bool,
+{
+    let mut cells = xlsx
+        .worksheet_cells_reader(sheet_name)
+        .map_err(|e| format!("无法读取工作表: {}", e))?;
+    // 列号从工作表区域的第一列开始计，与按区域读取时一致
+    let first_column = cells.dimensions().start.1;
+
+    // 当前行的非空单元格及其列号，行号变化时写入上一行
+    let mut values: Vec<(u32, DataRef)> = Vec::new();
+    let mut current_row = None;
+    while let Some(cell) = cells.next_cell().map_err(|e| format!("读取工作表失败: {}", e))? {
+        let (row, column) = cell.get_position();
+        if current_row != Some(row) {
+            if !rows.push_xlsx_row(&mut values, first_column) {
+                return Ok(());
+            }
+            current_row = Some(row);
+        }
+        let value = cell.get_value();
+        if !is_blank_ref(value) {
+            values.push((column, value.clone()));
+        }
+    }
+    rows.push_xlsx_row(&mut values, first_column);
+    Ok(())
+}
+
+/// Excel 数据行按批写入 RowTable，批满时交给 sink；全空的行不写入，第一个非空行可作为表头跳过
+struct ExcelRows<F> {
+    batch: RowTable,
+    batch_rows: usize,
+    total: usize,
+    skip_header: bool,
+    sink: F,
+}
+
+impl<F> ExcelRows<F>
+where
+    F: FnMut(RowTable) -> bool,
+{
+    /// 写入 xlsx 的一行并清空 values，中间缺少的单元格补空字符串；sink 停止读取时返回 false
+    fn push_xlsx_row(&mut self, values: &mut Vec<(u32, DataRef)>, first_column: u32) -> bool {
+        if values.is_empty() || self.take_header() {
+            values.clear();
+            return true;
+        }
+        let mut next_column = first_column;
+        for (column, value) in values.drain(..) {
+            for _ in next_column..column {
+                self.batch.push_cell("");
+            }
+            match value {
+                DataRef::SharedString(text) => self.batch.push_cell(text),
+                DataRef::String(text) => self.batch.push_cell(&text),
+                value => self.batch.push_display(Data::from(value)),
+            }
+            next_column = column + 1;
+        }
+        self.end_row()
+    }
+
+    /// 写入按区域读取的一行；sink 停止读取时返回 false
+    fn push_range_row(&mut self, row: &[Data]) -> bool {
+        if row.iter().all(is_blank) || self.take_header() {
+            return true;
+        }
+        for cell in row {
+            self.batch.push_display(cell);
+        }
+        self.end_row()
+    }
+
+    fn take_header(&mut self) -> bool {
+        std::mem::replace(&mut self.skip_header, false)
+    }
+
+    fn end_row(&mut self) -> bool {
+        self.batch.end_row();
+        if self.batch.len() < self.batch_rows {
+            return true;
+        }
+        self.total += self.batch.len();
+        let batch = std::mem::replace(&mut self.batch, RowTable::with_capacity(self.batch_rows, 0));
+        (self.sink)(batch)
+    }
+
+    /// 交出最后不满一批的行，返回读取的总行数
+    fn finish(mut self) -> usize {
+        if !self.batch.is_empty() {
+            self.total += self.batch.len();
+            (self.sink)(self.batch);
+        }
+        self.total
+    }
+}
+
+fn is_blank(cell: &Data) -> bool {
+    match cell {
+        Data::Empty => true,
+        Data::String(text) => text.is_empty(),
+        _ => false,
+    }
+}
+
+fn is_blank_ref(cell: &DataRef) -> bool {
+    match cell {
+        DataRef::Empty => true,
+        DataRef::String(text) => text.is_empty(),
+        DataRef::SharedString(text) => text.is_empty(),
+        _ => false,
+    }
+}
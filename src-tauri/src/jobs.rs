@@ -0,0 +1,190 @@
+//! 后台任务：在阻塞线程池中执行耗时的解析和生成，支持进度上报和取消
+
+use serde::Serialize;
+use std::collections::HashMap;
+use std::sync::atomic::{AtomicBool, AtomicU64, AtomicUsize, Ordering};
+use std::sync::{Arc, Mutex};
+use std::time::{Duration, Instant};
+use tauri::ipc::Channel;
+
+/// 两次进度上报之间的最小间隔
+const REPORT_INTERVAL: Duration = Duration::from_millis(200);
+
+/// 上报给前端的任务进度
+#[derive(Serialize, Clone, Debug)]
+#[serde(rename_all = "camelCase")]
+pub struct JobProgress {
+    pub rows_processed: usize,
+    pub bytes_written: u64,
+    /// 因条件值重复被合并掉的行数
+    pub duplicate_rows: usize,
+    pub done: bool,
+}
+
+/// 正在执行的任务，按前端传入的任务 ID 登记取消标记
+#[derive(Default)]
+pub struct JobRegistry {
+    jobs: Mutex<HashMap<String, Arc<AtomicBool>>>,
+}
+
+impl JobRegistry {
+    /// 登记任务的取消标记；同一 ID 的任务仍在执行时返回错误，避免覆盖它的标记
+    fn register(&self, job_id: &str) -> Result<Arc<AtomicBool>, String> {
+        let mut jobs = self.jobs.lock().unwrap();
+        if jobs.contains_key(job_id) {
+            return Err(format!("任务 ID 已存在: {}", job_id));
+        }
+        let cancelled = Arc::new(AtomicBool::new(false));
+        jobs.insert(job_id.to_string(), cancelled.clone());
+        Ok(cancelled)
+    }
+
+    fn remove(&self, job_id: &str) {
+        self.jobs.lock().unwrap().remove(job_id);
+    }
+
+    /// 取消任务，任务不存在（已结束）时返回 false
+    pub fn cancel(&self, job_id: &str) -> bool {
+        match self.jobs.lock().unwrap().get(job_id) {
+            Some(cancelled) => {
+                cancelled.store(true, Ordering::Relaxed);
+                true
+            }
+            None => false,
+        }
+    }
+}
+
+/// 任务执行过程中使用的上下文：取消标记、进度计数和上报通道
+pub struct JobContext {
+    cancelled: Arc<AtomicBool>,
+    rows: AtomicUsize,
+    bytes: AtomicU64,
+    duplicates: AtomicUsize,
+    last_report: Mutex<Instant>,
+    on_progress: Option<Channel<JobProgress>>,
+}
+
+impl JobContext {
+    fn new(cancelled: Arc<AtomicBool>, on_progress: Option<Channel<JobProgress>>) -> JobContext {
+        JobContext {
+            cancelled,
+            rows: AtomicUsize::new(0),
+            bytes: AtomicU64::new(0),
+            duplicates: AtomicUsize::new(0),
+            last_report: Mutex::new(Instant::now()),
+            on_progress,
+        }
+    }
+
+    /// 不可取消、不上报进度的上下文
+    pub fn detached() -> JobContext {
+        JobContext::new(Arc::new(AtomicBool::new(false)), None)
+    }
+
+    pub fn is_cancelled(&self) -> bool {
+        self.cancelled.load(Ordering::Relaxed)
+    }
+
+    /// 任务已被取消时返回错误
+    pub fn check(&self) -> Result<(), String> {
+        if self.is_cancelled() {
+            Err("任务已取消".to_string())
+        } else {
+            Ok(())
+        }
+    }
+
+    pub fn add_rows(&self, rows: usize) {
+        self.rows.fetch_add(rows, Ordering::Relaxed);
+        self.report(false);
+    }
+
+    pub fn add_bytes(&self, bytes: u64) {
+        self.bytes.fetch_add(bytes, Ordering::Relaxed);
+        self.report(false);
+    }
+
+    pub fn add_duplicates(&self, rows: usize) {
+        self.duplicates.fetch_add(rows, Ordering::Relaxed);
+    }
+
+    pub fn duplicates(&self) -> usize {
+        self.duplicates.load(Ordering::Relaxed)
+    }
+
+    fn report(&self, done: bool) {
+        let channel = match &self.on_progress {
+            Some(channel) => channel,
+            None => return,
+        };
+
+        // 其他线程正在上报时直接跳过
+        if !done {
+            let mut last_report = match self.last_report.try_lock() {
+                Ok(last_report) => last_report,
+                Err(_) => return,
+            };
+            if last_report.elapsed() < REPORT_INTERVAL {
+                return;
+            }
+            *last_report = Instant::now();
+        }
+
+        let _ = channel.send(JobProgress {
+            rows_processed: self.rows.load(Ordering::Relaxed),
+            bytes_written: self.bytes.load(Ordering::Relaxed),
+            duplicate_rows: self.duplicates(),
+            done,
+        });
+    }
+}
+
+/// 在阻塞线程池中执行任务；传入 job_id 时可通过 cancel_job 取消
+pub async fn run<T, F>(
+    registry: &JobRegistry,
+    job_id: Option<String>,
+    on_progress: Option<Channel<JobProgress>>,
+    work: F,
+) -> Result<T, String>
+where
+    T: Send + 'static,
+    F: FnOnce(&JobContext) -> Result<T, String> + Send + 'static,
+{
+    let cancelled = match &job_id {
+        Some(job_id) => registry.register(job_id)?,
+        None => Arc::new(AtomicBool::new(false)),
+    };
+    let context = JobContext::new(cancelled, on_progress);
+
+    let result = tauri::async_runtime::spawn_blocking(move || {
+        let result = work(&context);
+        context.report(true);
+        result
+    })
+    .await;
+
+    if let Some(job_id) = &job_id {
+        registry.remove(job_id);
+    }
+    result.map_err(|e| format!("后台任务异常退出: {}", e))?
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn duplicate_job_id_keeps_running_job() {
+        let registry = JobRegistry::default();
+        let cancelled = registry.register("job").unwrap();
+        assert!(registry.register("job").is_err());
+
+        assert!(registry.cancel("job"));
+        assert!(cancelled.load(Ordering::Relaxed));
+
+        registry.remove("job");
+        assert!(!registry.cancel("job"));
+        assert!(registry.register("job").is_ok());
+    }
+}
@@ -1,54 +1,97 @@
-use calamine::{open_workbook, Reader, Xlsx};
+mod batch;
+mod csv_chunks;
+mod dataset;
+mod dedupe;
+mod diff;
+mod ingest;
+mod jobs;
+mod mongodb;
+mod mysql;
+mod parallel;
+mod pipeline;
+mod plan;
+mod postgres;
+mod sort;
+mod table;
+mod writer;
+
+use dataset::{DatasetInfo, DatasetRegistry};
+use diff::DiffSummary;
+use ingest::CsvOptions;
+use jobs::{JobContext, JobProgress, JobRegistry};
+use pipeline::PipelineSummary;
+use plan::{Dialect, FieldMappingInfo, GenerationOptions, GenerationRequest, Operation};
+use table::{RowTable, Rows};
 use regex::Regex;
-use serde::{Deserialize, Serialize};
 use std::collections::HashMap;
 use std::fs::File;
 use std::io::{self, Read};
-use std::path::Path;
-use tauri::Manager;
-
-#[derive(Serialize, Deserialize, Debug)]
-struct FieldMappingInfo {
-    #[serde(rename = "dbField")]
-    db_field: String,
-    #[serde(rename = "csvIndex")]
-    csv_index: usize,
-    #[serde(rename = "fieldType")]
-    field_type: Option<String>, // 添加字段类型，使用Option因为可能为空
-}
+use tauri::ipc::Channel;
+use tauri::{Manager, State};
 
-#[tauri::command]
-fn parse_excel_file(file_path: String) -> Result<Vec<Vec<String>>, String> {
-    let path = Path::new(&file_path);
+/// 顺序生成时每处理这么多行检查一次取消并上报进度
+const PROGRESS_ROWS: usize = 4096;
 
-    // 打开Excel文件
-    let mut workbook: Xlsx<_> = match open_workbook(path) {
-        Ok(wb) => wb,
-        Err(e) => return Err(format!("无法打开Excel文件: {}", e)),
-    };
+/// parse_excel_file 每批转换的行数
+const EXCEL_BATCH_ROWS: usize = 4096;
 
-    // 获取第一个工作表
-    let sheet_name = match workbook.sheet_names().first() {
-        Some(name) => name.clone(),
-        None => return Err("Excel文件中没有工作表".to_string()),
-    };
+#[tauri::command]
+async fn parse_excel_file(
+    file_path: String,
+    sheet_name: Option<String>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<Vec<Vec<String>>, String> {
+    jobs::run(&jobs, None, None, move |_| {
+        read_excel_rows(&file_path, sheet_name.as_deref())
+    })
+    .await
+}
 
-    let range = match workbook.worksheet_range(&sheet_name) {
-        Some(Ok(range)) => range,
-        Some(Err(e)) => return Err(format!("无法读取工作表: {}", e)),
-        None => return Err("找不到指定的工作表".to_string()),
-    };
+/// 列出 Excel 文件中的工作表名称
+#[tauri::command]
+async fn list_excel_sheets(
+    file_path: String,
+    jobs: State<'_, JobRegistry>,
+) -> Result<Vec<String>, String> {
+    jobs::run(&jobs, None, None, move |_| ingest::excel_sheet_names(&file_path)).await
+}
 
-    // 将Excel数据转换为字符串二维数组
-    let mut result = Vec::new();
-    for row in range.rows() {
-        let mut row_data = Vec::new();
-        for cell in row {
-            row_data.push(cell.to_string());
-        }
-        result.push(row_data);
-    }
+/// 只读取数据文件开头的几行（含表头），用于导入前快速预览
+#[tauri::command]
+async fn preview_data_file(
+    file_path: String,
+    csv_options: Option<CsvOptions>,
+    sheet_name: Option<String>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<Vec<Vec<String>>, String> {
+    jobs::run(&jobs, None, None, move |_| {
+        ingest::preview(
+            &file_path,
+            &csv_options.unwrap_or_default(),
+            sheet_name.as_deref(),
+            dataset::PREVIEW_ROWS + 1,
+        )
+    })
+    .await
+}
 
+/// 读取整个工作表（含表头行）；未指定工作表时读取第一个工作表
+fn read_excel_rows(
+    file_path: &str,
+    sheet_name: Option<&str>,
+) -> Result<Vec<Vec<String>>, String> {
+    let mut result = Vec::new();
+    ingest::read_batches(
+        file_path,
+        false,
+        &CsvOptions::default(),
+        sheet_name,
+        EXCEL_BATCH_ROWS,
+        |batch| {
+            result.extend(batch.rows().to_vecs());
+            true
+        },
+    )?;
     Ok(result)
 }
 
@@ -65,828 +108,458 @@ fn read_mybatis_file(file_path: &str) -> Result<Vec<String>, String> {
 }
 
 #[tauri::command]
-fn generate_mongodb_script(
+async fn generate_mongodb_script(
     csv_data: Vec<Vec<String>>,
     field_mappings: HashMap<String, FieldMappingInfo>,
     condition_field: String,
     update_fields: Vec<String>,
     table_name: String,
+    options: Option<GenerationOptions>,
+    job_id: Option<String>,
+    jobs: State<'_, JobRegistry>,
 ) -> Result<String, String> {
-    // println!(
-    //     "generate_mongodb_script start : {}, {:?}",
-    //     table_name, field_mappings
-    // );
-    let mut script = String::new();
-
-    // 检查CSV数据是否为空
-    if csv_data.is_empty() || csv_data.len() <= 1 {
-        return Ok(script);
-    }
-
-    // 为每一行 CSV 数据生成一个 MongoDB 更新语句
-    for row in &csv_data {
-        let mut condition_value = String::new();
-        let mut update_values = HashMap::new();
-
-        // 遍历字段映射
-        for (_, mapping_info) in &field_mappings {
-            let csv_index = mapping_info.csv_index;
-            let db_field = &mapping_info.db_field;
-            let field_type = &mapping_info.field_type;
-
-            // 确保索引在有效范围内
-            if csv_index < row.len() {
-                let value = &row[csv_index];
-
-                // 检查是否是条件字段
-                if db_field == &condition_field {
-                    condition_value = value.to_string();
-                }
-
-                // 检查是否是更新字段
-                if update_fields.contains(db_field) {
-                    update_values.insert(db_field.clone(), (value.to_string(), field_type.clone()));
-                }
-            }
-        }
-
-        // 生成 MongoDB 更新语句
-        if !condition_value.is_empty() && !update_values.is_empty() {
-            // 处理条件字段的值
-            let condition_field_type = field_mappings.values()
-                .find(|info| &info.db_field == &condition_field)
-                .and_then(|info| info.field_type.clone());
-            
-            // 根据条件字段类型格式化条件值
-            let formatted_condition_value = if let Some(type_str) = condition_field_type {
-                if type_str.contains("Integer") || type_str.contains("Long") || 
-                   type_str.contains("Double") || type_str.contains("Float") {
-                    // 数字类型，不加引号
-                    if condition_value.is_empty() {
-                        "null".to_string()
-                    } else {
-                        condition_value
-                    }
-                } else if type_str.contains("Boolean") {
-                    // 布尔类型
-                    let bool_value = condition_value.to_lowercase();
-                    if bool_value == "true" || bool_value == "1" {
-                        "true".to_string()
-                    } else if bool_value == "false" || bool_value == "0" {
-                        "false".to_string()
-                    } else if condition_value.is_empty() {
-                        "null".to_string()
-                    } else {
-                        format!("\'{}\'", condition_value)
-                    }
-                } else {
-                    // 字符串类型，加引号
-                    format!("\'{}\'", condition_value)
-                }
-            } else {
-                // 默认作为字符串处理
-                format!("\'{}\'", condition_value)
-            };
-
-            script.push_str(&format!(
-                "db.{}.updateOne({{ {}: {} }}, {{ $set: {{ ",
-                table_name, condition_field, formatted_condition_value
-            ));
-
-            let mut first = true;
-            for (field, (value, field_type)) in &update_values {
-                if !first {
-                    script.push_str(", ");
-                }
-                
-                // 根据字段类型处理值
-                if let Some(type_str) = field_type {
-                    if type_str.contains("LocalDateTime") || type_str.contains("LocalDate") || type_str.contains("Date") {
-                        // 日期时间类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            script.push_str(&format!("\"{}\": ISODate(\"{}\")", field, value));
-                        }
-                    } else if type_str.contains("Integer") || type_str.contains("Long") || 
-                              type_str.contains("Double") || type_str.contains("Float") {
-                        // 数字类型，不加引号
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            script.push_str(&format!("\"{}\": {}", field, value));
-                        }
-                    } else if type_str.contains("Boolean") {
-                        // 布尔类型
-                        let bool_value = value.to_lowercase();
-                        if bool_value == "true" || bool_value == "1" {
-                            script.push_str(&format!("\"{}\": true", field));
-                        } else if bool_value == "false" || bool_value == "0" {
-                            script.push_str(&format!("\"{}\": false", field));
-                        } else if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            script.push_str(&format!("\"{}\": {}", field, value));
-                        }
-                    } else if type_str.contains("String") {
-                        // 字符串类型，加引号
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 转义双引号
-                            let escaped_value = value.replace("\"", "\\\"");
-                            script.push_str(&format!("\"{}\": \'{}\'", field, escaped_value));
-                        }
-                    } else {
-                        // 其他类型，作为字符串处理
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            script.push_str(&format!("\"{}\": {}", field, value));
-                        }
-                    }
-                } else {
-                    // 没有类型信息，作为字符串处理
-                    if value.is_empty() {
-                        script.push_str(&format!("\"{}\": null", field));
-                    } else {
-                        // 转义双引号
-                        let escaped_value = value.replace("\"", "\\\"");
-                        script.push_str(&format!("\"{}\": \'{}\'", field, escaped_value));
-                    }
-                }
-                first = false;
-            }
-
-            script.push_str(" } });\n");
-        }
-    }
-
-    println!(
-        "generate_mongodb_script end : {}, script length: {}",
+    let request = GenerationRequest {
+        db_type: Dialect::MongoDb,
+        operation_type: Operation::Update,
+        field_mappings,
+        condition_field,
+        update_fields,
         table_name,
-        script.len()
-    );
-    Ok(script)
+        options: options.unwrap_or_default(),
+    };
+    generate_in_background(
+        "generate_mongodb_script",
+        request,
+        csv_data,
+        job_id,
+        None,
+        &jobs,
+    )
+    .await
 }
 
 #[tauri::command]
-fn generate_mysql_script(
+async fn generate_mysql_script(
     csv_data: Vec<Vec<String>>,
     field_mappings: HashMap<String, FieldMappingInfo>,
     condition_field: String,
     update_fields: Vec<String>,
     table_name: String,
+    options: Option<GenerationOptions>,
+    job_id: Option<String>,
+    jobs: State<'_, JobRegistry>,
 ) -> Result<String, String> {
-    println!(
-        "generate_mysql_script start : {}, {:?}",
-        table_name, field_mappings
-    );
-    let mut script = String::new();
-
-    // 检查CSV数据是否为空
-    if csv_data.is_empty() || csv_data.len() <= 1 {
-        return Ok(script);
-    }
-
-    // 为每一行 CSV 数据生成一个 MySQL 更新语句
-    for row in &csv_data {
-        let mut condition_value = String::new();
-        let mut update_values = HashMap::new();
-
-        // 遍历字段映射
-        for (_, mapping_info) in &field_mappings {
-            let csv_index = mapping_info.csv_index;
-            let db_field = &mapping_info.db_field;
-            let field_type = &mapping_info.field_type;
-
-            // 确保索引在有效范围内
-            if csv_index < row.len() {
-                let value = &row[csv_index];
-
-                // 检查是否是条件字段
-                if db_field == &condition_field {
-                    condition_value = value.to_string();
-                }
-
-                // 检查是否是更新字段
-                if update_fields.contains(db_field) {
-                    update_values.insert(db_field.clone(), (value.to_string(), field_type.clone()));
-                }
-            }
-        }
-
-        // 生成 MySQL 更新语句
-        if !condition_value.is_empty() && !update_values.is_empty() {
-            script.push_str(&format!("UPDATE {} SET ", table_name));
-
-            let mut first = true;
-            for (field, (value, field_type)) in &update_values {
-                if !first {
-                    script.push_str(", ");
-                }
-                
-                // 根据字段类型处理值
-                if let Some(type_str) = field_type {
-                    if type_str.contains("LocalDateTime") {
-                        // LocalDateTime 类型
-                        script.push_str(&format!("{} = STR_TO_DATE('{}', '%Y-%m-%dT%H:%i:%s')", field, value));
-                    } else if type_str.contains("LocalDate") || type_str.contains("Date") {
-                        // LocalDate 或 Date 类型
-                        script.push_str(&format!("{} = STR_TO_DATE('{}', '%Y-%m-%d')", field, value));
-                    } else if type_str.contains("Integer") || type_str.contains("Long") || type_str.contains("Double") || type_str.contains("Float") {
-                        // 数字类型，不加引号
-                        if value.is_empty() {
-                            script.push_str(&format!("{} = NULL", field));
-                        } else {
-                            script.push_str(&format!("{} = {}", field, value));
-                        }
-                    } else if type_str.contains("Boolean") {
-                        // 布尔类型
-                        let bool_value = value.to_lowercase();
-                        if bool_value == "true" || bool_value == "1" {
-                            script.push_str(&format!("{} = TRUE", field));
-                        } else if bool_value == "false" || bool_value == "0" {
-                            script.push_str(&format!("{} = FALSE", field));
-                        } else if value.is_empty() {
-                            script.push_str(&format!("{} = NULL", field));
-                        } else {
-                            script.push_str(&format!("{} = '{}'", field, value));
-                        }
-                    } else {
-                        // 其他类型，作为字符串处理
-                        if value.is_empty() {
-                            script.push_str(&format!("{} = NULL", field));
-                        } else {
-                            // 转义单引号
-                            let escaped_value = value.replace("'", "''");
-                            script.push_str(&format!("{} = '{}'", field, escaped_value));
-                        }
-                    }
-                } else {
-                    // 没有类型信息，作为字符串处理
-                    if value.is_empty() {
-                        script.push_str(&format!("{} = NULL", field));
-                    } else {
-                        // 转义单引号
-                        let escaped_value = value.replace("'", "''");
-                        script.push_str(&format!("{} = '{}'", field, escaped_value));
-                    }
-                }
-                first = false;
-            }
-
-            // 处理条件字段的值
-            let condition_field_type = field_mappings.values().find(|info| &info.db_field == &condition_field).and_then(|info| info.field_type.clone());
-            
-            if let Some(type_str) = condition_field_type {
-                if type_str.contains("LocalDateTime") {
-                    script.push_str(&format!(" WHERE {} = STR_TO_DATE('{}', '%Y-%m-%dT%H:%i:%s');\n", condition_field, condition_value));
-                } else if type_str.contains("LocalDate") || type_str.contains("Date") {
-                    script.push_str(&format!(" WHERE {} = STR_TO_DATE('{}', '%Y-%m-%d');\n", condition_field, condition_value));
-                } else if type_str.contains("Integer") || type_str.contains("Long") || type_str.contains("Double") || type_str.contains("Float") {
-                    script.push_str(&format!(" WHERE {} = {};\n", condition_field, condition_value));
-                } else if type_str.contains("Boolean") {
-                    let bool_value = condition_value.to_lowercase();
-                    if bool_value == "true" || bool_value == "1" {
-                        script.push_str(&format!(" WHERE {} = TRUE;\n", condition_field));
-                    } else if bool_value == "false" || bool_value == "0" {
-                        script.push_str(&format!(" WHERE {} = FALSE;\n", condition_field));
-                    } else {
-                        script.push_str(&format!(" WHERE {} = '{}';\n", condition_field, condition_value));
-                    }
-                } else {
-                    // 转义单引号
-                    let escaped_value = condition_value.replace("'", "''");
-                    script.push_str(&format!(" WHERE {} = '{}';\n", condition_field, escaped_value));
-                }
-            } else {
-                // 转义单引号
-                let escaped_value = condition_value.replace("'", "''");
-                script.push_str(&format!(" WHERE {} = '{}';\n", condition_field, escaped_value));
-            }
-        }
-    }
-
-    println!(
-        "generate_mysql_script end : {}, script length: {}",
+    let request = GenerationRequest {
+        db_type: Dialect::MySql,
+        operation_type: Operation::Update,
+        field_mappings,
+        condition_field,
+        update_fields,
         table_name,
-        script.len()
-    );
-    Ok(script)
+        options: options.unwrap_or_default(),
+    };
+    generate_in_background(
+        "generate_mysql_script",
+        request,
+        csv_data,
+        job_id,
+        None,
+        &jobs,
+    )
+    .await
 }
 
 #[tauri::command]
-fn generate_mongodb_insert_script(
+async fn generate_mongodb_insert_script(
     csv_data: Vec<Vec<String>>,
     field_mappings: HashMap<String, FieldMappingInfo>,
     table_name: String,
+    options: Option<GenerationOptions>,
+    job_id: Option<String>,
+    jobs: State<'_, JobRegistry>,
 ) -> Result<String, String> {
-    // println!(
-    //     "generate_mongodb_insert_script start : {}, {:?}",
-    //     table_name, field_mappings
-    // );
-    let mut script = String::new();
-
-    // 检查CSV数据是否为空
-    if csv_data.is_empty() || csv_data.len() <= 1 {
-        return Ok(script);
-    }
-
-    // 为每一行 CSV 数据生成一个 MongoDB 插入语句
-    for row in &csv_data {
-        let mut insert_values = HashMap::new();
-
-        // 遍历字段映射
-        for (_, mapping_info) in &field_mappings {
-            let csv_index = mapping_info.csv_index;
-            let db_field = &mapping_info.db_field;
-            let field_type = &mapping_info.field_type;
-
-            // 确保索引在有效范围内
-            if csv_index < row.len() {
-                let value = &row[csv_index];
-                insert_values.insert(db_field.clone(), (value.to_string(), field_type.clone()));
-            }
-        }
-
-        // 生成 MongoDB 插入语句
-        if !insert_values.is_empty() {
-            script.push_str(&format!("db.{}.insertOne({{ ", table_name));
-
-            let mut first = true;
-            for (field, (value, field_type)) in &insert_values {
-                if !first {
-                    script.push_str(", ");
-                }
-                
-                // 根据字段类型处理值
-                if let Some(type_str) = field_type {
-                    if type_str.contains("LocalDateTime") || type_str.contains("LocalDate") || type_str.contains("Date") {
-                        // 日期时间类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用new Date()格式
-                            script.push_str(&format!("\"{}\": new Date(\"{}\")", field, value));
-                        }
-                    } else if type_str.contains("Timestamp") {
-                        // 时间戳类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用new Timestamp()格式
-                            script.push_str(&format!("\"{}\": new Timestamp()", field));
-                        }
-                    } else if type_str.contains("ObjectId") {
-                        // ObjectId类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else if value.len() == 24 && value.chars().all(|c| c.is_ascii_hexdigit()) {
-                            // 如果是有效的ObjectId格式（24位十六进制）
-                            script.push_str(&format!("\"{}\": ObjectId(\"{}\")", field, value));
-                        } else {
-                            // 否则作为字符串处理
-                            script.push_str(&format!("\"{}\": \"{}\"", field, value));
-                        }
-                    } else if type_str.contains("Integer") {
-                        // 整数类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用NumberInt()格式
-                            script.push_str(&format!("\"{}\": NumberInt({})", field, value));
-                        }
-                    } else if type_str.contains("Long") {
-                        // 长整数类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用NumberLong()格式
-                            script.push_str(&format!("\"{}\": NumberLong({})", field, value));
-                        }
-                    } else if type_str.contains("Double") || type_str.contains("Float") {
-                        // 浮点数类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 直接使用数字值
-                            script.push_str(&format!("\"{}\": {}", field, value));
-                        }
-                    } else if type_str.contains("Decimal") {
-                        // Decimal128类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用NumberDecimal()格式
-                            script.push_str(&format!("\"{}\": NumberDecimal(\"{}\")", field, value));
-                        }
-                    } else if type_str.contains("Boolean") {
-                        // 布尔类型
-                        let bool_value = value.to_lowercase();
-                        if bool_value == "true" || bool_value == "1" {
-                            script.push_str(&format!("\"{}\": true", field));
-                        } else if bool_value == "false" || bool_value == "0" {
-                            script.push_str(&format!("\"{}\": false", field));
-                        } else if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            script.push_str(&format!("\"{}\": \"{}\"", field, value));
-                        }
-                    } else if type_str.contains("Binary") {
-                        // Binary类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用BinData格式
-                            script.push_str(&format!("\"{}\": BinData(0, \"{}\")", field, value));
-                        }
-                    } else if type_str.contains("RegExp") {
-                        // 正则表达式类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用RegExp格式
-                            script.push_str(&format!("\"{}\": RegExp(\"{}\")", field, value));
-                        }
-                    } else if type_str.contains("MinKey") {
-                        // MinKey类型
-                        script.push_str(&format!("\"{}\": MinKey()", field));
-                    } else if type_str.contains("MaxKey") {
-                        // MaxKey类型
-                        script.push_str(&format!("\"{}\": MaxKey()", field));
-                    } else if type_str.contains("Code") {
-                        // Code类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 使用Code格式
-                            script.push_str(&format!("\"{}\": Code(\"{}\")", field, value));
-                        }
-                    } else if type_str.contains("Object") {
-                        // 对象类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else if value.starts_with("{") && value.ends_with("}") {
-                            // 如果已经是JSON格式，直接使用
-                            script.push_str(&format!("\"{}\": {}", field, value));
-                        } else {
-                            // 否则作为字符串处理
-                            script.push_str(&format!("\"{}\": \"{}\"", field, value));
-                        }
-                    } else if type_str.contains("Array") {
-                        // 数组类型
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else if value.starts_with("[") && value.ends_with("]") {
-                            // 如果已经是数组格式，直接使用
-                            script.push_str(&format!("\"{}\": {}", field, value));
-                        } else {
-                            // 尝试将逗号分隔的值转换为数组
-                            let array_items = value.split(',').map(|s| format!("\"{}\"", s.trim())).collect::<Vec<String>>().join(", ");
-                            script.push_str(&format!("\"{}\": [{}]", field, array_items));
-                        }
-                    } else if type_str.contains("String") {
-                        // 字符串类型，加引号
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 转义双引号
-                            let escaped_value = value.replace("\"", "\\\"");
-                            script.push_str(&format!("\"{}\": \"{}\"", field, escaped_value));
-                        }
-                    } else {
-                        // 其他类型，作为字符串处理
-                        if value.is_empty() {
-                            script.push_str(&format!("\"{}\": null", field));
-                        } else {
-                            // 转义双引号
-                            let escaped_value = value.replace("\"", "\\\"");
-                            script.push_str(&format!("\"{}\": \"{}\"", field, escaped_value));
-                        }
-                    }
-                } else {
-                    // 没有类型信息，作为字符串处理
-                    if value.is_empty() {
-                        script.push_str(&format!("\"{}\": null", field));
-                    } else {
-                        // 转义双引号
-                        let escaped_value = value.replace("\"", "\\\"");
-                        script.push_str(&format!("\"{}\": \"{}\"", field, escaped_value));
-                    }
-                }
-                first = false;
-            }
+    let request = GenerationRequest {
+        db_type: Dialect::MongoDb,
+        operation_type: Operation::Insert,
+        field_mappings,
+        condition_field: String::new(),
+        update_fields: Vec::new(),
+        table_name,
+        options: options.unwrap_or_default(),
+    };
+    generate_in_background(
+        "generate_mongodb_insert_script",
+        request,
+        csv_data,
+        job_id,
+        None,
+        &jobs,
+    )
+    .await
+}
 
-            script.push_str(" });");
-            script.push_str("\n");
-        }
-    }
+#[tauri::command]
+async fn generate_mongodb_delete_script(
+    csv_data: Vec<Vec<String>>,
+    field_mappings: HashMap<String, FieldMappingInfo>,
+    condition_field: String,
+    table_name: String,
+    options: Option<GenerationOptions>,
+    job_id: Option<String>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<String, String> {
+    let request = GenerationRequest {
+        db_type: Dialect::MongoDb,
+        operation_type: Operation::Delete,
+        field_mappings,
+        condition_field,
+        update_fields: Vec::new(),
+        table_name,
+        options: options.unwrap_or_default(),
+    };
+    generate_in_background(
+        "generate_mongodb_delete_script",
+        request,
+        csv_data,
+        job_id,
+        None,
+        &jobs,
+    )
+    .await
+}
 
-    println!(
-        "generate_mongodb_insert_script end : {}, script length: {}",
+#[tauri::command]
+async fn generate_mysql_insert_script(
+    csv_data: Vec<Vec<String>>,
+    field_mappings: HashMap<String, FieldMappingInfo>,
+    table_name: String,
+    options: Option<GenerationOptions>,
+    job_id: Option<String>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<String, String> {
+    let request = GenerationRequest {
+        db_type: Dialect::MySql,
+        operation_type: Operation::Insert,
+        field_mappings,
+        condition_field: String::new(),
+        update_fields: Vec::new(),
         table_name,
-        script.len()
-    );
-    Ok(script)
+        options: options.unwrap_or_default(),
+    };
+    generate_in_background(
+        "generate_mysql_insert_script",
+        request,
+        csv_data,
+        job_id,
+        None,
+        &jobs,
+    )
+    .await
 }
 
 #[tauri::command]
-fn generate_mongodb_delete_script(
+async fn generate_mysql_delete_script(
     csv_data: Vec<Vec<String>>,
     field_mappings: HashMap<String, FieldMappingInfo>,
     condition_field: String,
     table_name: String,
+    options: Option<GenerationOptions>,
+    job_id: Option<String>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<String, String> {
+    let request = GenerationRequest {
+        db_type: Dialect::MySql,
+        operation_type: Operation::Delete,
+        field_mappings,
+        condition_field,
+        update_fields: Vec::new(),
+        table_name,
+        options: options.unwrap_or_default(),
+    };
+    generate_in_background(
+        "generate_mysql_delete_script",
+        request,
+        csv_data,
+        job_id,
+        None,
+        &jobs,
+    )
+    .await
+}
+
+/// 以任务方式生成脚本，通过 on_progress 上报进度，可用 cancel_job 取消
+#[tauri::command]
+async fn generate_script_job(
+    request: GenerationRequest,
+    csv_data: Vec<Vec<String>>,
+    job_id: String,
+    on_progress: Channel<JobProgress>,
+    jobs: State<'_, JobRegistry>,
 ) -> Result<String, String> {
+    generate_in_background(
+        "generate_script_job",
+        request,
+        csv_data,
+        Some(job_id),
+        Some(on_progress),
+        &jobs,
+    )
+    .await
+}
+
+/// 解析数据文件并保存在后端，返回句柄、表头和预览数据
+#[tauri::command]
+async fn import_dataset(
+    file_path: String,
+    has_headers: bool,
+    csv_options: Option<CsvOptions>,
+    sheet_name: Option<String>,
+    job_id: String,
+    on_progress: Channel<JobProgress>,
+    jobs: State<'_, JobRegistry>,
+    datasets: State<'_, DatasetRegistry>,
+) -> Result<DatasetInfo, String> {
+    println!("import_dataset start : {}", file_path);
+    let dataset = jobs::run(&jobs, Some(job_id), Some(on_progress), move |context| {
+        dataset::load(
+            &file_path,
+            has_headers,
+            &csv_options.unwrap_or_default(),
+            sheet_name.as_deref(),
+            context,
+        )
+    })
+    .await?;
+
+    let memory = dataset.rows.heap_bytes();
+    let info = datasets.insert(dataset);
     println!(
-        "generate_mongodb_delete_script start : {}, {:?}",
-        table_name, field_mappings
+        "import_dataset end : {}, handle: {}, rows: {}, memory: {} KB",
+        info.path,
+        info.handle,
+        info.row_count,
+        memory >> 10
     );
-    let mut script = String::new();
-
-    // 检查CSV数据是否为空
-    if csv_data.is_empty() || csv_data.len() <= 1 {
-        return Ok(script);
-    }
+    Ok(info)
+}
 
-    // 为每一行 CSV 数据生成一个 MongoDB 删除语句
-    for row in &csv_data {
-        let mut condition_value = String::new();
-        let mut condition_field_type = None;
-
-        // 遍历字段映射
-        for (_, mapping_info) in &field_mappings {
-            let csv_index = mapping_info.csv_index;
-            let db_field = &mapping_info.db_field;
-            let field_type = &mapping_info.field_type;
-
-            // 确保索引在有效范围内
-            if csv_index < row.len() && db_field == &condition_field {
-                let value = &row[csv_index];
-                condition_value = value.to_string();
-                condition_field_type = field_type.clone();
-                break;
-            }
-        }
+/// 读取数据集中的一段行数据用于预览
+#[tauri::command]
+fn preview_dataset(
+    handle: u64,
+    offset: usize,
+    limit: usize,
+    datasets: State<'_, DatasetRegistry>,
+) -> Result<Vec<Vec<String>>, String> {
+    let dataset = datasets.get(handle)?;
+    Ok(dataset
+        .rows
+        .rows()
+        .slice(offset, offset.saturating_add(limit))
+        .to_vecs())
+}
 
-        // 生成 MongoDB 删除语句
-        if !condition_value.is_empty() {
-            // 根据条件字段类型格式化条件值
-            let formatted_condition_value = if let Some(type_str) = condition_field_type {
-                if type_str.contains("Integer") || type_str.contains("Long") || 
-                   type_str.contains("Double") || type_str.contains("Float") {
-                    // 数字类型，不加引号
-                    condition_value
-                } else if type_str.contains("Boolean") {
-                    // 布尔类型
-                    let bool_value = condition_value.to_lowercase();
-                    if bool_value == "true" || bool_value == "1" {
-                        "true".to_string()
-                    } else if bool_value == "false" || bool_value == "0" {
-                        "false".to_string()
-                    } else {
-                        format!("\'{}\'", condition_value)
-                    }
-                } else {
-                    // 字符串类型，加引号
-                    format!("\'{}\'", condition_value)
-                }
-            } else {
-                // 默认作为字符串处理
-                format!("\'{}\'", condition_value)
-            };
-
-            script.push_str(&format!(
-                "db.{}.deleteOne({{ {}: {} }});\n",
-                table_name, condition_field, formatted_condition_value
-            ));
-        }
-    }
+/// 使用已导入的数据集生成脚本
+#[tauri::command]
+async fn generate_from_dataset(
+    handle: u64,
+    request: GenerationRequest,
+    job_id: String,
+    on_progress: Channel<JobProgress>,
+    jobs: State<'_, JobRegistry>,
+    datasets: State<'_, DatasetRegistry>,
+) -> Result<String, String> {
+    let dataset = datasets.get(handle)?;
+    println!(
+        "generate_from_dataset start : {}, handle: {}, {:?}",
+        request.table_name, handle, request.field_mappings
+    );
+    let table_name = request.table_name.clone();
+    let script = jobs::run(&jobs, Some(job_id), Some(on_progress), move |context| {
+        generate_script(&request, dataset.rows.rows(), context)
+    })
+    .await?;
 
     println!(
-        "generate_mongodb_delete_script end : {}, script length: {}",
+        "generate_from_dataset end : {}, script length: {}",
         table_name,
         script.len()
     );
     Ok(script)
 }
 
+/// 释放不再使用的数据集
 #[tauri::command]
-fn generate_mysql_insert_script(
-    csv_data: Vec<Vec<String>>,
-    field_mappings: HashMap<String, FieldMappingInfo>,
-    table_name: String,
-) -> Result<String, String> {
+fn release_dataset(handle: u64, datasets: State<'_, DatasetRegistry>) -> bool {
+    datasets.remove(handle)
+}
+
+/// 从输入文件流式生成脚本并直接写入输出文件，只返回摘要
+#[tauri::command]
+async fn generate_script_file(
+    request: GenerationRequest,
+    input_path: String,
+    output_path: String,
+    has_headers: bool,
+    csv_options: Option<CsvOptions>,
+    sheet_name: Option<String>,
+    job_id: String,
+    on_progress: Channel<JobProgress>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<PipelineSummary, String> {
     println!(
-        "generate_mysql_insert_script start : {}, {:?}",
-        table_name, field_mappings
+        "generate_script_file start : {} -> {}",
+        input_path, output_path
     );
-    let mut script = String::new();
+    let summary = jobs::run(&jobs, Some(job_id), Some(on_progress), move |context| {
+        let plan = request.compile()?;
+        pipeline::run(
+            &plan,
+            &input_path,
+            has_headers,
+            &csv_options.unwrap_or_default(),
+            sheet_name.as_deref(),
+            &output_path,
+            &request.options,
+            context,
+        )
+    })
+    .await?;
 
-    // 检查CSV数据是否为空
-    if csv_data.is_empty() || csv_data.len() <= 1 {
-        return Ok(script);
-    }
-
-    // 为每一行 CSV 数据生成一个 MySQL 插入语句
-    for row in &csv_data {
-        let mut fields = Vec::new();
-        let mut values = Vec::new();
-
-        // 遍历字段映射
-        for (_, mapping_info) in &field_mappings {
-            let csv_index = mapping_info.csv_index;
-            let db_field = &mapping_info.db_field;
-            let field_type = &mapping_info.field_type;
-
-            // 确保索引在有效范围内
-            if csv_index < row.len() {
-                let value = &row[csv_index];
-                fields.push(db_field.clone());
-                
-                // 根据字段类型处理值
-                if let Some(type_str) = field_type {
-                    if type_str.contains("LocalDateTime") {
-                        // LocalDateTime 类型
-                        if value.is_empty() {
-                            values.push("NULL".to_string());
-                        } else {
-                            values.push(format!("STR_TO_DATE('{}', '%Y-%m-%dT%H:%i:%s')", value));
-                        }
-                    } else if type_str.contains("LocalDate") || type_str.contains("Date") {
-                        // LocalDate 或 Date 类型
-                        if value.is_empty() {
-                            values.push("NULL".to_string());
-                        } else {
-                            values.push(format!("STR_TO_DATE('{}', '%Y-%m-%d')", value));
-                        }
-                    } else if type_str.contains("Integer") || type_str.contains("Long") || type_str.contains("Double") || type_str.contains("Float") {
-                        // 数字类型，不加引号
-                        if value.is_empty() {
-                            values.push("NULL".to_string());
-                        } else {
-                            values.push(value.clone());
-                        }
-                    } else if type_str.contains("Boolean") {
-                        // 布尔类型
-                        let bool_value = value.to_lowercase();
-                        if bool_value == "true" || bool_value == "1" {
-                            values.push("TRUE".to_string());
-                        } else if bool_value == "false" || bool_value == "0" {
-                            values.push("FALSE".to_string());
-                        } else if value.is_empty() {
-                            values.push("NULL".to_string());
-                        } else {
-                            // 转义单引号
-                            let escaped_value = value.replace("'", "''");
-                            values.push(format!("'{}'", escaped_value));
-                        }
-                    } else {
-                        // 其他类型，作为字符串处理
-                        if value.is_empty() {
-                            values.push("NULL".to_string());
-                        } else {
-                            // 转义单引号
-                            let escaped_value = value.replace("'", "''");
-                            values.push(format!("'{}'", escaped_value));
-                        }
-                    }
-                } else {
-                    // 没有类型信息，作为字符串处理
-                    if value.is_empty() {
-                        values.push("NULL".to_string());
-                    } else {
-                        // 转义单引号
-                        let escaped_value = value.replace("'", "''");
-                        values.push(format!("'{}'", escaped_value));
-                    }
-                }
-            }
-        }
+    println!(
+        "generate_script_file end : {}, rows: {}, bytes: {}",
+        summary.output_path, summary.rows, summary.bytes_written
+    );
+    Ok(summary)
+}
 
-        // 生成 MySQL 插入语句
-        if !fields.is_empty() {
-            script.push_str(&format!(
-                "INSERT INTO {} ({}) VALUES ({});\n",
-                table_name,
-                fields.join(", "),
-                values.join(", ")
-            ));
-        }
-    }
+/// 对比新旧两份数据文件，只为发生变化的行生成脚本并写入输出文件
+#[tauri::command]
+async fn generate_diff_script_file(
+    request: GenerationRequest,
+    old_path: String,
+    new_path: String,
+    output_path: String,
+    has_headers: bool,
+    csv_options: Option<CsvOptions>,
+    sheet_name: Option<String>,
+    include_deletes: bool,
+    job_id: String,
+    on_progress: Channel<JobProgress>,
+    jobs: State<'_, JobRegistry>,
+) -> Result<DiffSummary, String> {
+    println!(
+        "generate_diff_script_file start : {} , {} -> {}",
+        old_path, new_path, output_path
+    );
+    let summary = jobs::run(&jobs, Some(job_id), Some(on_progress), move |context| {
+        diff::run(
+            &request,
+            &old_path,
+            &new_path,
+            has_headers,
+            &csv_options.unwrap_or_default(),
+            sheet_name.as_deref(),
+            include_deletes,
+            &output_path,
+            context,
+        )
+    })
+    .await?;
 
     println!(
-        "generate_mysql_insert_script end : {}, script length: {}",
-        table_name,
-        script.len()
+        "generate_diff_script_file end : {}, updated: {}, inserted: {}, deleted: {}",
+        summary.output_path, summary.updated_rows, summary.inserted_rows, summary.deleted_rows
     );
-    Ok(script)
+    Ok(summary)
 }
 
+/// 取消正在执行的任务
 #[tauri::command]
-fn generate_mysql_delete_script(
+fn cancel_job(job_id: String, jobs: State<'_, JobRegistry>) -> bool {
+    jobs.cancel(&job_id)
+}
+
+/// 在后台线程中生成脚本，避免阻塞界面
+async fn generate_in_background(
+    command: &'static str,
+    request: GenerationRequest,
     csv_data: Vec<Vec<String>>,
-    field_mappings: HashMap<String, FieldMappingInfo>,
-    condition_field: String,
-    table_name: String,
+    job_id: Option<String>,
+    on_progress: Option<Channel<JobProgress>>,
+    jobs: &JobRegistry,
 ) -> Result<String, String> {
     println!(
-        "generate_mysql_delete_script start : {}, {:?}",
-        table_name, field_mappings
+        "{} start : {}, {:?}",
+        command, request.table_name, request.field_mappings
     );
-    let mut script = String::new();
-
-    // 检查CSV数据是否为空
-    if csv_data.is_empty() || csv_data.len() <= 1 {
-        return Ok(script);
-    }
-
-    // 为每一行 CSV 数据生成一个 MySQL 删除语句
-    for row in &csv_data {
-        let mut condition_value = String::new();
-
-        // 遍历字段映射
-        for (_, mapping_info) in &field_mappings {
-            let csv_index = mapping_info.csv_index;
-            let db_field = &mapping_info.db_field;
-            let field_type = &mapping_info.field_type;
-
-            // 确保索引在有效范围内
-            if csv_index < row.len() && db_field == &condition_field {
-                let value = &row[csv_index];
-                condition_value = value.to_string();
-                
-                // 生成 MySQL 删除语句
-                if !condition_value.is_empty() {
-                    // 根据字段类型处理条件值
-                    if let Some(type_str) = field_type {
-                        if type_str.contains("LocalDateTime") {
-                            script.push_str(&format!(
-                                "DELETE FROM {} WHERE {} = STR_TO_DATE('{}', '%Y-%m-%dT%H:%i:%s');\n",
-                                table_name, condition_field, condition_value
-                            ));
-                        } else if type_str.contains("LocalDate") || type_str.contains("Date") {
-                            script.push_str(&format!(
-                                "DELETE FROM {} WHERE {} = STR_TO_DATE('{}', '%Y-%m-%d');\n",
-                                table_name, condition_field, condition_value
-                            ));
-                        } else if type_str.contains("Integer") || type_str.contains("Long") || type_str.contains("Double") || type_str.contains("Float") {
-                            script.push_str(&format!(
-                                "DELETE FROM {} WHERE {} = {};\n",
-                                table_name, condition_field, condition_value
-                            ));
-                        } else if type_str.contains("Boolean") {
-                            let bool_value = condition_value.to_lowercase();
-                            if bool_value == "true" || bool_value == "1" {
-                                script.push_str(&format!(
-                                    "DELETE FROM {} WHERE {} = TRUE;\n",
-                                    table_name, condition_field
-                                ));
-                            } else if bool_value == "false" || bool_value == "0" {
-                                script.push_str(&format!(
-                                    "DELETE FROM {} WHERE {} = FALSE;\n",
-                                    table_name, condition_field
-                                ));
-                            } else {
-                                // 转义单引号
-                                let escaped_value = condition_value.replace("'", "''");
-                                script.push_str(&format!(
-                                    "DELETE FROM {} WHERE {} = '{}';\n",
-                                    table_name, condition_field, escaped_value
-                                ));
-                            }
-                        } else {
-                            // 转义单引号
-                            let escaped_value = condition_value.replace("'", "''");
-                            script.push_str(&format!(
-                                "DELETE FROM {} WHERE {} = '{}';\n",
-                                table_name, condition_field, escaped_value
-                            ));
-                        }
-                    } else {
-                        // 没有类型信息，作为字符串处理
-                        // 转义单引号
-                        let escaped_value = condition_value.replace("'", "''");
-                        script.push_str(&format!(
-                            "DELETE FROM {} WHERE {} = '{}';\n",
-                            table_name, condition_field, escaped_value
-                        ));
-                    }
-                }
-                
-                break;
-            }
-        }
-    }
+    let table_name = request.table_name.clone();
+    let script = jobs::run(jobs, job_id, on_progress, move |context| {
+        // 转换为紧凑存储后立即释放逐单元格分配的原始数据
+        let table = RowTable::from_vecs(&csv_data);
+        drop(csv_data);
+        generate_script(&request, table.rows(), context)
+    })
+    .await?;
 
     println!(
-        "generate_mysql_delete_script end : {}, script length: {}",
+        "{} end : {}, script length: {}",
+        command,
         table_name,
         script.len()
     );
     Ok(script)
 }
 
+/// 编译生成计划并为每一行 CSV 数据生成脚本
+fn generate_script(
+    request: &GenerationRequest,
+    csv_data: Rows<'_>,
+    context: &JobContext,
+) -> Result<String, String> {
+    // 检查CSV数据是否为空；调用方传入的行已去掉表头，只有一行时也要生成
+    if csv_data.is_empty() {
+        return Ok(String::new());
+    }
+
+    let plan = request.compile()?;
+    if plan.is_load_data() {
+        return Err("LOAD DATA 模式需要写出数据文件，请使用直接生成到文件".to_string());
+    }
+    // 合并条件值重复的行，合并掉的行数通过任务进度的 duplicateRows 返回给前端
+    let deduped = dedupe::dedupe_rows(&plan, csv_data).map(|(table, collapsed)| {
+        context.add_duplicates(collapsed);
+        table
+    });
+    let csv_data = match &deduped {
+        Some(table) => table.rows(),
+        None => csv_data,
+    };
+    // 按条件字段排序时先生成排好序的副本
+    let sorted = sort::SortSpec::from_plan(&plan).map(|spec| spec.sort(csv_data));
+    let csv_data = match &sorted {
+        Some(table) => table.rows(),
+        None => csv_data,
+    };
+    let mut script = String::new();
+    plan.write_header(&mut script);
+    if request.options.parallel {
+        parallel::write_rows(&plan, csv_data, &mut script, context)?;
+    } else {
+        script.reserve(plan.estimate_len(csv_data));
+        // 分段生成，以便检查取消并上报进度
+        for chunk in csv_data.chunks(plan.align_rows(PROGRESS_ROWS)) {
+            context.check()?;
+            let start = script.len();
+            plan.write_rows(chunk, &mut script);
+            context.add_rows(chunk.len());
+            context.add_bytes((script.len() - start) as u64);
+        }
+    }
+    plan.write_footer(csv_data.len(), &mut script);
+    Ok(script)
+}
+
 fn read_file(file_path: &str) -> io::Result<String> {
     let mut file = File::open(file_path)?;
     let mut content = String::new();
@@ -941,9 +614,21 @@ pub fn run() {
             generate_mongodb_insert_script,
             generate_mongodb_delete_script,
             parse_excel_file,
+            list_excel_sheets,
+            preview_data_file,
             generate_mysql_insert_script,
-            generate_mysql_delete_script
+            generate_mysql_delete_script,
+            generate_script_job,
+            generate_script_file,
+            generate_diff_script_file,
+            cancel_job,
+            import_dataset,
+            preview_dataset,
+            generate_from_dataset,
+            release_dataset
         ])
+        .manage(JobRegistry::default())
+        .manage(DatasetRegistry::default())
         .setup(|app| {
             let window = app.get_webview_window("main").unwrap();
 
@@ -0,0 +1,1022 @@
+//! MongoDB 脚本生成
+
+use serde::de::IgnoredAny;
+
+use crate::plan::{
+    parse_bool, ColumnPlan, FieldKind, GenerationPlan, MongoUpdateMode, Operation, ValueFormatter,
+};
+use crate::batch::{self, BatchRow};
+use crate::table::{Row, Rows};
+use crate::writer::{push_js_escaped, push_js_quoted, push_json_quoted};
+
+/// 条件字段值的格式化方式（updateOne / deleteOne 的过滤条件）
+pub fn condition_formatter(kind: FieldKind) -> ValueFormatter {
+    match kind {
+        FieldKind::Integer | FieldKind::Long | FieldKind::Float => write_raw,
+        FieldKind::Boolean => write_condition_boolean,
+        _ => write_single_quoted,
+    }
+}
+
+/// $set 中字段值的格式化方式
+pub fn update_value_formatter(kind: FieldKind) -> ValueFormatter {
+    match kind {
+        FieldKind::DateTime | FieldKind::Date => write_iso_date,
+        FieldKind::Boolean => write_update_boolean,
+        FieldKind::Text | FieldKind::Untyped => write_single_quoted,
+        // 数字及其他类型，不加引号
+        _ => write_raw,
+    }
+}
+
+/// insertOne 文档中字段值的格式化方式
+pub fn insert_value_formatter(kind: FieldKind) -> ValueFormatter {
+    match kind {
+        FieldKind::DateTime | FieldKind::Date => write_new_date,
+        FieldKind::Timestamp => write_timestamp,
+        FieldKind::ObjectId => write_object_id,
+        FieldKind::Integer => write_number_int,
+        FieldKind::Long => write_number_long,
+        FieldKind::Float => write_raw,
+        FieldKind::Decimal => write_number_decimal,
+        FieldKind::Boolean => write_insert_boolean,
+        FieldKind::Binary => write_bin_data,
+        FieldKind::RegExp => write_reg_exp,
+        FieldKind::MinKey => write_min_key,
+        FieldKind::MaxKey => write_max_key,
+        FieldKind::Code => write_code,
+        FieldKind::Object => write_object,
+        FieldKind::Array => write_array,
+        _ => write_double_quoted,
+    }
+}
+
+/// mongoimport 使用的规范 Extended JSON 中字段值的格式化方式，类型映射与 insertOne 相同
+pub fn extended_json_formatter(kind: FieldKind) -> ValueFormatter {
+    match kind {
+        FieldKind::DateTime | FieldKind::Date => write_json_date,
+        FieldKind::Timestamp => write_json_timestamp,
+        FieldKind::ObjectId => write_json_object_id,
+        FieldKind::Integer => write_json_int,
+        FieldKind::Long => write_json_long,
+        FieldKind::Float => write_json_double,
+        FieldKind::Decimal => write_json_decimal,
+        FieldKind::Boolean => write_json_boolean,
+        FieldKind::Binary => write_json_binary,
+        FieldKind::RegExp => write_json_reg_exp,
+        FieldKind::MinKey => write_json_min_key,
+        FieldKind::MaxKey => write_json_max_key,
+        FieldKind::Code => write_json_code,
+        FieldKind::Object => write_json_object,
+        FieldKind::Array => write_json_array,
+        _ => write_json_string,
+    }
+}
+
+/// 字段在文档中的写法
+pub fn column_label(db_field: &str) -> String {
+    format!("\"{}\": ", db_field)
+}
+
+/// 每条语句固定的开头
+pub fn statement_prefix(plan: &GenerationPlan) -> String {
+    let condition_field = plan
+        .condition
+        .as_ref()
+        .map(|condition| condition.db_field.as_str())
+        .unwrap_or("");
+    match plan.operation {
+        Operation::Update => format!("db.{}.updateOne({{ {}: ", plan.table, condition_field),
+        Operation::Insert => format!("db.{}.insertOne({{ ", plan.table),
+        Operation::Delete => format!("db.{}.deleteOne({{ {}: ", plan.table, condition_field),
+    }
+}
+
+/// 批量语句固定的开头
+pub fn batch_prefix(plan: &GenerationPlan) -> String {
+    match (plan.operation, &plan.condition) {
+        (Operation::Update, _) => match plan.options.mongo_update_mode {
+            MongoUpdateMode::UpdateOne => format!("db.{}.bulkWrite([\n", plan.table),
+            MongoUpdateMode::Merge => format!("db.{}.insertMany([\n", staging_collection(plan)),
+            MongoUpdateMode::Coalesce => String::new(),
+        },
+        (Operation::Insert, _) => format!("db.{}.insertMany([\n", plan.table),
+        (Operation::Delete, Some(condition)) => {
+            format!("db.{}.deleteMany({{ {}: {{ $in: [", plan.table, condition.db_field)
+        }
+        (Operation::Delete, None) => String::new(),
+    }
+}
+
+/// 批量语句固定的结尾
+pub fn batch_suffix(plan: &GenerationPlan) -> String {
+    match plan.operation {
+        Operation::Update | Operation::Insert => {
+            format!("\n], {{ ordered: {} }});\n", plan.options.ordered)
+        }
+        Operation::Delete => "] } });\n".to_string(),
+    }
+}
+
+/// $merge 模式下合并时匹配的条件字段，其他模式返回 None
+fn merge_condition(plan: &GenerationPlan) -> Option<&ColumnPlan> {
+    match (plan.operation, plan.options.mongo_update_mode) {
+        (Operation::Update, MongoUpdateMode::Merge) => plan.condition.as_ref(),
+        _ => None,
+    }
+}
+
+fn staging_collection(plan: &GenerationPlan) -> String {
+    format!("{}_staging", plan.table)
+}
+
+/// 更新的字段，不包含条件字段本身
+fn merge_columns(plan: &GenerationPlan) -> impl Iterator<Item = &ColumnPlan> {
+    let condition_field = plan.condition.as_ref().map(|condition| condition.db_field.as_str());
+    plan.columns
+        .iter()
+        .filter(move |column| Some(column.db_field.as_str()) != condition_field)
+}
+
+/// 脚本开头：$merge 模式下先清空暂存集合
+pub fn write_header(plan: &GenerationPlan, out: &mut String) {
+    if merge_condition(plan).is_some() {
+        out.push_str(&format!("db.{}.drop();\n", staging_collection(plan)));
+    }
+}
+
+/// 脚本结尾：$merge 模式下用一个聚合管道把暂存集合合并到目标集合，然后删除暂存集合；
+/// 目标集合中没有的文档直接丢弃，on 字段需要有唯一索引
+pub fn write_footer(plan: &GenerationPlan, out: &mut String) {
+    let condition = match merge_condition(plan) {
+        Some(condition) => condition,
+        None => return,
+    };
+    let staging = staging_collection(plan);
+    let assignments: Vec<String> = merge_columns(plan)
+        .map(|column| format!("\"{0}\": \"$$new.{0}\"", column.db_field))
+        .collect();
+    if !assignments.is_empty() {
+        out.push_str(&format!("db.{}.aggregate([\n", staging));
+        out.push_str("  { $project: { _id: 0 } },\n");
+        out.push_str(&format!(
+            "  {{ $merge: {{ into: \"{}\", on: \"{}\", whenMatched: [{{ $set: {{ {} }} }}], \
+             whenNotMatched: \"discard\" }} }}\n",
+            plan.table,
+            condition.db_field,
+            assignments.join(", ")
+        ));
+        out.push_str("]);\n");
+    }
+    out.push_str(&format!("db.{}.drop();\n", staging));
+}
+
+fn write_raw(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str(value);
+    }
+}
+
+fn write_single_quoted(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push('\'');
+        push_js_escaped(out, value);
+        out.push('\'');
+    }
+}
+
+fn write_double_quoted(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        push_js_quoted(out, value);
+    }
+}
+
+/// 用构造函数包裹带引号的值，例如 ISODate("...")
+fn write_wrapped(out: &mut String, constructor: &str, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str(constructor);
+        out.push('(');
+        push_js_quoted(out, value);
+        out.push(')');
+    }
+}
+
+fn write_condition_boolean(out: &mut String, value: &str) {
+    match parse_bool(value) {
+        Some(true) => out.push_str("true"),
+        Some(false) => out.push_str("false"),
+        None => write_single_quoted(out, value),
+    }
+}
+
+fn write_update_boolean(out: &mut String, value: &str) {
+    match parse_bool(value) {
+        Some(true) => out.push_str("true"),
+        Some(false) => out.push_str("false"),
+        None => write_raw(out, value),
+    }
+}
+
+fn write_insert_boolean(out: &mut String, value: &str) {
+    match parse_bool(value) {
+        Some(true) => out.push_str("true"),
+        Some(false) => out.push_str("false"),
+        None => write_double_quoted(out, value),
+    }
+}
+
+fn write_iso_date(out: &mut String, value: &str) {
+    write_wrapped(out, "ISODate", value);
+}
+
+fn write_new_date(out: &mut String, value: &str) {
+    write_wrapped(out, "new Date", value);
+}
+
+fn write_timestamp(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str("new Timestamp()");
+    }
+}
+
+fn write_object_id(out: &mut String, value: &str) {
+    // 只有 24 位十六进制才是有效的 ObjectId，否则作为字符串处理
+    if value.len() == 24 && value.chars().all(|c| c.is_ascii_hexdigit()) {
+        write_wrapped(out, "ObjectId", value);
+    } else {
+        write_double_quoted(out, value);
+    }
+}
+
+fn write_number_int(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str("NumberInt(");
+        out.push_str(value);
+        out.push(')');
+    }
+}
+
+fn write_number_long(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str("NumberLong(");
+        out.push_str(value);
+        out.push(')');
+    }
+}
+
+fn write_number_decimal(out: &mut String, value: &str) {
+    write_wrapped(out, "NumberDecimal", value);
+}
+
+fn write_bin_data(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str("BinData(0, ");
+        push_js_quoted(out, value);
+        out.push(')');
+    }
+}
+
+fn write_reg_exp(out: &mut String, value: &str) {
+    write_wrapped(out, "RegExp", value);
+}
+
+fn write_min_key(out: &mut String, _value: &str) {
+    out.push_str("MinKey()");
+}
+
+fn write_max_key(out: &mut String, _value: &str) {
+    out.push_str("MaxKey()");
+}
+
+fn write_code(out: &mut String, value: &str) {
+    write_wrapped(out, "Code", value);
+}
+
+fn write_object(out: &mut String, value: &str) {
+    // 已经是 JSON 格式时直接使用
+    if value.starts_with('{') && value.ends_with('}') {
+        out.push_str(value);
+    } else {
+        write_double_quoted(out, value);
+    }
+}
+
+fn write_array(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else if value.starts_with('[') && value.ends_with(']') {
+        // 已经是数组格式时直接使用
+        out.push_str(value);
+    } else {
+        // 将逗号分隔的值转换为数组
+        out.push('[');
+        for (i, item) in value.split(',').enumerate() {
+            if i > 0 {
+                out.push_str(", ");
+            }
+            push_js_quoted(out, item.trim());
+        }
+        out.push(']');
+    }
+}
+
+fn write_json_string(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        push_json_quoted(out, value);
+    }
+}
+
+/// 写入 `{"$type": "value"}` 形式的包装值，例如 {"$numberDecimal": "1.5"}
+fn write_json_wrapped(out: &mut String, key: &str, value: &str) {
+    out.push_str("{\"");
+    out.push_str(key);
+    out.push_str("\": ");
+    push_json_quoted(out, value);
+    out.push('}');
+}
+
+/// 能解析为 epoch 毫秒的日期写成 {"$date": {"$numberLong": "..."}}，否则按字符串写入
+fn write_json_date(out: &mut String, value: &str) {
+    match parse_epoch_millis(value) {
+        Some(millis) => {
+            out.push_str("{\"$date\": ");
+            write_json_wrapped(out, "$numberLong", &millis.to_string());
+            out.push('}');
+        }
+        None => write_json_string(out, value),
+    }
+}
+
+/// 与 new Timestamp() 相同，写入 0 由服务器在插入时填入当前时间
+fn write_json_timestamp(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str("{\"$timestamp\": {\"t\": 0, \"i\": 0}}");
+    }
+}
+
+fn write_json_object_id(out: &mut String, value: &str) {
+    if value.len() == 24 && value.chars().all(|c| c.is_ascii_hexdigit()) {
+        write_json_wrapped(out, "$oid", value);
+    } else {
+        write_json_string(out, value);
+    }
+}
+
+/// 数字类型的值不是合法数字时按字符串写入，避免 mongoimport 整行报错
+fn write_json_int(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else if value.parse::<i32>().is_ok() {
+        write_json_wrapped(out, "$numberInt", value);
+    } else {
+        write_json_string(out, value);
+    }
+}
+
+fn write_json_long(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else if value.parse::<i64>().is_ok() {
+        write_json_wrapped(out, "$numberLong", value);
+    } else {
+        write_json_string(out, value);
+    }
+}
+
+fn write_json_double(out: &mut String, value: &str) {
+    match value.parse::<f64>() {
+        Ok(number) if number.is_finite() => write_json_wrapped(out, "$numberDouble", value),
+        _ => write_json_string(out, value),
+    }
+}
+
+fn write_json_decimal(out: &mut String, value: &str) {
+    if is_decimal(value) {
+        write_json_wrapped(out, "$numberDecimal", value);
+    } else {
+        write_json_string(out, value);
+    }
+}
+
+/// Decimal128 能精确表示的最大有效数字位数
+const DECIMAL_DIGITS: usize = 34;
+
+/// 是否为 mongoimport 能解析的十进制数：[+-]digits[.digits][(e|E)[+-]digits]，有效数字不超过 34 位
+fn is_decimal(value: &str) -> bool {
+    let bytes = value.strip_prefix(&['+', '-'][..]).unwrap_or(value).as_bytes();
+    let mantissa_end = bytes
+        .iter()
+        .position(|&b| b == b'e' || b == b'E')
+        .unwrap_or(bytes.len());
+    let (mantissa, exponent) = bytes.split_at(mantissa_end);
+
+    let mut digits = 0;
+    let mut significant = 0;
+    let mut dots = 0;
+    for &b in mantissa {
+        match b {
+            b'0'..=b'9' => {
+                digits += 1;
+                if b != b'0' || significant > 0 {
+                    significant += 1;
+                }
+            }
+            b'.' => dots += 1,
+            _ => return false,
+        }
+    }
+    if digits == 0 || dots > 1 || significant > DECIMAL_DIGITS {
+        return false;
+    }
+
+    match exponent.split_first() {
+        None => true,
+        Some((_, exponent)) => {
+            let exponent = exponent
+                .strip_prefix(b"+")
+                .or_else(|| exponent.strip_prefix(b"-"))
+                .unwrap_or(exponent);
+            (1..=4).contains(&exponent.len()) && exponent.iter().all(u8::is_ascii_digit)
+        }
+    }
+}
+
+fn write_json_boolean(out: &mut String, value: &str) {
+    match parse_bool(value) {
+        Some(true) => out.push_str("true"),
+        Some(false) => out.push_str("false"),
+        None => write_json_string(out, value),
+    }
+}
+
+/// 值按 base64 处理，与 BinData(0, ...) 相同；不是合法的 base64 时按字符串写入
+fn write_json_binary(out: &mut String, value: &str) {
+    if is_base64(value) {
+        out.push_str("{\"$binary\": {\"base64\": ");
+        push_json_quoted(out, value);
+        out.push_str(", \"subType\": \"00\"}}");
+    } else {
+        write_json_string(out, value);
+    }
+}
+
+/// 是否为带填充的标准 base64：长度是 4 的倍数，= 只出现在末尾且最多两个
+fn is_base64(value: &str) -> bool {
+    let bytes = value.as_bytes();
+    if bytes.is_empty() || bytes.len() % 4 != 0 {
+        return false;
+    }
+    let data = bytes.strip_suffix(b"==").or_else(|| bytes.strip_suffix(b"=")).unwrap_or(bytes);
+    data.iter().all(|&b| b.is_ascii_alphanumeric() || b == b'+' || b == b'/')
+}
+
+fn write_json_reg_exp(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        out.push_str("{\"$regularExpression\": {\"pattern\": ");
+        push_json_quoted(out, value);
+        out.push_str(", \"options\": \"\"}}");
+    }
+}
+
+fn write_json_min_key(out: &mut String, _value: &str) {
+    out.push_str("{\"$minKey\": 1}");
+}
+
+fn write_json_max_key(out: &mut String, _value: &str) {
+    out.push_str("{\"$maxKey\": 1}");
+}
+
+fn write_json_code(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else {
+        write_json_wrapped(out, "$code", value);
+    }
+}
+
+fn write_json_object(out: &mut String, value: &str) {
+    // 已经是合法的 JSON 对象时直接使用，否则按字符串写入，避免 mongoimport 整行报错
+    if value.starts_with('{') && is_json(value) {
+        out.push_str(value);
+    } else {
+        write_json_string(out, value);
+    }
+}
+
+fn write_json_array(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+    } else if value.starts_with('[') && value.ends_with(']') {
+        if is_json(value) {
+            out.push_str(value);
+        } else {
+            write_json_string(out, value);
+        }
+    } else {
+        out.push('[');
+        for (i, item) in value.split(',').enumerate() {
+            if i > 0 {
+                out.push_str(", ");
+            }
+            push_json_quoted(out, item.trim());
+        }
+        out.push(']');
+    }
+}
+
+/// 是否为完整的 JSON 值；只检查语法，不构建解析结果
+fn is_json(value: &str) -> bool {
+    serde_json::from_str::<IgnoredAny>(value).is_ok()
+}
+
+/// 解析 `YYYY-MM-DD[(T| )HH:MM[:SS[.fff]]][Z|±HH:MM]`，没有时区时按 UTC 处理，返回 epoch 毫秒
+fn parse_epoch_millis(value: &str) -> Option<i64> {
+    let bytes = value.as_bytes();
+    let number = |start: usize, len: usize| -> Option<i64> {
+        let digits = bytes.get(start..start + len)?;
+        if !digits.iter().all(u8::is_ascii_digit) {
+            return None;
+        }
+        value[start..start + len].parse().ok()
+    };
+
+    let (year, month, day) = (number(0, 4)?, number(5, 2)?, number(8, 2)?);
+    if bytes.get(4) != Some(&b'-') || bytes.get(7) != Some(&b'-') {
+        return None;
+    }
+    if !(1..=12).contains(&month) || day < 1 || day > days_in_month(year, month) {
+        return None;
+    }
+
+    let mut i = 10;
+    let mut millis = 0;
+    if matches!(bytes.get(i), Some(b'T') | Some(b' ')) {
+        let (hour, minute) = (number(i + 1, 2)?, number(i + 4, 2)?);
+        if bytes.get(i + 3) != Some(&b':') || hour > 23 || minute > 59 {
+            return None;
+        }
+        millis = (hour * 60 + minute) * 60_000;
+        i += 6;
+        if bytes.get(i) == Some(&b':') {
+            let second = number(i + 1, 2)?;
+            if second > 59 {
+                return None;
+            }
+            millis += second * 1000;
+            i += 3;
+            if bytes.get(i) == Some(&b'.') {
+                let start = i + 1;
+                i = start;
+                while bytes.get(i).map_or(false, u8::is_ascii_digit) {
+                    i += 1;
+                }
+                if i == start {
+                    return None;
+                }
+                // 只保留到毫秒
+                let fraction = &value[start..i.min(start + 3)];
+                millis += fraction.parse::<i64>().ok()? * 10i64.pow(3 - fraction.len() as u32);
+            }
+        }
+    }
+
+    match bytes.get(i) {
+        None => {}
+        Some(b'Z') if i + 1 == bytes.len() => {}
+        Some(&sign) if sign == b'+' || sign == b'-' => {
+            let hours = number(i + 1, 2)?;
+            let minutes = match bytes.get(i + 3) {
+                Some(b':') => number(i + 4, 2)?,
+                _ => number(i + 3, 2)?,
+            };
+            let end = if bytes.get(i + 3) == Some(&b':') { i + 6 } else { i + 5 };
+            if end != bytes.len() || hours > 23 || minutes > 59 {
+                return None;
+            }
+            let offset = (hours * 60 + minutes) * 60_000;
+            millis -= if sign == b'+' { offset } else { -offset };
+        }
+        _ => return None,
+    }
+
+    Some(days_from_civil(year, month, day) * 86_400_000 + millis)
+}
+
+fn days_in_month(year: i64, month: i64) -> i64 {
+    match month {
+        2 if year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) => 29,
+        2 => 28,
+        4 | 6 | 9 | 11 => 30,
+        _ => 31,
+    }
+}
+
+/// 公历日期距 1970-01-01 的天数
+fn days_from_civil(year: i64, month: i64, day: i64) -> i64 {
+    let year = if month <= 2 { year - 1 } else { year };
+    let era = year.div_euclid(400);
+    let year_of_era = year - era * 400;
+    let month_index = (month + 9) % 12;
+    let day_of_year = (153 * month_index + 2) / 5 + day - 1;
+    let day_of_era = year_of_era * 365 + year_of_era / 4 - year_of_era / 100 + day_of_year;
+    era * 146_097 + day_of_era - 719_468
+}
+
+/// mongoimport 的一行：`{"field": value, ...}`，只写入该行中存在的字段
+pub fn write_json_line(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+        return;
+    }
+    out.push('{');
+    write_fields(plan, row, out);
+    out.push_str("}\n");
+}
+
+pub fn write_update(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    let condition_value = match plan.condition_value(row) {
+        Some(value) => value,
+        None => return,
+    };
+    if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+        return;
+    }
+
+    if let Some(condition) = &plan.condition {
+        out.push_str(&plan.prefix);
+        condition.write(out, condition_value);
+        out.push_str(" }, { $set: { ");
+    }
+    write_fields(plan, row, out);
+    out.push_str(" } });\n");
+}
+
+/// 增量对比：只 $set changed 中标记的字段（与 plan.columns 一一对应）
+pub fn write_update_changed(
+    plan: &GenerationPlan,
+    row: Row<'_>,
+    changed: &[bool],
+    out: &mut String,
+) {
+    let condition_value = match plan.condition_value(row) {
+        Some(value) => value,
+        None => return,
+    };
+
+    if let Some(condition) = &plan.condition {
+        out.push_str(&plan.prefix);
+        condition.write(out, condition_value);
+        out.push_str(" }, { $set: { ");
+    }
+    write_selected_fields(plan, row, out, |index| changed[index]);
+    out.push_str(" } });\n");
+}
+
+pub fn write_insert(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+        return;
+    }
+
+    out.push_str(&plan.prefix);
+    write_fields(plan, row, out);
+    out.push_str(" });\n");
+}
+
+pub fn write_delete(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    let condition_value = match plan.condition_value(row) {
+        Some(value) => value,
+        None => return,
+    };
+
+    if let Some(condition) = &plan.condition {
+        out.push_str(&plan.prefix);
+        condition.write(out, condition_value);
+        out.push_str(" });\n");
+    }
+}
+
+/// 写入 `"field": value` 列表，跳过该行中不存在的字段
+fn write_fields(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    write_selected_fields(plan, row, out, |_| true);
+}
+
+/// 只写入 selected 返回 true 的字段（参数为字段在 plan.columns 中的下标）
+fn write_selected_fields<F>(
+    plan: &GenerationPlan,
+    row: Row<'_>,
+    out: &mut String,
+    selected: F,
+) where
+    F: Fn(usize) -> bool,
+{
+    let mut first = true;
+    for (index, column) in plan.columns.iter().enumerate() {
+        if !selected(index) {
+            continue;
+        }
+        if let Some(value) = column.value(row) {
+            if !first {
+                out.push_str(", ");
+            }
+            out.push_str(&column.label);
+            column.write(out, value);
+            first = false;
+        }
+    }
+}
+
+/// 批量删除：`db.t.deleteMany({ key: { $in: [v1, v2, ...] } });`
+pub fn write_delete_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    batch::write_list(
+        plan,
+        rows,
+        out,
+        ", ",
+        batch::classify_condition,
+        batch::write_condition_value,
+    );
+}
+
+/// 批量插入：`db.t.insertMany([{ ... }, ...], { ordered: false });`
+pub fn write_insert_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    batch::write_list(plan, rows, out, ",\n", classify_insert, write_document);
+}
+
+/// 批量更新：`db.t.bulkWrite([{ updateOne: { filter, update } }, ...], { ordered: false });`，
+/// $merge 模式下为 `db.t_staging.insertMany([{ key, ... }, ...], { ordered: false });`
+pub fn write_update_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    match plan.options.mongo_update_mode {
+        MongoUpdateMode::UpdateOne => {
+            batch::write_list(plan, rows, out, ",\n", classify_update, write_update_operation)
+        }
+        MongoUpdateMode::Merge => {
+            batch::write_list(plan, rows, out, ",\n", classify_merge, write_staging_document)
+        }
+        MongoUpdateMode::Coalesce => {
+            batch::write_grouped(plan, rows, out, write_fields, coalesced_parts)
+        }
+    }
+}
+
+/// 更新内容相同的行：`db.t.updateMany({ key: { $in: [k1, k2, ...] } }, { $set: { ... } });`
+fn coalesced_parts(plan: &GenerationPlan, payload: &str) -> (String, String) {
+    let condition_field = plan
+        .condition
+        .as_ref()
+        .map(|condition| condition.db_field.as_str())
+        .unwrap_or("");
+    (
+        format!("db.{}.updateMany({{ {}: {{ $in: [", plan.table, condition_field),
+        format!("] }} }}, {{ $set: {{ {} }} }});\n", payload),
+    )
+}
+
+fn classify_insert(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.columns.iter().any(|column| column.value(row).is_some()) {
+        BatchRow::Item
+    } else {
+        BatchRow::Skip
+    }
+}
+
+fn classify_update(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.condition_value(row).is_some()
+        && plan.columns.iter().any(|column| column.value(row).is_some())
+    {
+        BatchRow::Item
+    } else {
+        BatchRow::Skip
+    }
+}
+
+/// 所有字段都存在的行写入暂存集合；缺少部分字段的行用普通 updateOne，避免 $merge 时把缺失字段清空
+fn classify_merge(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    match classify_update(plan, row) {
+        BatchRow::Item if !plan.is_complete(row) => BatchRow::Single,
+        other => other,
+    }
+}
+
+fn write_staging_document(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if let (Some(condition), Some(value)) = (&plan.condition, plan.condition_value(row)) {
+        out.push_str("{ ");
+        out.push_str(&condition.label);
+        condition.write(out, value);
+        for column in merge_columns(plan) {
+            out.push_str(", ");
+            out.push_str(&column.label);
+            column.write(out, column.value(row).unwrap_or_default());
+        }
+        out.push_str(" }");
+    }
+}
+
+fn write_document(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    out.push_str("{ ");
+    write_fields(plan, row, out);
+    out.push_str(" }");
+}
+
+fn write_update_operation(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if let (Some(condition), Some(value)) = (&plan.condition, plan.condition_value(row)) {
+        out.push_str("{ updateOne: { filter: { ");
+        out.push_str(&condition.db_field);
+        out.push_str(": ");
+        condition.write(out, value);
+        out.push_str(" }, update: { $set: { ");
+        write_fields(plan, row, out);
+        out.push_str(" } } } }");
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::{mappings, Dialect, GenerationOptions};
+    use crate::table::RowTable;
+
+    fn plan(operation: Operation, options: GenerationOptions) -> GenerationPlan {
+        let field_mappings =
+            mappings(&[("id", 0, "Long"), ("name", 1, "String"), ("enabled", 2, "Boolean")]);
+        GenerationPlan::compile(
+            Dialect::MongoDb,
+            operation,
+            &field_mappings,
+            "id",
+            &["name".to_string(), "enabled".to_string()],
+            "t",
+            &options,
+        )
+        .unwrap()
+    }
+
+    fn generate(plan: &GenerationPlan, rows: &[&[&str]]) -> String {
+        let rows: Vec<Vec<String>> = rows
+            .iter()
+            .map(|row| row.iter().map(|cell| cell.to_string()).collect())
+            .collect();
+        let table = RowTable::from_vecs(&rows);
+        let mut out = String::new();
+        plan.write_header(&mut out);
+        plan.write_rows(table.rows(), &mut out);
+        plan.write_footer(table.len(), &mut out);
+        out
+    }
+
+    fn batched(mongo_update_mode: MongoUpdateMode) -> GenerationOptions {
+        GenerationOptions {
+            batch_rows: 100,
+            mongo_update_mode,
+            ..GenerationOptions::default()
+        }
+    }
+
+    #[test]
+    fn parses_dates_to_epoch_millis() {
+        assert_eq!(parse_epoch_millis("1970-01-01"), Some(0));
+        assert_eq!(parse_epoch_millis("2024-02-29"), Some(1_709_164_800_000));
+        assert_eq!(parse_epoch_millis("2024-02-29T12:30:15.5"), Some(1_709_209_815_500));
+        assert_eq!(parse_epoch_millis("2024-02-29 12:30:15Z"), Some(1_709_209_815_000));
+        assert_eq!(parse_epoch_millis("2024-02-29T20:30:15+08:00"), Some(1_709_209_815_000));
+        assert_eq!(parse_epoch_millis("1969-12-31T23:59:59"), Some(-1000));
+        assert_eq!(parse_epoch_millis("2023-02-29"), None);
+        assert_eq!(parse_epoch_millis("2024-02-29T12:30:15 extra"), None);
+        assert_eq!(parse_epoch_millis("yesterday"), None);
+    }
+
+    #[test]
+    fn writes_canonical_extended_json() {
+        let mut out = String::new();
+        write_json_long(&mut out, "42");
+        out.push(' ');
+        write_json_int(&mut out, "4.5");
+        out.push(' ');
+        write_json_date(&mut out, "1970-01-02");
+        out.push(' ');
+        write_json_string(&mut out, "a\"b\\c'\n");
+        assert_eq!(
+            out,
+            "{\"$numberLong\": \"42\"} \"4.5\" {\"$date\": {\"$numberLong\": \"86400000\"}} \
+             \"a\\\"b\\\\c'\\n\""
+        );
+    }
+
+    fn json(write: fn(&mut String, &str), value: &str) -> String {
+        let mut out = String::new();
+        write(&mut out, value);
+        out
+    }
+
+    #[test]
+    fn invalid_extended_json_values_fall_back_to_strings() {
+        assert_eq!(json(write_json_decimal, "-1.50e+3"), "{\"$numberDecimal\": \"-1.50e+3\"}");
+        assert_eq!(json(write_json_decimal, "0.000123"), "{\"$numberDecimal\": \"0.000123\"}");
+        for value in ["1.2.3", "12abc", ".", "1e", "--1", "12345678901234567890123456789012345"] {
+            assert_eq!(json(write_json_decimal, value), format!("\"{}\"", value));
+        }
+        assert_eq!(json(write_json_decimal, ""), "null");
+
+        assert_eq!(json(write_json_object, "{\"a\": [1, {}]}"), "{\"a\": [1, {}]}");
+        assert_eq!(json(write_json_object, "{a: 1}"), "\"{a: 1}\"");
+        assert_eq!(json(write_json_object, "{\"a\": 1} {}"), "\"{\\\"a\\\": 1} {}\"");
+
+        assert_eq!(json(write_json_array, "[1, \"x\"]"), "[1, \"x\"]");
+        assert_eq!(json(write_json_array, "[1, oops]"), "\"[1, oops]\"");
+        assert_eq!(json(write_json_array, "a, b"), "[\"a\", \"b\"]");
+
+        assert_eq!(
+            json(write_json_binary, "aGk="),
+            "{\"$binary\": {\"base64\": \"aGk=\", \"subType\": \"00\"}}"
+        );
+        for value in ["aGk", "a=Gk", "not base64!"] {
+            assert_eq!(json(write_json_binary, value), format!("\"{}\"", value));
+        }
+    }
+
+    #[test]
+    fn writes_insert_many_and_bulk_write() {
+        let rows: &[&[&str]] = &[&["1", "a", "true"], &["2", "b"]];
+        assert_eq!(
+            generate(&plan(Operation::Insert, batched(MongoUpdateMode::UpdateOne)), rows),
+            "db.t.insertMany([\n\
+             { \"id\": NumberLong(1), \"name\": \"a\", \"enabled\": true },\n\
+             { \"id\": NumberLong(2), \"name\": \"b\" }\n\
+             ], { ordered: false });\n"
+        );
+        assert_eq!(
+            generate(&plan(Operation::Update, batched(MongoUpdateMode::UpdateOne)), rows),
+            "db.t.bulkWrite([\n\
+             { updateOne: { filter: { id: 1 }, \
+             update: { $set: { \"name\": 'a', \"enabled\": true } } } },\n\
+             { updateOne: { filter: { id: 2 }, update: { $set: { \"name\": 'b' } } } }\n\
+             ], { ordered: false });\n"
+        );
+    }
+
+    #[test]
+    fn merges_staged_documents() {
+        let rows: &[&[&str]] = &[&["1", "a", "true"], &["2", "b", "false"]];
+        assert_eq!(
+            generate(&plan(Operation::Update, batched(MongoUpdateMode::Merge)), rows),
+            "db.t_staging.drop();\n\
+             db.t_staging.insertMany([\n\
+             { \"id\": NumberLong(1), \"name\": \"a\", \"enabled\": true },\n\
+             { \"id\": NumberLong(2), \"name\": \"b\", \"enabled\": false }\n\
+             ], { ordered: false });\n\
+             db.t_staging.aggregate([\n\
+             \x20 { $project: { _id: 0 } },\n\
+             \x20 { $merge: { into: \"t\", on: \"id\", whenMatched: [{ $set: \
+             { \"name\": \"$$new.name\", \"enabled\": \"$$new.enabled\" } }], \
+             whenNotMatched: \"discard\" } }\n\
+             ]);\n\
+             db.t_staging.drop();\n"
+        );
+    }
+
+    #[test]
+    fn coalesces_identical_updates() {
+        let rows: &[&[&str]] = &[&["1", "a", "true"], &["2", "a", "true"], &["3", "b"]];
+        assert_eq!(
+            generate(&plan(Operation::Update, batched(MongoUpdateMode::Coalesce)), rows),
+            "db.t.updateMany({ id: { $in: [1, 2] } }, \
+             { $set: { \"name\": 'a', \"enabled\": true } });\n\
+             db.t.updateMany({ id: { $in: [3] } }, { $set: { \"name\": 'b' } });\n"
+        );
+    }
+
+    #[test]
+    fn writes_extended_json_lines() {
+        let options = GenerationOptions {
+            extended_json: true,
+            ..GenerationOptions::default()
+        };
+        let rows: &[&[&str]] = &[&["1", "a\"b", "true"], &["x", "", "0"], &[""]];
+        assert_eq!(
+            generate(&plan(Operation::Insert, options), rows),
+            "{\"id\": {\"$numberLong\": \"1\"}, \"name\": \"a\\\"b\", \"enabled\": true}\n\
+             {\"id\": \"x\", \"name\": null, \"enabled\": false}\n\
+             {\"id\": null}\n"
+        );
+    }
+}
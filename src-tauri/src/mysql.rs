@@ -0,0 +1,1277 @@
+//! MySQL 脚本生成
+
+use crate::plan::{
+    parse_bool, ColumnPlan, DeleteMode, FieldKind, GenerationPlan, Operation, UpdateMode,
+    ValueFormatter,
+};
+use crate::batch::{self, BatchRow};
+use crate::table::{Row, Rows};
+use crate::writer::{push_sql_json_quoted, push_sql_quoted, push_tsv_escaped};
+
+/// 根据字段类别选择值的格式化方式，UPDATE / INSERT / DELETE 共用
+pub fn value_formatter(kind: FieldKind) -> ValueFormatter {
+    match kind {
+        FieldKind::DateTime => write_datetime,
+        FieldKind::Date => write_date,
+        FieldKind::Integer | FieldKind::Long | FieldKind::Float => write_number,
+        FieldKind::Boolean => write_boolean,
+        _ => write_string,
+    }
+}
+
+/// SET 子句中字段的写法
+pub fn column_label(db_field: &str) -> String {
+    format!("{} = ", db_field)
+}
+
+/// 每条语句固定的开头
+pub fn statement_prefix(plan: &GenerationPlan) -> String {
+    match plan.operation {
+        Operation::Update => format!("UPDATE {} SET ", plan.table),
+        Operation::Insert => {
+            let fields: Vec<&str> = plan
+                .columns
+                .iter()
+                .map(|column| column.db_field.as_str())
+                .collect();
+            format!("INSERT INTO {} ({}) VALUES (", plan.table, fields.join(", "))
+        }
+        Operation::Delete => match &plan.condition {
+            Some(condition) => format!("DELETE FROM {} WHERE {} = ", plan.table, condition.db_field),
+            None => format!("DELETE FROM {} WHERE ", plan.table),
+        },
+    }
+}
+
+/// 批量语句固定的开头
+pub fn batch_prefix(plan: &GenerationPlan) -> String {
+    match (plan.operation, plan.options.update_mode, &plan.condition) {
+        (Operation::Insert, _, _) => {
+            let fields: Vec<&str> = plan
+                .columns
+                .iter()
+                .map(|column| column.db_field.as_str())
+                .collect();
+            format!("INSERT INTO {} ({}) VALUES\n", plan.table, fields.join(", "))
+        }
+        (Operation::Update, UpdateMode::Upsert, Some(condition)) => {
+            let mut fields = vec![condition.db_field.as_str()];
+            fields.extend(upsert_columns(plan).map(|column| column.db_field.as_str()));
+            format!("INSERT INTO {} ({}) VALUES\n", plan.table, fields.join(", "))
+        }
+        (Operation::Update, UpdateMode::TempTable, Some(condition)) => {
+            let mut fields = vec![condition.db_field.clone()];
+            for column in upsert_columns(plan) {
+                fields.push(column.db_field.clone());
+                fields.push(set_flag(column));
+            }
+            format!("INSERT INTO {} ({}) VALUES\n", temp_table_name(plan), fields.join(", "))
+        }
+        (Operation::Update, UpdateMode::JsonTable, Some(_)) => {
+            format!("UPDATE {} JOIN JSON_TABLE('[", plan.table)
+        }
+        (Operation::Delete, _, Some(condition)) => match plan.options.delete_mode {
+            DeleteMode::In => {
+                format!("DELETE FROM {} WHERE {} IN (", plan.table, condition.db_field)
+            }
+            DeleteMode::JsonTable => {
+                format!("DELETE {0} FROM {0} JOIN JSON_TABLE('[", plan.table)
+            }
+        },
+        _ => String::new(),
+    }
+}
+
+/// 批量语句固定的结尾
+pub fn batch_suffix(plan: &GenerationPlan) -> String {
+    match (plan.operation, plan.options.update_mode) {
+        (Operation::Update, UpdateMode::Upsert) => {
+            let mut assignments: Vec<String> = upsert_columns(plan)
+                .map(|column| format!("{0} = {1}.{0}", column.db_field, UPSERT_ALIAS))
+                .collect();
+            // 只更新条件字段时保留一个空操作赋值，语句才完整
+            if assignments.is_empty() {
+                if let Some(condition) = &plan.condition {
+                    assignments.push(format!("{0} = {0}", condition.db_field));
+                }
+            }
+            format!(
+                "\nAS {} ON DUPLICATE KEY UPDATE {};\n",
+                UPSERT_ALIAS,
+                assignments.join(", ")
+            )
+        }
+        (Operation::Update, UpdateMode::TempTable) => {
+            // 同一条件值再次出现时，只覆盖该行中存在的字段，结果与逐行 UPDATE 相同
+            let mut assignments = Vec::new();
+            for column in upsert_columns(plan) {
+                let flag = set_flag(column);
+                assignments.push(format!(
+                    "{0} = IF({1}.{2}, {1}.{0}, {0})",
+                    column.db_field, UPSERT_ALIAS, flag
+                ));
+                assignments.push(format!("{0} = {0} OR {1}.{0}", flag, UPSERT_ALIAS));
+            }
+            if assignments.is_empty() {
+                if let Some(condition) = &plan.condition {
+                    assignments.push(format!("{0} = {0}", condition.db_field));
+                }
+            }
+            format!(
+                "\nAS {} ON DUPLICATE KEY UPDATE {};\n",
+                UPSERT_ALIAS,
+                assignments.join(", ")
+            )
+        }
+        (Operation::Update, UpdateMode::JsonTable) => match &plan.condition {
+            Some(condition) => {
+                let mut assignments: Vec<String> = upsert_columns(plan)
+                    .map(|column| {
+                        format!("{0}.{1} = {2}.{1}", plan.table, column.db_field, JSON_ALIAS)
+                    })
+                    .collect();
+                if assignments.is_empty() {
+                    assignments.push(format!("{0}.{1} = {0}.{1}", plan.table, condition.db_field));
+                }
+                format!(
+                    "]', '$[*]' COLUMNS ({})) AS {} ON {} SET {};\n",
+                    json_table_columns(plan, condition),
+                    JSON_ALIAS,
+                    json_table_join(plan, condition),
+                    assignments.join(", ")
+                )
+            }
+            None => String::new(),
+        },
+        (Operation::Delete, _) => match (plan.options.delete_mode, &plan.condition) {
+            (DeleteMode::JsonTable, Some(condition)) => format!(
+                "]', '$[*]' COLUMNS ({})) AS {} ON {};\n",
+                json_table_columns(plan, condition),
+                JSON_ALIAS,
+                json_table_join(plan, condition)
+            ),
+            _ => ");\n".to_string(),
+        },
+        _ => ";\n".to_string(),
+    }
+}
+
+/// INSERT ... ON DUPLICATE KEY UPDATE 中新行的别名（MySQL 8.0.19+），取代已弃用的 VALUES(col)
+const UPSERT_ALIAS: &str = "new";
+
+/// JSON_TABLE 展开结果的别名
+const JSON_ALIAS: &str = "src";
+
+/// JSON_TABLE 的 COLUMNS 定义，类型由映射的字段类型决定；UPDATE 的每项为 [key, v1, ...]，DELETE 的每项为 key
+fn json_table_columns(plan: &GenerationPlan, condition: &ColumnPlan) -> String {
+    if plan.operation == Operation::Delete {
+        return format!("{} {} PATH '$'", condition.db_field, column_type(condition.kind, true));
+    }
+    let mut columns = vec![format!(
+        "{} {} PATH '$[0]'",
+        condition.db_field,
+        column_type(condition.kind, true)
+    )];
+    for (i, column) in upsert_columns(plan).enumerate() {
+        columns.push(format!(
+            "{} {} PATH '$[{}]'",
+            column.db_field,
+            column_type(column.kind, false),
+            i + 1
+        ));
+    }
+    columns.join(", ")
+}
+
+fn json_table_join(plan: &GenerationPlan, condition: &ColumnPlan) -> String {
+    format!("{0}.{1} = {2}.{1}", plan.table, condition.db_field, JSON_ALIAS)
+}
+
+/// ON DUPLICATE KEY UPDATE 更新的列，不包含条件字段本身
+fn upsert_columns(plan: &GenerationPlan) -> impl Iterator<Item = &ColumnPlan> {
+    let condition_field = plan.condition.as_ref().map(|condition| condition.db_field.as_str());
+    plan.columns
+        .iter()
+        .filter(move |column| Some(column.db_field.as_str()) != condition_field)
+}
+
+/// 映射字段类型对应的 MySQL 列类型；作为索引列时文本类型使用 VARCHAR
+pub fn column_type(kind: FieldKind, key: bool) -> &'static str {
+    match kind {
+        FieldKind::DateTime => "DATETIME",
+        FieldKind::Date => "DATE",
+        FieldKind::Integer => "INT",
+        FieldKind::Long => "BIGINT",
+        FieldKind::Float => "DOUBLE",
+        FieldKind::Boolean => "BOOLEAN",
+        _ if key => "VARCHAR(255)",
+        _ => "TEXT",
+    }
+}
+
+/// 临时表 JOIN 更新模式下使用的临时表
+fn temp_table(plan: &GenerationPlan) -> Option<&ColumnPlan> {
+    match (plan.operation, plan.options.update_mode) {
+        (Operation::Update, UpdateMode::TempTable) => plan.condition.as_ref(),
+        _ => None,
+    }
+}
+
+fn temp_table_name(plan: &GenerationPlan) -> String {
+    let table = plan.table.rsplit('.').next().unwrap_or(&plan.table);
+    format!("tmp_{}_update", table.trim_matches('`'))
+}
+
+/// 临时表中记录该列是否出现在输入行中的标记列，缺少该字段的行不覆盖原值
+fn set_flag(column: &ColumnPlan) -> String {
+    format!("_set_{}", column.db_field.trim_matches('`'))
+}
+
+/// 脚本开头：批量导入设置（关闭唯一性检查、外键检查和自动提交）以及临时表 JOIN 更新用的临时表
+pub fn write_header(plan: &GenerationPlan, out: &mut String) {
+    if plan.options.bulk_load {
+        out.push_str("SET autocommit = 0;\n");
+        out.push_str("SET unique_checks = 0;\n");
+        out.push_str("SET foreign_key_checks = 0;\n");
+    }
+    if let Some(condition) = temp_table(plan) {
+        let name = temp_table_name(plan);
+        out.push_str(&format!("DROP TEMPORARY TABLE IF EXISTS {};\n", name));
+        out.push_str(&format!("CREATE TEMPORARY TABLE {} (\n", name));
+        // _seq 记录插入顺序，用于把 JOIN 更新按范围拆分；条件字段作主键，重复的条件值合并为一行
+        out.push_str("  _seq BIGINT NOT NULL AUTO_INCREMENT,\n");
+        out.push_str(&format!(
+            "  {} {},\n",
+            condition.db_field,
+            column_type(condition.kind, true)
+        ));
+        for column in upsert_columns(plan) {
+            out.push_str(&format!("  {} {},\n", column.db_field, column_type(column.kind, false)));
+            out.push_str(&format!("  {} BOOLEAN NOT NULL,\n", set_flag(column)));
+        }
+        out.push_str(&format!(
+            "  PRIMARY KEY ({}),\n  UNIQUE KEY (_seq)\n);\n",
+            condition.db_field
+        ));
+    }
+}
+
+/// 脚本结尾：临时表 JOIN 更新，然后提交并恢复 write_header 修改的设置
+pub fn write_footer(plan: &GenerationPlan, rows: usize, out: &mut String) {
+    if let Some(condition) = temp_table(plan) {
+        write_temp_table_join(plan, condition, rows, out);
+    }
+    if plan.options.bulk_load {
+        out.push_str("COMMIT;\n");
+        out.push_str("SET unique_checks = 1;\n");
+        out.push_str("SET foreign_key_checks = 1;\n");
+        out.push_str("SET autocommit = 1;\n");
+    }
+}
+
+/// STR_TO_DATE 解析日期时间和日期使用的格式
+const DATETIME_FORMAT: &str = "%Y-%m-%dT%H:%i:%s";
+const DATE_FORMAT: &str = "%Y-%m-%d";
+
+fn write_datetime(out: &mut String, value: &str) {
+    write_str_to_date(out, value, DATETIME_FORMAT);
+}
+
+fn write_date(out: &mut String, value: &str) {
+    write_str_to_date(out, value, DATE_FORMAT);
+}
+
+fn write_str_to_date(out: &mut String, value: &str, format: &str) {
+    if value.is_empty() {
+        out.push_str("NULL");
+    } else {
+        out.push_str("STR_TO_DATE(");
+        push_sql_quoted(out, value);
+        out.push_str(", '");
+        out.push_str(format);
+        out.push_str("')");
+    }
+}
+
+fn write_number(out: &mut String, value: &str) {
+    // 数字类型，不加引号
+    if value.is_empty() {
+        out.push_str("NULL");
+    } else {
+        out.push_str(value);
+    }
+}
+
+fn write_boolean(out: &mut String, value: &str) {
+    match parse_bool(value) {
+        Some(true) => out.push_str("TRUE"),
+        Some(false) => out.push_str("FALSE"),
+        None => write_string(out, value),
+    }
+}
+
+fn write_string(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("NULL");
+    } else {
+        push_sql_quoted(out, value);
+    }
+}
+
+/// LOAD DATA 模式下日期时间列先读入用户变量，再用与 INSERT 相同的格式转换
+fn date_format(kind: FieldKind) -> Option<&'static str> {
+    match kind {
+        FieldKind::DateTime => Some(DATETIME_FORMAT),
+        FieldKind::Date => Some(DATE_FORMAT),
+        _ => None,
+    }
+}
+
+/// `LOAD DATA LOCAL INFILE 'data' INTO TABLE t ... (c1, @c2) SET c2 = STR_TO_DATE(@c2, ...);`
+pub fn write_load_data(plan: &GenerationPlan, data_path: &str, out: &mut String) {
+    out.push_str("LOAD DATA LOCAL INFILE ");
+    push_sql_quoted(out, data_path);
+    out.push_str(&format!("\nINTO TABLE {}\n", plan.table));
+    out.push_str("CHARACTER SET utf8mb4\n");
+    out.push_str("FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'\n");
+    out.push_str("LINES TERMINATED BY '\\n'\n(");
+    let mut assignments = Vec::new();
+    for (i, column) in plan.columns.iter().enumerate() {
+        if i > 0 {
+            out.push_str(", ");
+        }
+        match date_format(column.kind) {
+            Some(format) => {
+                out.push_str(&format!("@c{}", i + 1));
+                assignments.push(format!(
+                    "{} = STR_TO_DATE(@c{}, '{}')",
+                    column.db_field,
+                    i + 1,
+                    format
+                ));
+            }
+            None => out.push_str(&column.db_field),
+        }
+    }
+    out.push(')');
+    if !assignments.is_empty() {
+        out.push_str("\nSET ");
+        out.push_str(&assignments.join(", "));
+    }
+    out.push_str(";\n");
+}
+
+/// LOAD DATA 的一行数据：制表符分隔，空值和缺失的字段写成 \N，布尔值写成 1 / 0
+pub fn write_tsv_row(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+        return;
+    }
+    for (i, column) in plan.columns.iter().enumerate() {
+        if i > 0 {
+            out.push('\t');
+        }
+        let value = column.value(row).unwrap_or_default();
+        if value.is_empty() {
+            out.push_str("\\N");
+            continue;
+        }
+        match (column.kind, parse_bool(value)) {
+            (FieldKind::Boolean, Some(true)) => out.push('1'),
+            (FieldKind::Boolean, Some(false)) => out.push('0'),
+            _ => push_tsv_escaped(out, value),
+        }
+    }
+    out.push('\n');
+}
+
+pub fn write_update(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    let condition_value = match plan.condition_value(row) {
+        Some(value) => value,
+        None => return,
+    };
+    if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+        return;
+    }
+
+    out.push_str(&plan.prefix);
+    write_assignments(plan, row, out);
+
+    if let Some(condition) = &plan.condition {
+        out.push_str(" WHERE ");
+        out.push_str(&condition.label);
+        condition.write(out, condition_value);
+    }
+    out.push_str(";\n");
+}
+
+/// 增量对比：只更新 changed 中标记的列（与 plan.columns 一一对应）
+pub fn write_update_changed(
+    plan: &GenerationPlan,
+    row: Row<'_>,
+    changed: &[bool],
+    out: &mut String,
+) {
+    let condition_value = match plan.condition_value(row) {
+        Some(value) => value,
+        None => return,
+    };
+
+    out.push_str(&plan.prefix);
+    write_selected_assignments(plan, row, out, |index| changed[index]);
+    if let Some(condition) = &plan.condition {
+        out.push_str(" WHERE ");
+        out.push_str(&condition.label);
+        condition.write(out, condition_value);
+    }
+    out.push_str(";\n");
+}
+
+/// 写入 `c1 = v1, c2 = v2` 列表，跳过该行中不存在的字段
+fn write_assignments(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    write_selected_assignments(plan, row, out, |_| true);
+}
+
+/// 只写入 selected 返回 true 的列（参数为列在 plan.columns 中的下标）
+fn write_selected_assignments<F>(
+    plan: &GenerationPlan,
+    row: Row<'_>,
+    out: &mut String,
+    selected: F,
+) where
+    F: Fn(usize) -> bool,
+{
+    let mut first = true;
+    for (index, column) in plan.columns.iter().enumerate() {
+        if !selected(index) {
+            continue;
+        }
+        if let Some(value) = column.value(row) {
+            if !first {
+                out.push_str(", ");
+            }
+            out.push_str(&column.label);
+            column.write(out, value);
+            first = false;
+        }
+    }
+}
+
+pub fn write_insert(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if plan.is_complete(row) {
+        if plan.columns.is_empty() {
+            return;
+        }
+        out.push_str(&plan.prefix);
+        for (i, column) in plan.columns.iter().enumerate() {
+            if i > 0 {
+                out.push_str(", ");
+            }
+            column.write(out, column.value(row).unwrap_or_default());
+        }
+        out.push_str(");\n");
+        return;
+    }
+
+    // 行数据不完整时只写入存在的字段
+    let present: Vec<_> = plan
+        .columns
+        .iter()
+        .filter_map(|column| column.value(row).map(|value| (column, value)))
+        .collect();
+    if present.is_empty() {
+        return;
+    }
+
+    out.push_str("INSERT INTO ");
+    out.push_str(&plan.table);
+    out.push_str(" (");
+    for (i, (column, _)) in present.iter().enumerate() {
+        if i > 0 {
+            out.push_str(", ");
+        }
+        out.push_str(&column.db_field);
+    }
+    out.push_str(") VALUES (");
+    for (i, (column, value)) in present.iter().enumerate() {
+        if i > 0 {
+            out.push_str(", ");
+        }
+        column.write(out, value);
+    }
+    out.push_str(");\n");
+}
+
+pub fn write_delete(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    let condition_value = match plan.condition_value(row) {
+        Some(value) => value,
+        None => return,
+    };
+
+    if let Some(condition) = &plan.condition {
+        out.push_str(&plan.prefix);
+        condition.write(out, condition_value);
+        out.push_str(";\n");
+    }
+}
+
+/// 多行 INSERT：一组数据行写成 `INSERT ... VALUES (...),(...);`
+pub fn write_insert_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    if plan.columns.is_empty() {
+        return;
+    }
+    batch::write_list(plan, rows, out, ",\n", classify_insert, write_values);
+}
+
+/// 批量 UPDATE，按 update_mode 选择生成方式
+pub fn write_update_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    match plan.options.update_mode {
+        UpdateMode::Upsert => batch::write_list(
+            plan,
+            rows,
+            out,
+            ",\n",
+            classify_upsert,
+            write_upsert_values,
+        ),
+        UpdateMode::TempTable => batch::write_list(
+            plan,
+            rows,
+            out,
+            ",\n",
+            classify_temp_table,
+            write_temp_table_values,
+        ),
+        UpdateMode::JsonTable => batch::write_unique_list(
+            plan,
+            rows,
+            out,
+            ",",
+            classify_upsert,
+            write_json_values,
+        ),
+        UpdateMode::Case => write_case_batch(plan, rows, out),
+        UpdateMode::Coalesce => {
+            batch::write_grouped(plan, rows, out, write_assignments, coalesced_parts)
+        }
+        UpdateMode::Single => {
+            for row in rows.iter() {
+                write_update(plan, row, out);
+            }
+        }
+    }
+}
+
+fn classify_insert(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.columns.iter().any(|column| column.value(row).is_some()) {
+        BatchRow::Item
+    } else {
+        BatchRow::Skip
+    }
+}
+
+/// 批量 DELETE：`DELETE FROM t WHERE key IN (v1, v2, ...);`
+/// 或 `DELETE t FROM t JOIN JSON_TABLE('[v1,v2,...]', ...) AS src ON t.key = src.key;`
+pub fn write_delete_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    match plan.options.delete_mode {
+        DeleteMode::In => batch::write_list(
+            plan,
+            rows,
+            out,
+            ", ",
+            batch::classify_condition,
+            batch::write_condition_value,
+        ),
+        DeleteMode::JsonTable => {
+            batch::write_list(plan, rows, out, ",", batch::classify_condition, write_json_key)
+        }
+    }
+}
+
+/// 所有字段都存在的行合并生成；缺少部分字段的行用普通 UPDATE，避免把缺失字段覆盖为默认值或 NULL
+fn classify_upsert(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.condition_value(row).is_none()
+        || !plan.columns.iter().any(|column| column.value(row).is_some())
+    {
+        BatchRow::Skip
+    } else if plan.is_complete(row) {
+        BatchRow::Item
+    } else {
+        BatchRow::Single
+    }
+}
+
+/// 有条件值且至少有一个字段的行都写入临时表，缺少部分字段的行也不单独生成 UPDATE，保持行的先后顺序
+fn classify_temp_table(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.condition_value(row).is_none()
+        || !plan.columns.iter().any(|column| column.value(row).is_some())
+    {
+        BatchRow::Skip
+    } else {
+        BatchRow::Item
+    }
+}
+
+/// 写入临时表的一行 `(key, v1, set1, v2, set2, ...)`，该行中不存在的字段写成 NULL 并把标记置为 FALSE
+fn write_temp_table_values(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    out.push('(');
+    if let (Some(condition), Some(key)) = (&plan.condition, plan.condition_value(row)) {
+        condition.write(out, key);
+    }
+    for column in upsert_columns(plan) {
+        out.push_str(", ");
+        match column.value(row) {
+            Some(value) => {
+                column.write(out, value);
+                out.push_str(", TRUE");
+            }
+            None => out.push_str("NULL, FALSE"),
+        }
+    }
+    out.push(')');
+}
+
+/// 写入一行的 `(v1, v2, ...)`，该行中不存在的字段使用列的默认值
+fn write_values(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    out.push('(');
+    for (i, column) in plan.columns.iter().enumerate() {
+        if i > 0 {
+            out.push_str(", ");
+        }
+        match column.value(row) {
+            Some(value) => column.write(out, value),
+            None => out.push_str("DEFAULT"),
+        }
+    }
+    out.push(')');
+}
+
+/// 写入一行的 `(key, v1, v2, ...)`，只用于所有字段都存在的行
+fn write_upsert_values(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    out.push('(');
+    if let (Some(condition), Some(key)) = (&plan.condition, plan.condition_value(row)) {
+        condition.write(out, key);
+    }
+    for column in upsert_columns(plan) {
+        out.push_str(", ");
+        column.write(out, column.value(row).unwrap_or_default());
+    }
+    out.push(')');
+}
+
+/// `UPDATE t JOIN tmp USING (key) SET t.c = IF(tmp._set_c, tmp.c, t.c), ...;`，
+/// 设置了 join_rows 时按 _seq 范围拆成多条，最后一条不设上限；完成后删除临时表
+fn write_temp_table_join(
+    plan: &GenerationPlan,
+    condition: &ColumnPlan,
+    rows: usize,
+    out: &mut String,
+) {
+    let name = temp_table_name(plan);
+    let assignments: Vec<String> = upsert_columns(plan)
+        .map(|column| {
+            format!(
+                "{0}.{2} = IF({1}.{3}, {1}.{2}, {0}.{2})",
+                plan.table,
+                name,
+                column.db_field,
+                set_flag(column)
+            )
+        })
+        .collect();
+    // 只有条件字段时没有需要更新的列
+    if !assignments.is_empty() {
+        let statement = format!(
+            "UPDATE {} JOIN {} USING ({}) SET {}",
+            plan.table,
+            name,
+            condition.db_field,
+            assignments.join(", ")
+        );
+        let join_rows = plan.options.join_rows;
+        if join_rows == 0 || rows <= join_rows {
+            out.push_str(&statement);
+            out.push_str(";\n");
+        } else {
+            let mut start = 0;
+            while start < rows {
+                out.push_str(&statement);
+                if start + join_rows < rows {
+                    out.push_str(&format!(
+                        " WHERE {0}._seq > {1} AND {0}._seq <= {2};\n",
+                        name,
+                        start,
+                        start + join_rows
+                    ));
+                } else {
+                    out.push_str(&format!(" WHERE {}._seq > {};\n", name, start));
+                }
+                start += join_rows;
+            }
+        }
+    }
+    out.push_str(&format!("DROP TEMPORARY TABLE {};\n", name));
+}
+
+/// 更新内容相同的行：`UPDATE t SET ... WHERE key IN (k1, k2, ...);`
+fn coalesced_parts(plan: &GenerationPlan, payload: &str) -> (String, String) {
+    let condition_field = plan
+        .condition
+        .as_ref()
+        .map(|condition| condition.db_field.as_str())
+        .unwrap_or("");
+    (
+        format!("{}{} WHERE {} IN (", plan.prefix, payload, condition_field),
+        ");\n".to_string(),
+    )
+}
+
+/// 写入一行的 JSON 数组 `[key,v1,v2,...]`，只用于所有字段都存在的行
+fn write_json_values(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    out.push('[');
+    if let (Some(condition), Some(key)) = (&plan.condition, plan.condition_value(row)) {
+        write_json_value(condition.kind, out, key);
+    }
+    for column in upsert_columns(plan) {
+        out.push(',');
+        write_json_value(column.kind, out, column.value(row).unwrap_or_default());
+    }
+    out.push(']');
+}
+
+fn write_json_key(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    if let (Some(condition), Some(key)) = (&plan.condition, plan.condition_value(row)) {
+        write_json_value(condition.kind, out, key);
+    }
+}
+
+/// 按字段类型写入 JSON 值，空值写成 null；数字和布尔值不是合法 JSON 时按字符串写入，由 JSON_TABLE 转换
+fn write_json_value(kind: FieldKind, out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("null");
+        return;
+    }
+    match kind {
+        FieldKind::Integer | FieldKind::Long | FieldKind::Float if is_json_number(value) => {
+            out.push_str(value)
+        }
+        FieldKind::Boolean => match parse_bool(value) {
+            Some(true) => out.push_str("true"),
+            Some(false) => out.push_str("false"),
+            None => push_sql_json_quoted(out, value),
+        },
+        _ => push_sql_json_quoted(out, value),
+    }
+}
+
+/// 是否符合 JSON 数字的语法：-?(0|[1-9]d*)(.d+)?([eE][+-]?d+)?
+fn is_json_number(value: &str) -> bool {
+    let bytes = value.as_bytes();
+    let mut i = 0;
+    let digits = |i: &mut usize| {
+        let start = *i;
+        while *i < bytes.len() && bytes[*i].is_ascii_digit() {
+            *i += 1;
+        }
+        *i > start
+    };
+    if bytes.first() == Some(&b'-') {
+        i += 1;
+    }
+    let int_start = i;
+    if !digits(&mut i) || (bytes[int_start] == b'0' && i - int_start > 1) {
+        return false;
+    }
+    if bytes.get(i) == Some(&b'.') {
+        i += 1;
+        if !digits(&mut i) {
+            return false;
+        }
+    }
+    if matches!(bytes.get(i), Some(b'e') | Some(b'E')) {
+        i += 1;
+        if matches!(bytes.get(i), Some(b'+') | Some(b'-')) {
+            i += 1;
+        }
+        if !digits(&mut i) {
+            return false;
+        }
+    }
+    i == bytes.len()
+}
+
+/// CASE 批量更新中已格式化的行：条件值和各列的值保存在同一个缓冲区中
+struct CaseRows {
+    text: String,
+    keys: Vec<(usize, usize)>,
+    /// 按行依次存放每一列的值，该行中不存在的列为 None
+    cells: Vec<Option<(usize, usize)>>,
+}
+
+/// `UPDATE t SET c = CASE key WHEN k1 THEN v1 ... ELSE c END, ... WHERE key IN (k1, ...);`
+fn write_case_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    let condition = match &plan.condition {
+        Some(condition) => condition,
+        None => return,
+    };
+    let max_bytes = plan.options.max_statement_bytes;
+
+    // 语句中与行数无关的部分按所有列都出现估算
+    let fixed_len = plan.prefix.len()
+        + plan
+            .columns
+            .iter()
+            .map(|column| column.db_field.len() * 2 + condition.db_field.len() + 22)
+            .sum::<usize>()
+        + condition.db_field.len()
+        + 16;
+
+    let mut pending = CaseRows {
+        text: String::new(),
+        keys: Vec::new(),
+        cells: Vec::new(),
+    };
+    let mut statement_len = fixed_len;
+    let mut row_text = String::new();
+    let mut row_cells: Vec<Option<(usize, usize)>> = Vec::with_capacity(plan.columns.len());
+    for row in rows.iter() {
+        let key = match plan.condition_value(row) {
+            Some(key) => key,
+            None => continue,
+        };
+        if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+            continue;
+        }
+
+        // 先格式化到单独的缓冲区，算出这一行增加的长度
+        row_text.clear();
+        row_cells.clear();
+        condition.write(&mut row_text, key);
+        let key_len = row_text.len();
+        let mut row_len = key_len + 2;
+        for column in &plan.columns {
+            match column.value(row) {
+                Some(value) => {
+                    let start = row_text.len();
+                    column.write(&mut row_text, value);
+                    row_cells.push(Some((start, row_text.len())));
+                    row_len += key_len + row_text.len() - start + 12;
+                }
+                None => row_cells.push(None),
+            }
+        }
+
+        if !pending.keys.is_empty() && statement_len + row_len > max_bytes {
+            write_case_statement(plan, condition, &pending, out);
+            pending.text.clear();
+            pending.keys.clear();
+            pending.cells.clear();
+            statement_len = fixed_len;
+        }
+
+        let base = pending.text.len();
+        pending.text.push_str(&row_text);
+        pending.keys.push((base, base + key_len));
+        pending.cells.extend(
+            row_cells
+                .iter()
+                .map(|cell| cell.map(|(start, end)| (base + start, base + end))),
+        );
+        statement_len += row_len;
+    }
+
+    if !pending.keys.is_empty() {
+        write_case_statement(plan, condition, &pending, out);
+    }
+}
+
+fn write_case_statement(
+    plan: &GenerationPlan,
+    condition: &ColumnPlan,
+    pending: &CaseRows,
+    out: &mut String,
+) {
+    let columns = plan.columns.len();
+    out.push_str(&plan.prefix);
+    let mut first = true;
+    for (index, column) in plan.columns.iter().enumerate() {
+        let cell = |row: usize| pending.cells[row * columns + index];
+        if (0..pending.keys.len()).all(|row| cell(row).is_none()) {
+            continue;
+        }
+        if !first {
+            out.push_str(", ");
+        }
+        first = false;
+
+        out.push_str(&column.db_field);
+        out.push_str(" = CASE ");
+        out.push_str(&condition.db_field);
+        // 倒序写入，条件值重复时与逐行 UPDATE 一样以最后一行为准
+        for row in (0..pending.keys.len()).rev() {
+            if let Some((start, end)) = cell(row) {
+                let (key_start, key_end) = pending.keys[row];
+                out.push_str(" WHEN ");
+                out.push_str(&pending.text[key_start..key_end]);
+                out.push_str(" THEN ");
+                out.push_str(&pending.text[start..end]);
+            }
+        }
+        out.push_str(" ELSE ");
+        out.push_str(&column.db_field);
+        out.push_str(" END");
+    }
+
+    out.push_str(" WHERE ");
+    out.push_str(&condition.db_field);
+    out.push_str(" IN (");
+    for (i, &(start, end)) in pending.keys.iter().enumerate() {
+        if i > 0 {
+            out.push_str(", ");
+        }
+        out.push_str(&pending.text[start..end]);
+    }
+    out.push_str(");\n");
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::{mappings, Dialect, GenerationOptions};
+    use crate::table::RowTable;
+    use std::collections::{BTreeMap, BTreeSet};
+
+    fn plan(operation: Operation, options: GenerationOptions) -> GenerationPlan {
+        let field_mappings =
+            mappings(&[("id", 0, "Long"), ("name", 1, "String"), ("enabled", 2, "Boolean")]);
+        GenerationPlan::compile(
+            Dialect::MySql,
+            operation,
+            &field_mappings,
+            "id",
+            &["name".to_string(), "enabled".to_string()],
+            "t",
+            &options,
+        )
+        .unwrap()
+    }
+
+    fn table(rows: &[&[&str]]) -> RowTable {
+        let rows: Vec<Vec<String>> = rows
+            .iter()
+            .map(|row| row.iter().map(|cell| cell.to_string()).collect())
+            .collect();
+        RowTable::from_vecs(&rows)
+    }
+
+    fn generate(plan: &GenerationPlan, table: &RowTable) -> String {
+        let mut out = String::new();
+        plan.write_header(&mut out);
+        plan.write_rows(table.rows(), &mut out);
+        plan.write_footer(table.len(), &mut out);
+        out
+    }
+
+    #[test]
+    fn upsert_uses_row_alias() {
+        let plan = plan(
+            Operation::Update,
+            GenerationOptions {
+                batch_rows: 100,
+                update_mode: UpdateMode::Upsert,
+                ..GenerationOptions::default()
+            },
+        );
+        let rows = table(&[&["1", "a", "true"], &["2", "O'Neil", ""]]);
+        assert_eq!(
+            generate(&plan, &rows),
+            "INSERT INTO t (id, name, enabled) VALUES\n\
+             (1, 'a', TRUE),\n\
+             (2, 'O''Neil', NULL)\n\
+             AS new ON DUPLICATE KEY UPDATE name = new.name, enabled = new.enabled;\n"
+        );
+    }
+
+    /// 按顺序执行逐行 UPDATE、JSON_TABLE 或临时表 JOIN 脚本，返回每个条件值最终的各列取值（SQL 字面量）；
+    /// 临时表按主键合并重复的条件值，标记为 FALSE 的列保留原值，与 ON DUPLICATE KEY UPDATE 的写法一致；
+    /// 同一条 JSON_TABLE 语句中条件值重复时结果不确定，直接断言失败
+    fn replay(script: &str) -> BTreeMap<String, BTreeMap<String, String>> {
+        let mut state: BTreeMap<String, BTreeMap<String, String>> = BTreeMap::new();
+        let mut fields: Vec<String> = Vec::new();
+        // 临时表的行：条件值、_seq 和各列的 (值, 标记)
+        let mut temp: Vec<(String, usize, Vec<(String, bool)>)> = Vec::new();
+        let mut next_seq = 1;
+        for line in script.lines() {
+            if let Some(rest) = line.strip_prefix("UPDATE t SET ") {
+                let (assignments, key) = rest.split_once(" WHERE id = ").unwrap();
+                let entry = state.entry(key.trim_end_matches(';').to_string()).or_default();
+                for assignment in assignments.split(", ") {
+                    let (field, value) = assignment.split_once(" = ").unwrap();
+                    entry.insert(field.to_string(), value.to_string());
+                }
+            } else if let Some(rest) = line.strip_prefix("UPDATE t JOIN JSON_TABLE('") {
+                let (items, rest) = rest.split_once("', '$[*]'").unwrap();
+                let items: Vec<Vec<serde_json::Value>> = serde_json::from_str(items).unwrap();
+                let (_, assignments) = rest.split_once(" SET ").unwrap();
+                let fields: Vec<&str> = assignments
+                    .split(", ")
+                    .map(|assignment| assignment.split_once(" = ").unwrap().0)
+                    .map(|field| field.trim_start_matches("t."))
+                    .collect();
+                let mut keys = BTreeSet::new();
+                for item in items {
+                    let key = item[0].to_string();
+                    assert!(keys.insert(key.clone()), "重复的条件值 {}: {}", key, line);
+                    let entry = state.entry(key).or_default();
+                    for (field, value) in fields.iter().zip(&item[1..]) {
+                        let value = match value {
+                            serde_json::Value::String(text) => format!("'{}'", text),
+                            serde_json::Value::Bool(true) => "TRUE".to_string(),
+                            serde_json::Value::Bool(false) => "FALSE".to_string(),
+                            value => value.to_string().replace("null", "NULL"),
+                        };
+                        entry.insert(field.to_string(), value);
+                    }
+                }
+            } else if let Some(rest) = line.strip_prefix("INSERT INTO tmp_t_update (") {
+                fields = rest.trim_end_matches(") VALUES").split(", ").map(String::from).collect();
+            } else if line.starts_with('(') {
+                let values: Vec<&str> =
+                    line.trim_end_matches(',').trim_matches(&['(', ')'][..]).split(", ").collect();
+                let columns: Vec<(String, bool)> = values[1..]
+                    .chunks(2)
+                    .map(|pair| (pair[0].to_string(), pair[1] == "TRUE"))
+                    .collect();
+                match temp.iter_mut().find(|(key, _, _)| *key == values[0]) {
+                    Some((_, _, existing)) => {
+                        for (old, new) in existing.iter_mut().zip(columns) {
+                            if new.1 {
+                                *old = new;
+                            }
+                        }
+                    }
+                    None => temp.push((values[0].to_string(), next_seq, columns)),
+                }
+                next_seq += 1;
+            } else if let Some(rest) = line.strip_prefix("UPDATE t JOIN tmp_t_update ") {
+                let range = rest.split_once(" WHERE ").map(|(_, range)| {
+                    let bounds: Vec<usize> = range
+                        .split(|c: char| !c.is_ascii_digit())
+                        .filter_map(|part| part.parse().ok())
+                        .collect();
+                    (bounds[0], bounds.get(1).copied().unwrap_or(usize::MAX))
+                });
+                for (key, seq, columns) in &temp {
+                    if let Some((start, end)) = range {
+                        if *seq <= start || *seq > end {
+                            continue;
+                        }
+                    }
+                    let entry = state.entry(key.clone()).or_default();
+                    for (i, (value, set)) in columns.iter().enumerate() {
+                        if *set {
+                            entry.insert(fields[1 + i * 2].clone(), value.clone());
+                        }
+                    }
+                }
+            }
+        }
+        state
+    }
+
+    /// 条件值重复出现、部分行缺少字段的数据
+    fn repeated_rows() -> RowTable {
+        table(&[
+            &["1", "a", "true"],
+            &["2", "b"],
+            &["1", "c"],
+            &["3", "d", "false"],
+            &["2", "e", "true"],
+            &["4"],
+            &["1", "", "false"],
+            &["3", "f"],
+            &["5", "g"],
+            &["2", "h", ""],
+        ])
+    }
+
+    #[test]
+    fn temp_table_keeps_last_value_per_key() {
+        let plan = plan(
+            Operation::Update,
+            GenerationOptions {
+                batch_rows: 100,
+                update_mode: UpdateMode::TempTable,
+                ..GenerationOptions::default()
+            },
+        );
+        let rows = table(&[&["1", "a", "true"], &["2", "b"], &["1", "c"]]);
+        assert_eq!(
+            generate(&plan, &rows),
+            "DROP TEMPORARY TABLE IF EXISTS tmp_t_update;\n\
+             CREATE TEMPORARY TABLE tmp_t_update (\n\
+             \x20 _seq BIGINT NOT NULL AUTO_INCREMENT,\n\
+             \x20 id BIGINT,\n\
+             \x20 name TEXT,\n\
+             \x20 _set_name BOOLEAN NOT NULL,\n\
+             \x20 enabled BOOLEAN,\n\
+             \x20 _set_enabled BOOLEAN NOT NULL,\n\
+             \x20 PRIMARY KEY (id),\n\
+             \x20 UNIQUE KEY (_seq)\n\
+             );\n\
+             INSERT INTO tmp_t_update (id, name, _set_name, enabled, _set_enabled) VALUES\n\
+             (1, 'a', TRUE, TRUE, TRUE),\n\
+             (2, 'b', TRUE, NULL, FALSE),\n\
+             (1, 'c', TRUE, NULL, FALSE)\n\
+             AS new ON DUPLICATE KEY UPDATE name = IF(new._set_name, new.name, name), \
+             _set_name = _set_name OR new._set_name, \
+             enabled = IF(new._set_enabled, new.enabled, enabled), \
+             _set_enabled = _set_enabled OR new._set_enabled;\n\
+             UPDATE t JOIN tmp_t_update USING (id) SET \
+             t.name = IF(tmp_t_update._set_name, tmp_t_update.name, t.name), \
+             t.enabled = IF(tmp_t_update._set_enabled, tmp_t_update.enabled, t.enabled);\n\
+             DROP TEMPORARY TABLE tmp_t_update;\n"
+        );
+    }
+
+    #[test]
+    fn temp_table_matches_per_row_result() {
+        let rows = repeated_rows();
+        let single = plan(Operation::Update, GenerationOptions::default());
+        let expected = replay(&generate(&single, &rows));
+        assert_eq!(expected["1"]["name"], "NULL");
+        assert_eq!(expected["2"]["enabled"], "NULL");
+
+        for (batch_rows, join_rows) in [(100, 0), (3, 2), (1, 1)] {
+            let temp_table = plan(
+                Operation::Update,
+                GenerationOptions {
+                    batch_rows,
+                    update_mode: UpdateMode::TempTable,
+                    join_rows,
+                    ..GenerationOptions::default()
+                },
+            );
+            let script = generate(&temp_table, &rows);
+            assert!(!script.contains("UPDATE t SET"), "{}", script);
+            assert_eq!(replay(&script), expected, "{}", script);
+        }
+    }
+
+    #[test]
+    fn json_table_flushes_repeated_keys() {
+        let plan = plan(
+            Operation::Update,
+            GenerationOptions {
+                batch_rows: 100,
+                update_mode: UpdateMode::JsonTable,
+                ..GenerationOptions::default()
+            },
+        );
+        let suffix = "]', '$[*]' COLUMNS (id BIGINT PATH '$[0]', name TEXT PATH '$[1]', \
+                      enabled BOOLEAN PATH '$[2]')) AS src ON t.id = src.id \
+                      SET t.name = src.name, t.enabled = src.enabled;\n";
+        let rows = table(&[&["1", "a", "true"], &["2", "b", "false"], &["1", "c", "true"]]);
+        assert_eq!(
+            generate(&plan, &rows),
+            format!(
+                "UPDATE t JOIN JSON_TABLE('[[1,\"a\",true],[2,\"b\",false]{0}\
+                 UPDATE t JOIN JSON_TABLE('[[1,\"c\",true]{0}",
+                suffix
+            )
+        );
+    }
+
+    #[test]
+    fn json_table_matches_per_row_result() {
+        let rows = repeated_rows();
+        let single = plan(Operation::Update, GenerationOptions::default());
+        let expected = replay(&generate(&single, &rows));
+
+        for batch_rows in [2, 3, 100] {
+            let json_table = plan(
+                Operation::Update,
+                GenerationOptions {
+                    batch_rows,
+                    update_mode: UpdateMode::JsonTable,
+                    ..GenerationOptions::default()
+                },
+            );
+            let script = generate(&json_table, &rows);
+            assert_eq!(replay(&script), expected, "{}", script);
+        }
+    }
+
+    #[test]
+    fn transactions_wrap_statement_groups() {
+        let plan = plan(
+            Operation::Update,
+            GenerationOptions {
+                transaction_statements: 2,
+                ..GenerationOptions::default()
+            },
+        );
+        // 第二个事务中的行都没有条件值，整个事务被省略
+        let rows = table(&[
+            &["1", "a", "true"],
+            &["2", "b", "false"],
+            &["", "x"],
+            &["", "y"],
+            &["3", "c"],
+        ]);
+        assert_eq!(
+            generate(&plan, &rows),
+            "START TRANSACTION;\n\
+             UPDATE t SET name = 'a', enabled = TRUE WHERE id = 1;\n\
+             UPDATE t SET name = 'b', enabled = FALSE WHERE id = 2;\n\
+             COMMIT;\n\
+             START TRANSACTION;\n\
+             UPDATE t SET name = 'c' WHERE id = 3;\n\
+             COMMIT;\n"
+        );
+    }
+
+    #[test]
+    fn load_data_writes_statement_and_tsv_rows() {
+        let field_mappings = mappings(&[
+            ("id", 0, "Long"),
+            ("name", 1, "String"),
+            ("created", 2, "LocalDate"),
+            ("enabled", 3, "Boolean"),
+        ]);
+        let options = GenerationOptions {
+            load_data: true,
+            ..GenerationOptions::default()
+        };
+        let plan = GenerationPlan::compile(
+            Dialect::MySql,
+            Operation::Insert,
+            &field_mappings,
+            "",
+            &[],
+            "t",
+            &options,
+        )
+        .unwrap();
+
+        let mut out = String::new();
+        plan.write_load_data("data.tsv", &mut out);
+        assert_eq!(
+            out,
+            "LOAD DATA LOCAL INFILE 'data.tsv'\n\
+             INTO TABLE t\n\
+             CHARACTER SET utf8mb4\n\
+             FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'\n\
+             LINES TERMINATED BY '\\n'\n\
+             (id, name, @c3, enabled)\n\
+             SET created = STR_TO_DATE(@c3, '%Y-%m-%d');\n"
+        );
+
+        let rows = table(&[&["1", "a\tb", "2024-01-02", "true"], &["2", "", "", ""], &["3", "c"]]);
+        assert_eq!(
+            generate(&plan, &rows),
+            "1\ta\\tb\t2024-01-02\t1\n\
+             2\t\\N\t\\N\t\\N\n\
+             3\tc\t\\N\t\\N\n"
+        );
+    }
+}
@@ -0,0 +1,294 @@
+//! 流式生成：读取 → 格式化 → 写入 三个阶段之间用有界通道连接，内存占用与文件大小无关
+
+use serde::Serialize;
+use std::fs::File;
+use std::io::{BufWriter, Write};
+use std::path::Path;
+use std::sync::mpsc;
+use std::thread;
+use std::time::Instant;
+
+use crate::dedupe::StreamFilter;
+use crate::ingest::CsvOptions;
+use crate::jobs::JobContext;
+use crate::plan::{GenerationOptions, GenerationPlan};
+use crate::sort::{ExternalSorter, SortSpec};
+use crate::table::RowTable;
+use crate::{ingest, parallel};
+
+/// 每批读取的行数
+const BATCH_ROWS: usize = 4096;
+
+/// 每个通道中最多缓存的批次数
+const CHANNEL_DEPTH: usize = 4;
+
+/// 输出文件的写入缓冲区大小
+const WRITE_BUFFER_BYTES: usize = 1 << 20;
+
+/// 返回给前端的生成结果摘要
+#[derive(Serialize, Debug)]
+#[serde(rename_all = "camelCase")]
+pub struct PipelineSummary {
+    pub rows: usize,
+    /// 因条件值重复被合并掉的行数
+    pub duplicate_rows: usize,
+    pub bytes_written: u64,
+    pub elapsed_ms: u64,
+    pub output_path: String,
+    /// LOAD DATA 模式下与脚本放在一起的 TSV 数据文件
+    pub data_path: Option<String>,
+}
+
+/// 从输入文件读取数据，生成脚本并直接写入输出文件
+pub fn run(
+    plan: &GenerationPlan,
+    input_path: &str,
+    has_headers: bool,
+    csv_options: &CsvOptions,
+    sheet_name: Option<&str>,
+    output_path: &str,
+    options: &GenerationOptions,
+    context: &JobContext,
+) -> Result<PipelineSummary, String> {
+    let started = Instant::now();
+    // 多线程模式下每批交给所有工作线程分块处理；批量语句不跨批次
+    let batch_rows = plan.align_rows(if options.parallel {
+        BATCH_ROWS * parallel::worker_count()
+    } else {
+        BATCH_ROWS
+    });
+    // LOAD DATA 模式下数据行写入同名的 .tsv 文件，脚本文件最后只写入 LOAD DATA 语句
+    let data_path = if plan.is_load_data() {
+        Some(load_data_path(output_path)?)
+    } else {
+        None
+    };
+    let file = File::create(data_path.as_deref().unwrap_or(output_path))
+        .map_err(|e| format!("无法创建输出文件: {}", e))?;
+
+    let (row_tx, row_rx) = mpsc::sync_channel::<RowTable>(CHANNEL_DEPTH);
+    let (text_tx, text_rx) = mpsc::sync_channel::<String>(CHANNEL_DEPTH);
+
+    let result = thread::scope(|scope| -> Result<PipelineSummary, String> {
+        // 读取阶段：任务取消或下游关闭通道后停止读取；
+        // 需要合并重复行时先逐批过滤，需要排序时全部读完后再按顺序交给格式化阶段
+        let reader = scope.spawn(move || {
+            let mut filter = StreamFilter::prepare(
+                plan,
+                input_path,
+                has_headers,
+                csv_options,
+                sheet_name,
+                context,
+            )?;
+            let mut sorter = SortSpec::from_plan(plan)
+                .map(|spec| ExternalSorter::new(spec, options.sort_memory_mb.max(1) << 20));
+            let send = |batch: RowTable| !context.is_cancelled() && row_tx.send(batch).is_ok();
+
+            let mut sort_error = None;
+            let rows = ingest::read_batches(
+                input_path,
+                has_headers,
+                csv_options,
+                sheet_name,
+                batch_rows,
+                |batch| {
+                    if context.is_cancelled() {
+                        return false;
+                    }
+                    let batch = match &mut filter {
+                        Some(filter) => {
+                            let (batch, collapsed) = filter.apply(plan, batch);
+                            context.add_duplicates(collapsed);
+                            batch
+                        }
+                        None => batch,
+                    };
+                    match &mut sorter {
+                        Some(sorter) => match sorter.push(batch) {
+                            Ok(()) => true,
+                            Err(e) => {
+                                sort_error = Some(e);
+                                false
+                            }
+                        },
+                        None => batch.is_empty() || send(batch),
+                    }
+                },
+            )?;
+            if let Some(e) = sort_error {
+                return Err(e);
+            }
+            if let Some(sorter) = sorter {
+                if !context.is_cancelled() {
+                    sorter.finish(batch_rows, send)?;
+                }
+            }
+            Ok(rows)
+        });
+
+        // 写入阶段
+        let writer = scope.spawn(move || -> Result<u64, String> {
+            let mut out = BufWriter::with_capacity(WRITE_BUFFER_BYTES, file);
+            let mut bytes_written = 0u64;
+            for text in text_rx {
+                out.write_all(text.as_bytes())
+                    .map_err(|e| format!("写入输出文件失败: {}", e))?;
+                bytes_written += text.len() as u64;
+                context.add_bytes(text.len() as u64);
+            }
+            out.flush().map_err(|e| format!("写入输出文件失败: {}", e))?;
+            Ok(bytes_written)
+        });
+
+        // 格式化阶段在当前线程执行
+        let mut header = String::new();
+        if data_path.is_none() {
+            plan.write_header(&mut header);
+        }
+        if !header.is_empty() {
+            let _ = text_tx.send(header);
+        }
+        let mut rows_read = 0;
+        for batch in row_rx {
+            if context.is_cancelled() {
+                break;
+            }
+            let mut text = String::new();
+            if options.parallel {
+                // 取消时由下面的 context.check() 统一返回错误
+                let _ = parallel::write_rows(
+                    plan,
+                    batch.rows(),
+                    &mut text,
+                    &JobContext::detached(),
+                );
+            } else {
+                text.reserve(plan.estimate_len(batch.rows()));
+                plan.write_rows(batch.rows(), &mut text);
+            }
+            rows_read += batch.len();
+            context.add_rows(batch.len());
+            if text_tx.send(text).is_err() {
+                break;
+            }
+        }
+        if !context.is_cancelled() && data_path.is_none() {
+            let mut footer = String::new();
+            plan.write_footer(rows_read, &mut footer);
+            if !footer.is_empty() {
+                let _ = text_tx.send(footer);
+            }
+        }
+        drop(text_tx);
+
+        let mut bytes_written = writer
+            .join()
+            .map_err(|_| "写入线程异常退出".to_string())??;
+        let rows = reader
+            .join()
+            .map_err(|_| "读取线程异常退出".to_string())??;
+        context.check()?;
+
+        if let Some(data_path) = &data_path {
+            let mut script = String::new();
+            plan.write_header(&mut script);
+            plan.write_load_data(data_path, &mut script);
+            plan.write_footer(rows_read, &mut script);
+            std::fs::write(output_path, &script)
+                .map_err(|e| format!("写入输出文件失败: {}", e))?;
+            bytes_written += script.len() as u64;
+        }
+
+        Ok(PipelineSummary {
+            rows,
+            duplicate_rows: context.duplicates(),
+            bytes_written,
+            elapsed_ms: started.elapsed().as_millis() as u64,
+            output_path: output_path.to_string(),
+            data_path: data_path.clone(),
+        })
+    });
+
+    // 失败或取消时删除写了一半的输出文件
+    if result.is_err() {
+        let _ = std::fs::remove_file(output_path);
+        if let Some(data_path) = &data_path {
+            let _ = std::fs::remove_file(data_path);
+        }
+    }
+    result
+}
+
+/// LOAD DATA 数据文件的路径：与脚本文件同名，扩展名为 .tsv
+fn load_data_path(output_path: &str) -> Result<String, String> {
+    let data_path = Path::new(output_path).with_extension("tsv");
+    if data_path == Path::new(output_path) {
+        return Err("LOAD DATA 模式下脚本文件不能使用 .tsv 扩展名".to_string());
+    }
+    Ok(data_path.to_string_lossy().into_owned())
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::{mappings, Dialect, Operation};
+
+    #[test]
+    fn parallel_csv_reader_matches_sequential() {
+        let field_mappings = mappings(&[("id", 0, "Long"), ("name", 1, "String")]);
+        // 批量语句和事务分段都依赖每批的行数
+        let options = GenerationOptions {
+            batch_rows: 100,
+            transaction_statements: 7,
+            ..GenerationOptions::default()
+        };
+        let plan = GenerationPlan::compile(
+            Dialect::MySql,
+            Operation::Insert,
+            &field_mappings,
+            "id",
+            &[],
+            "t",
+            &options,
+        )
+        .unwrap();
+
+        // 文件大于多线程解析的最小分块，会被切成多个分块
+        let mut data = String::from("id,name\n");
+        for i in 0..120_000 {
+            data.push_str(&format!("{},\"name, {}\nline\"\n", i, i));
+        }
+        let dir = std::env::temp_dir();
+        let id = std::process::id();
+        let input_path = dir.join(format!("sql-helper-pipeline-in-{}.csv", id));
+        std::fs::write(&input_path, &data).unwrap();
+
+        let mut scripts = Vec::new();
+        for parallel in [false, true] {
+            let csv_options = CsvOptions {
+                parallel,
+                ..CsvOptions::default()
+            };
+            let output_path = dir.join(format!("sql-helper-pipeline-out-{}-{}.sql", id, parallel));
+            let summary = run(
+                &plan,
+                input_path.to_str().unwrap(),
+                true,
+                &csv_options,
+                None,
+                output_path.to_str().unwrap(),
+                &options,
+                &JobContext::detached(),
+            )
+            .unwrap();
+            assert_eq!(summary.rows, 120_000);
+            scripts.push(std::fs::read_to_string(&output_path).unwrap());
+            let _ = std::fs::remove_file(&output_path);
+        }
+        let _ = std::fs::remove_file(&input_path);
+
+        assert!(scripts[0].contains("START TRANSACTION"));
+        assert!(scripts[0] == scripts[1], "多线程解析生成的脚本与顺序解析不一致");
+    }
+}
@@ -0,0 +1,767 @@
+//! 生成计划：每次请求只解析一次字段映射，后续逐行生成时直接使用编译好的列信息
+
+use serde::{Deserialize, Serialize};
+use std::collections::HashMap;
+
+use crate::table::{Row, Rows};
+use crate::{mongodb, mysql, postgres};
+
+#[derive(Serialize, Deserialize, Debug)]
+pub struct FieldMappingInfo {
+    #[serde(rename = "dbField")]
+    pub db_field: String,
+    #[serde(rename = "csvIndex")]
+    pub csv_index: usize,
+    #[serde(rename = "fieldType")]
+    pub field_type: Option<String>, // 添加字段类型，使用Option因为可能为空
+}
+
+/// 测试用的字段映射，每项为 (数据库字段, CSV 列序号, 字段类型)
+#[cfg(test)]
+pub(crate) fn mappings(fields: &[(&str, usize, &str)]) -> HashMap<String, FieldMappingInfo> {
+    fields
+        .iter()
+        .map(|&(db_field, csv_index, field_type)| {
+            let info = FieldMappingInfo {
+                db_field: db_field.to_string(),
+                csv_index,
+                field_type: Some(field_type.to_string()),
+            };
+            (db_field.to_string(), info)
+        })
+        .collect()
+}
+
+/// 前端传入的生成选项，缺省字段使用默认值
+#[derive(Deserialize, Debug, Clone)]
+#[serde(rename_all = "camelCase", default)]
+pub struct GenerationOptions {
+    /// 多线程分块生成
+    pub parallel: bool,
+    /// 每条语句最多包含的数据行数，大于 1 时生成批量语句（MySQL INSERT 使用多行 VALUES，
+    /// DELETE 使用 IN / $in 列表，MongoDB INSERT / UPDATE 使用 insertMany / bulkWrite）
+    pub batch_rows: usize,
+    /// 单条批量语句的最大字节数，应小于 MySQL 的 max_allowed_packet
+    pub max_statement_bytes: usize,
+    /// 在脚本首尾加入批量导入设置：关闭唯一性检查和外键检查、关闭自动提交，最后统一提交
+    pub bulk_load: bool,
+    /// MySQL UPDATE 的生成方式
+    pub update_mode: UpdateMode,
+    /// MongoDB insertMany / bulkWrite 是否按顺序执行，遇到错误时停止
+    pub ordered: bool,
+    /// MySQL 每个事务包含的语句数，大于 0 时用 START TRANSACTION / COMMIT 分段提交
+    pub transaction_statements: usize,
+    /// 每个事务最多涉及的数据行数，0 表示不限制；批量语句的行数也不会超过这个值
+    pub transaction_rows: usize,
+    /// 临时表 JOIN 更新时每条 UPDATE 覆盖的临时表行数，0 表示用一条 UPDATE 完成
+    pub join_rows: usize,
+    /// MySQL 批量 DELETE 的生成方式
+    pub delete_mode: DeleteMode,
+    /// MongoDB UPDATE 的生成方式
+    pub mongo_update_mode: MongoUpdateMode,
+    /// PostgreSQL UPDATE 的生成方式
+    pub pg_update_mode: PgUpdateMode,
+    /// 按条件字段排序后生成（UPDATE / DELETE），数字类型按数值比较
+    pub sort_by_key: bool,
+    /// 流式生成时排序可使用的内存（MB），超过后写入临时文件做外部排序
+    pub sort_memory_mb: usize,
+    /// 条件值重复的行只保留一行
+    pub dedupe: DedupeMode,
+    /// 流式生成时用布隆过滤器预扫描，只精确跟踪可能重复的条件值
+    pub dedupe_bloom: bool,
+    /// 布隆过滤器使用的内存（MB）
+    pub dedupe_memory_mb: usize,
+    /// MySQL INSERT 写出 TSV 数据文件和 LOAD DATA LOCAL INFILE 语句，只支持直接生成到文件
+    pub load_data: bool,
+    /// MongoDB INSERT 每行写出一个规范 Extended JSON 文档，供 mongoimport 导入
+    pub extended_json: bool,
+}
+
+/// MySQL UPDATE 的生成方式
+#[derive(Deserialize, Debug, Clone, Copy, PartialEq, Eq)]
+#[serde(rename_all = "camelCase")]
+pub enum UpdateMode {
+    /// 每行一条 UPDATE
+    Single,
+    /// INSERT ... ON DUPLICATE KEY UPDATE，条件字段必须是主键或唯一键
+    Upsert,
+    /// UPDATE ... SET col = CASE key WHEN ... END WHERE key IN (...)
+    Case,
+    /// 先批量插入临时表，最后用 UPDATE t JOIN tmp USING (key) 一次更新
+    TempTable,
+    /// 每批数据写成一个 JSON 数组，用 JSON_TABLE 展开后与目标表 JOIN（MySQL 8）
+    JsonTable,
+    /// 更新内容相同的行合并为 UPDATE t SET ... WHERE key IN (...)
+    Coalesce,
+}
+
+/// MySQL 批量 DELETE 的生成方式
+#[derive(Deserialize, Debug, Clone, Copy, PartialEq, Eq)]
+#[serde(rename_all = "camelCase")]
+pub enum DeleteMode {
+    /// DELETE FROM t WHERE key IN (...)
+    In,
+    /// DELETE t FROM t JOIN JSON_TABLE(...)，条件值写成一个 JSON 数组（MySQL 8）
+    JsonTable,
+}
+
+/// 条件值重复时保留哪一行
+#[derive(Deserialize, Debug, Clone, Copy, PartialEq, Eq)]
+#[serde(rename_all = "camelCase")]
+pub enum DedupeMode {
+    /// 不合并
+    None,
+    /// 保留第一次出现的行
+    KeepFirst,
+    /// 保留最后一次出现的行
+    KeepLast,
+}
+
+/// MongoDB UPDATE 的生成方式
+#[derive(Deserialize, Debug, Clone, Copy, PartialEq, Eq)]
+#[serde(rename_all = "camelCase")]
+pub enum MongoUpdateMode {
+    /// 每行一个 updateOne，批量时合并为 bulkWrite
+    UpdateOne,
+    /// 先 insertMany 到暂存集合，再用 aggregate + $merge 一次更新目标集合，最后删除暂存集合
+    Merge,
+    /// 更新内容相同的行合并为 updateMany({ key: { $in: [...] } }, { $set: ... })
+    Coalesce,
+}
+
+/// PostgreSQL UPDATE 的生成方式
+#[derive(Deserialize, Debug, Clone, Copy, PartialEq, Eq)]
+#[serde(rename_all = "camelCase")]
+pub enum PgUpdateMode {
+    /// 每行一条 UPDATE
+    Single,
+    /// UPDATE t SET ... FROM (VALUES ...) AS v(...) WHERE t.key = v.key
+    Values,
+    /// 更新内容相同的行合并为 UPDATE t SET ... WHERE key IN (...)
+    Coalesce,
+}
+
+impl Default for GenerationOptions {
+    fn default() -> Self {
+        GenerationOptions {
+            parallel: false,
+            batch_rows: 1,
+            max_statement_bytes: 1 << 20,
+            bulk_load: false,
+            update_mode: UpdateMode::Single,
+            ordered: false,
+            transaction_statements: 0,
+            transaction_rows: 0,
+            join_rows: 0,
+            delete_mode: DeleteMode::In,
+            mongo_update_mode: MongoUpdateMode::UpdateOne,
+            pg_update_mode: PgUpdateMode::Single,
+            sort_by_key: false,
+            sort_memory_mb: 256,
+            dedupe: DedupeMode::None,
+            dedupe_bloom: false,
+            dedupe_memory_mb: 64,
+            load_data: false,
+            extended_json: false,
+        }
+    }
+}
+
+/// 一次完整的生成请求，字段名与前端页面的状态保持一致
+#[derive(Deserialize, Debug)]
+#[serde(rename_all = "camelCase")]
+pub struct GenerationRequest {
+    pub db_type: Dialect,
+    pub operation_type: Operation,
+    pub field_mappings: HashMap<String, FieldMappingInfo>,
+    #[serde(default)]
+    pub condition_field: String,
+    #[serde(default)]
+    pub update_fields: Vec<String>,
+    pub table_name: String,
+    #[serde(default)]
+    pub options: GenerationOptions,
+}
+
+impl GenerationRequest {
+    pub fn compile(&self) -> Result<GenerationPlan, String> {
+        GenerationPlan::compile(
+            self.db_type,
+            self.operation_type,
+            &self.field_mappings,
+            &self.condition_field,
+            &self.update_fields,
+            &self.table_name,
+            &self.options,
+        )
+    }
+}
+
+/// 目标数据库
+#[derive(Deserialize, Clone, Copy, Debug, PartialEq, Eq)]
+pub enum Dialect {
+    #[serde(rename = "MySQL")]
+    MySql,
+    #[serde(rename = "MongoDB")]
+    MongoDb,
+    #[serde(rename = "PostgreSQL")]
+    PostgreSql,
+}
+
+/// 脚本操作类型
+#[derive(Deserialize, Clone, Copy, Debug, PartialEq, Eq)]
+#[serde(rename_all = "UPPERCASE")]
+pub enum Operation {
+    Update,
+    Insert,
+    Delete,
+}
+
+/// 由 Java 字段类型字符串解析出的字段类别
+#[derive(Clone, Copy, Debug, PartialEq, Eq)]
+pub enum FieldKind {
+    /// 没有类型信息
+    Untyped,
+    DateTime,
+    Date,
+    Timestamp,
+    ObjectId,
+    Integer,
+    Long,
+    Float,
+    Decimal,
+    Boolean,
+    Binary,
+    RegExp,
+    MinKey,
+    MaxKey,
+    Code,
+    Object,
+    Array,
+    Text,
+    /// 有类型信息但无法识别
+    Other,
+}
+
+impl FieldKind {
+    /// 按 MySQL 以及 MongoDB 更新/删除使用的匹配顺序解析类型
+    pub fn basic(field_type: Option<&str>) -> FieldKind {
+        let type_str = match field_type {
+            Some(t) => t,
+            None => return FieldKind::Untyped,
+        };
+
+        if type_str.contains("LocalDateTime") {
+            FieldKind::DateTime
+        } else if type_str.contains("LocalDate") || type_str.contains("Date") {
+            FieldKind::Date
+        } else if type_str.contains("Integer") {
+            FieldKind::Integer
+        } else if type_str.contains("Long") {
+            FieldKind::Long
+        } else if type_str.contains("Double") || type_str.contains("Float") {
+            FieldKind::Float
+        } else if type_str.contains("Boolean") {
+            FieldKind::Boolean
+        } else if type_str.contains("String") {
+            FieldKind::Text
+        } else {
+            FieldKind::Other
+        }
+    }
+
+    /// 按 MongoDB 插入使用的匹配顺序解析类型（包含 BSON 扩展类型）
+    pub fn bson(field_type: Option<&str>) -> FieldKind {
+        let type_str = match field_type {
+            Some(t) => t,
+            None => return FieldKind::Untyped,
+        };
+
+        if type_str.contains("LocalDateTime") {
+            FieldKind::DateTime
+        } else if type_str.contains("LocalDate") || type_str.contains("Date") {
+            FieldKind::Date
+        } else if type_str.contains("Timestamp") {
+            FieldKind::Timestamp
+        } else if type_str.contains("ObjectId") {
+            FieldKind::ObjectId
+        } else if type_str.contains("Integer") {
+            FieldKind::Integer
+        } else if type_str.contains("Long") {
+            FieldKind::Long
+        } else if type_str.contains("Double") || type_str.contains("Float") {
+            FieldKind::Float
+        } else if type_str.contains("Decimal") {
+            FieldKind::Decimal
+        } else if type_str.contains("Boolean") {
+            FieldKind::Boolean
+        } else if type_str.contains("Binary") {
+            FieldKind::Binary
+        } else if type_str.contains("RegExp") {
+            FieldKind::RegExp
+        } else if type_str.contains("MinKey") {
+            FieldKind::MinKey
+        } else if type_str.contains("MaxKey") {
+            FieldKind::MaxKey
+        } else if type_str.contains("Code") {
+            FieldKind::Code
+        } else if type_str.contains("Object") {
+            FieldKind::Object
+        } else if type_str.contains("Array") {
+            FieldKind::Array
+        } else if type_str.contains("String") {
+            FieldKind::Text
+        } else {
+            FieldKind::Other
+        }
+    }
+}
+
+/// 解析布尔值，无法识别时返回 None
+pub fn parse_bool(value: &str) -> Option<bool> {
+    if value.eq_ignore_ascii_case("true") || value == "1" {
+        Some(true)
+    } else if value.eq_ignore_ascii_case("false") || value == "0" {
+        Some(false)
+    } else {
+        None
+    }
+}
+
+/// 将单元格的值格式化后写入脚本
+pub type ValueFormatter = fn(&mut String, &str);
+
+/// 编译后的单个映射列
+pub struct ColumnPlan {
+    pub db_field: String,
+    pub csv_index: usize,
+    pub kind: FieldKind,
+    pub format: ValueFormatter,
+    /// 写在值前面的字段部分，例如 MySQL 的 `field = ` 或 MongoDB 的 `"field": `
+    pub label: String,
+}
+
+impl ColumnPlan {
+    /// 取出该列在当前行中的值，索引越界时返回 None
+    pub fn value<'a>(&self, row: Row<'a>) -> Option<&'a str> {
+        row.get(self.csv_index)
+    }
+
+    pub fn write(&self, out: &mut String, value: &str) {
+        (self.format)(out, value)
+    }
+}
+
+/// 一次脚本生成请求的编译结果
+pub struct GenerationPlan {
+    pub dialect: Dialect,
+    pub operation: Operation,
+    pub table: String,
+    /// 每条语句固定的开头部分，编译时生成一次
+    pub prefix: String,
+    /// 条件字段（UPDATE / DELETE 使用）
+    pub condition: Option<ColumnPlan>,
+    /// UPDATE 时为更新字段（按 update_fields 顺序），INSERT 时为全部映射字段（按 csvIndex 顺序）
+    pub columns: Vec<ColumnPlan>,
+    /// 批量语句固定的开头和结尾部分，不支持批量时为空
+    pub batch_prefix: String,
+    pub batch_suffix: String,
+    pub options: GenerationOptions,
+}
+
+impl GenerationPlan {
+    pub fn compile(
+        dialect: Dialect,
+        operation: Operation,
+        field_mappings: &HashMap<String, FieldMappingInfo>,
+        condition_field: &str,
+        update_fields: &[String],
+        table_name: &str,
+        options: &GenerationOptions,
+    ) -> Result<GenerationPlan, String> {
+        // 按 CSV 列顺序排列，避免依赖 HashMap 的遍历顺序
+        let mut mappings: Vec<&FieldMappingInfo> = field_mappings.values().collect();
+        mappings.sort_by(|a, b| {
+            a.csv_index
+                .cmp(&b.csv_index)
+                .then_with(|| a.db_field.cmp(&b.db_field))
+        });
+
+        let find = |db_field: &str| mappings.iter().find(|info| info.db_field == db_field);
+        // $merge 模式下更新的值先插入暂存集合，按插入的 BSON 类型处理
+        // mongoimport 的 Extended JSON 行按插入的 BSON 类型写成规范格式
+        let extended_json = dialect == Dialect::MongoDb
+            && operation == Operation::Insert
+            && options.extended_json;
+        let bson = operation == Operation::Insert
+            || (dialect == Dialect::MongoDb
+                && operation == Operation::Update
+                && options.mongo_update_mode == MongoUpdateMode::Merge);
+
+        let condition = match operation {
+            Operation::Insert => None,
+            Operation::Update | Operation::Delete => {
+                let info = find(condition_field)
+                    .ok_or_else(|| format!("条件字段 {} 没有对应的字段映射", condition_field))?;
+                Some(compile_column(dialect, info, true, bson, extended_json))
+            }
+        };
+
+        let columns = match operation {
+            Operation::Update => {
+                let mut columns: Vec<ColumnPlan> = Vec::with_capacity(update_fields.len());
+                for field in update_fields {
+                    if columns.iter().any(|column| &column.db_field == field) {
+                        continue;
+                    }
+                    if let Some(info) = find(field.as_str()) {
+                        columns.push(compile_column(dialect, info, false, bson, extended_json));
+                    }
+                }
+                columns
+            }
+            Operation::Insert => mappings
+                .iter()
+                .map(|info| compile_column(dialect, info, false, bson, extended_json))
+                .collect(),
+            Operation::Delete => Vec::new(),
+        };
+
+        let mut plan = GenerationPlan {
+            dialect,
+            operation,
+            table: table_name.to_string(),
+            prefix: String::new(),
+            condition,
+            columns,
+            batch_prefix: String::new(),
+            batch_suffix: String::new(),
+            options: options.clone(),
+        };
+        plan.prefix = match dialect {
+            Dialect::MySql => mysql::statement_prefix(&plan),
+            Dialect::MongoDb => mongodb::statement_prefix(&plan),
+            Dialect::PostgreSql => postgres::statement_prefix(&plan),
+        };
+        // 合并相同更新内容只在同一条批量语句的行之间进行，每条语句只有一行时不会合并
+        let coalesce = operation == Operation::Update
+            && match dialect {
+                Dialect::MySql => options.update_mode == UpdateMode::Coalesce,
+                Dialect::MongoDb => options.mongo_update_mode == MongoUpdateMode::Coalesce,
+                Dialect::PostgreSql => options.pg_update_mode == PgUpdateMode::Coalesce,
+            };
+        if coalesce && plan.statement_rows() <= 1 {
+            return Err("合并相同的更新内容需要把每条语句行数设置为大于 1".to_string());
+        }
+        if plan.is_batched() {
+            let (prefix, suffix) = match dialect {
+                Dialect::MySql => (mysql::batch_prefix(&plan), mysql::batch_suffix(&plan)),
+                Dialect::MongoDb => (mongodb::batch_prefix(&plan), mongodb::batch_suffix(&plan)),
+                Dialect::PostgreSql => {
+                    (postgres::batch_prefix(&plan), postgres::batch_suffix(&plan))
+                }
+            };
+            plan.batch_prefix = prefix;
+            plan.batch_suffix = suffix;
+        }
+        Ok(plan)
+    }
+
+    /// 每条语句合并的数据行数，当前方言和操作不支持批量语句时为 1
+    pub fn statement_rows(&self) -> usize {
+        if self.is_load_data() || self.is_extended_json() {
+            return 1;
+        }
+        let batch_rows = match (self.dialect, self.operation) {
+            (Dialect::MySql | Dialect::PostgreSql, Operation::Insert)
+            | (Dialect::MongoDb, _)
+            | (_, Operation::Delete) => self.options.batch_rows.max(1),
+            (Dialect::MySql, Operation::Update)
+                if self.options.update_mode != UpdateMode::Single =>
+            {
+                self.options.batch_rows.max(1)
+            }
+            (Dialect::PostgreSql, Operation::Update)
+                if self.options.pg_update_mode != PgUpdateMode::Single =>
+            {
+                self.options.batch_rows.max(1)
+            }
+            _ => 1,
+        };
+        // 单条语句不能超过事务的行数上限
+        if self.transaction_enabled() && self.options.transaction_rows > 0 {
+            batch_rows.min(self.options.transaction_rows)
+        } else {
+            batch_rows
+        }
+    }
+
+    /// 是否通过 write_batch 生成批量语句；临时表和暂存集合模式即使每条语句只有一行也要写入临时表
+    fn is_batched(&self) -> bool {
+        self.statement_rows() > 1
+            || (self.operation == Operation::Update
+                && match self.dialect {
+                    Dialect::MySql => self.options.update_mode == UpdateMode::TempTable,
+                    Dialect::MongoDb => self.options.mongo_update_mode == MongoUpdateMode::Merge,
+                    Dialect::PostgreSql => false,
+                })
+    }
+
+    fn transaction_enabled(&self) -> bool {
+        matches!(self.dialect, Dialect::MySql | Dialect::PostgreSql)
+            && self.options.transaction_statements > 0
+            && !self.is_load_data()
+    }
+
+    /// 是否生成 LOAD DATA 用的 TSV 数据：write_rows 写出数据行，语句由 write_load_data 单独生成
+    pub fn is_load_data(&self) -> bool {
+        self.dialect == Dialect::MySql
+            && self.operation == Operation::Insert
+            && self.options.load_data
+    }
+
+    /// 是否生成 mongoimport 使用的 Extended JSON 行，而不是 mongosh 脚本
+    pub fn is_extended_json(&self) -> bool {
+        self.dialect == Dialect::MongoDb
+            && self.operation == Operation::Insert
+            && self.options.extended_json
+    }
+
+    /// LOAD DATA LOCAL INFILE 语句，data_path 为 write_rows 写出的数据文件
+    pub fn write_load_data(&self, data_path: &str, out: &mut String) {
+        mysql::write_load_data(self, data_path, out)
+    }
+
+    /// 每个事务覆盖的数据行数，未启用事务分段时为 0；
+    /// 按输入行而不是实际生成的语句划分，分块生成时事务边界与顺序生成一致
+    pub fn transaction_rows(&self) -> usize {
+        if !self.transaction_enabled() {
+            return 0;
+        }
+        let statement_rows = self.statement_rows();
+        let rows = statement_rows.saturating_mul(self.options.transaction_statements);
+        match self.options.transaction_rows {
+            0 => rows,
+            cap => rows.min(cap / statement_rows * statement_rows),
+        }
+    }
+
+    /// 将行数向上取整为 statement_rows（启用事务分段时为事务行数）的整数倍，
+    /// 分块生成时批量语句和事务不会被分块边界拆开
+    pub fn align_rows(&self, rows: usize) -> usize {
+        let unit = match self.transaction_rows() {
+            0 => self.statement_rows(),
+            transaction_rows => transaction_rows,
+        };
+        rows.div_ceil(unit).max(1) * unit
+    }
+
+    /// 脚本开头，只写一次
+    pub fn write_header(&self, out: &mut String) {
+        match self.dialect {
+            Dialect::MySql => mysql::write_header(self, out),
+            Dialect::MongoDb => mongodb::write_header(self, out),
+            Dialect::PostgreSql => postgres::write_header(self, out),
+        }
+    }
+
+    /// 脚本结尾，只写一次；rows 为输入的数据行数
+    pub fn write_footer(&self, rows: usize, out: &mut String) {
+        match self.dialect {
+            Dialect::MySql => mysql::write_footer(self, rows, out),
+            Dialect::MongoDb => mongodb::write_footer(self, out),
+            Dialect::PostgreSql => postgres::write_footer(self, out),
+        }
+    }
+
+    /// 所有映射列在该行中都存在
+    pub fn is_complete(&self, row: Row<'_>) -> bool {
+        self.columns.iter().all(|column| column.csv_index < row.len())
+    }
+
+    /// 用前几行的实际输出估算整个脚本的长度，用于预先分配缓冲区
+    pub fn estimate_len(&self, rows: Rows<'_>) -> usize {
+        const SAMPLE_ROWS: usize = 32;
+        let sample = rows.slice(0, SAMPLE_ROWS);
+        if sample.is_empty() {
+            return 0;
+        }
+
+        let mut buffer = String::new();
+        self.write_rows(sample, &mut buffer);
+        let average = buffer.len() / sample.len() + 1;
+        average.saturating_mul(rows.len()) / 10 * 11
+    }
+
+    /// 当前行的条件值，缺失或为空时返回 None
+    pub fn condition_value<'a>(&self, row: Row<'a>) -> Option<&'a str> {
+        self.condition
+            .as_ref()
+            .and_then(|condition| condition.value(row))
+            .filter(|value| !value.is_empty())
+    }
+
+    /// 为单行数据生成脚本，数据不完整的行会被跳过
+    pub fn write_row(&self, row: Row<'_>, out: &mut String) {
+        match (self.dialect, self.operation) {
+            (Dialect::MySql, Operation::Update) => mysql::write_update(self, row, out),
+            (Dialect::MySql, Operation::Insert) if self.is_load_data() => {
+                mysql::write_tsv_row(self, row, out)
+            }
+            (Dialect::MySql, Operation::Insert) => mysql::write_insert(self, row, out),
+            (Dialect::MySql, Operation::Delete) => mysql::write_delete(self, row, out),
+            (Dialect::MongoDb, Operation::Update) => mongodb::write_update(self, row, out),
+            (Dialect::MongoDb, Operation::Insert) if self.is_extended_json() => {
+                mongodb::write_json_line(self, row, out)
+            }
+            (Dialect::MongoDb, Operation::Insert) => mongodb::write_insert(self, row, out),
+            (Dialect::MongoDb, Operation::Delete) => mongodb::write_delete(self, row, out),
+            // PostgreSQL 的逐行语句与 MySQL 结构相同，值的格式化由 ColumnPlan 决定
+            (Dialect::PostgreSql, Operation::Update) => mysql::write_update(self, row, out),
+            (Dialect::PostgreSql, Operation::Insert) => mysql::write_insert(self, row, out),
+            (Dialect::PostgreSql, Operation::Delete) => mysql::write_delete(self, row, out),
+        }
+    }
+
+    /// 增量对比时只更新发生变化的列，changed 与 columns 一一对应
+    pub fn write_update_changed(&self, row: Row<'_>, changed: &[bool], out: &mut String) {
+        match self.dialect {
+            Dialect::MySql | Dialect::PostgreSql => {
+                mysql::write_update_changed(self, row, changed, out)
+            }
+            Dialect::MongoDb => mongodb::write_update_changed(self, row, changed, out),
+        }
+    }
+
+    /// 增量对比时为多行数据生成只更新变化列的 UPDATE，changed 按行依次存放，每行 columns.len() 个标记；
+    /// 与 write_rows 相同，启用事务分段时每 transaction_rows 行包在一个事务中
+    pub fn write_rows_changed(&self, rows: Rows<'_>, changed: &[bool], out: &mut String) {
+        let width = self.columns.len();
+        let mut offset = 0;
+        self.write_transactions(rows, out, |group, out| {
+            for (i, row) in group.iter().enumerate() {
+                let start = (offset + i) * width;
+                self.write_update_changed(row, &changed[start..start + width], out);
+            }
+            offset += group.len();
+        });
+    }
+
+    /// 为多行数据生成脚本；启用事务分段时每 transaction_rows 行包在一个事务中，
+    /// 没有生成任何语句的事务会被省略
+    pub fn write_rows(&self, rows: Rows<'_>, out: &mut String) {
+        self.write_transactions(rows, out, |group, out| self.write_statements(group, out));
+    }
+
+    fn write_transactions<F>(&self, rows: Rows<'_>, out: &mut String, mut write: F)
+    where
+        F: FnMut(Rows<'_>, &mut String),
+    {
+        let transaction_rows = self.transaction_rows();
+        if transaction_rows == 0 {
+            write(rows, out);
+            return;
+        }
+        for group in rows.chunks(transaction_rows) {
+            let mark = out.len();
+            out.push_str("START TRANSACTION;\n");
+            let body = out.len();
+            write(group, out);
+            if out.len() == body {
+                out.truncate(mark);
+            } else {
+                out.push_str("COMMIT;\n");
+            }
+        }
+    }
+
+    /// 启用批量语句时每 statement_rows 行合并生成
+    fn write_statements(&self, rows: Rows<'_>, out: &mut String) {
+        let statement_rows = self.statement_rows();
+        if self.is_batched() {
+            for group in rows.chunks(statement_rows) {
+                self.write_batch(group, out);
+            }
+        } else {
+            for row in rows.iter() {
+                self.write_row(row, out);
+            }
+        }
+    }
+
+    /// 将一组数据行合并生成批量语句
+    fn write_batch(&self, rows: Rows<'_>, out: &mut String) {
+        match (self.dialect, self.operation) {
+            (Dialect::MySql, Operation::Insert) => mysql::write_insert_batch(self, rows, out),
+            (Dialect::MySql, Operation::Update) => mysql::write_update_batch(self, rows, out),
+            (Dialect::MySql, Operation::Delete) => mysql::write_delete_batch(self, rows, out),
+            (Dialect::MongoDb, Operation::Update) => mongodb::write_update_batch(self, rows, out),
+            (Dialect::MongoDb, Operation::Insert) => mongodb::write_insert_batch(self, rows, out),
+            (Dialect::MongoDb, Operation::Delete) => mongodb::write_delete_batch(self, rows, out),
+            (Dialect::PostgreSql, Operation::Insert) => {
+                postgres::write_insert_batch(self, rows, out)
+            }
+            (Dialect::PostgreSql, Operation::Update) => {
+                postgres::write_update_batch(self, rows, out)
+            }
+            (Dialect::PostgreSql, Operation::Delete) => {
+                postgres::write_delete_batch(self, rows, out)
+            }
+            _ => {
+                for row in rows.iter() {
+                    self.write_row(row, out);
+                }
+            }
+        }
+    }
+}
+
+/// bson 为 true 时 MongoDB 字段按插入文档的类型处理（NumberLong、NumberDecimal、ObjectId 等）
+fn compile_column(
+    dialect: Dialect,
+    info: &FieldMappingInfo,
+    is_condition: bool,
+    bson: bool,
+    extended_json: bool,
+) -> ColumnPlan {
+    let field_type = info.field_type.as_deref();
+    let label = match dialect {
+        Dialect::MySql => mysql::column_label(&info.db_field),
+        Dialect::MongoDb => mongodb::column_label(&info.db_field),
+        Dialect::PostgreSql => postgres::column_label(&info.db_field),
+    };
+    let (kind, format) = match dialect {
+        Dialect::MySql => {
+            let kind = FieldKind::basic(field_type);
+            (kind, mysql::value_formatter(kind))
+        }
+        Dialect::PostgreSql => {
+            let kind = FieldKind::basic(field_type);
+            (kind, postgres::value_formatter(kind))
+        }
+        Dialect::MongoDb if extended_json => {
+            let kind = FieldKind::bson(field_type);
+            (kind, mongodb::extended_json_formatter(kind))
+        }
+        Dialect::MongoDb if bson => {
+            let kind = FieldKind::bson(field_type);
+            (kind, mongodb::insert_value_formatter(kind))
+        }
+        Dialect::MongoDb if is_condition => {
+            let kind = FieldKind::basic(field_type);
+            (kind, mongodb::condition_formatter(kind))
+        }
+        Dialect::MongoDb => {
+            let kind = FieldKind::basic(field_type);
+            (kind, mongodb::update_value_formatter(kind))
+        }
+    };
+
+    ColumnPlan {
+        db_field: info.db_field.clone(),
+        csv_index: info.csv_index,
+        kind,
+        format,
+        label,
+    }
+}
@@ -0,0 +1,444 @@
+//! PostgreSQL 脚本生成：逐行语句的结构与 MySQL 相同（mysql::write_update 等按 ColumnPlan 写入），
+//! 本模块负责值的格式化和批量语句——INSERT 使用 COPY FROM STDIN，UPDATE 使用 UPDATE ... FROM (VALUES ...)
+
+use crate::batch::{self, BatchRow};
+use crate::plan::{
+    parse_bool, ColumnPlan, FieldKind, GenerationPlan, Operation, PgUpdateMode, ValueFormatter,
+};
+use crate::table::{Row, Rows};
+use crate::writer::{push_pg_quoted, push_tsv_escaped};
+
+/// VALUES 列表的别名
+const VALUES_ALIAS: &str = "v";
+
+/// 根据字段类别选择值的格式化方式，UPDATE / INSERT / DELETE 共用
+pub fn value_formatter(kind: FieldKind) -> ValueFormatter {
+    match kind {
+        FieldKind::DateTime => write_timestamp,
+        FieldKind::Date => write_date,
+        FieldKind::Integer | FieldKind::Long | FieldKind::Float => write_number,
+        FieldKind::Boolean => write_boolean,
+        _ => write_string,
+    }
+}
+
+/// SET 子句中字段的写法
+pub fn column_label(db_field: &str) -> String {
+    format!("{} = ", db_field)
+}
+
+/// 每条语句固定的开头
+pub fn statement_prefix(plan: &GenerationPlan) -> String {
+    match plan.operation {
+        Operation::Update => format!("UPDATE {} SET ", plan.table),
+        Operation::Insert => {
+            format!("INSERT INTO {} ({}) VALUES (", plan.table, field_list(plan))
+        }
+        Operation::Delete => match &plan.condition {
+            Some(condition) => {
+                format!("DELETE FROM {} WHERE {} = ", plan.table, condition.db_field)
+            }
+            None => format!("DELETE FROM {} WHERE ", plan.table),
+        },
+    }
+}
+
+fn field_list(plan: &GenerationPlan) -> String {
+    let fields: Vec<&str> = plan
+        .columns
+        .iter()
+        .map(|column| column.db_field.as_str())
+        .collect();
+    fields.join(", ")
+}
+
+/// 批量语句固定的开头
+pub fn batch_prefix(plan: &GenerationPlan) -> String {
+    match (plan.operation, &plan.condition) {
+        (Operation::Insert, _) => {
+            format!("COPY {} ({}) FROM STDIN;\n", plan.table, field_list(plan))
+        }
+        (Operation::Update, Some(condition)) => {
+            let mut assignments: Vec<String> = values_columns(plan)
+                .map(|column| format!("{0} = {1}.{0}", column.db_field, VALUES_ALIAS))
+                .collect();
+            // 只有条件字段时保留一个空操作赋值，语句才完整
+            if assignments.is_empty() {
+                assignments.push(format!("{0} = {1}.{0}", condition.db_field, plan.table));
+            }
+            // 第一行用标量子查询取目标表各列的类型，值都是 NULL，不会与任何行匹配；
+            // 其余行的字面量按这些类型解析，uuid、枚举、jsonb 等列也能直接赋值和比较
+            let typed_row: Vec<String> = values_fields(plan)
+                .iter()
+                .map(|field| format!("(SELECT {} FROM {} LIMIT 0)", field, plan.table))
+                .collect();
+            format!(
+                "UPDATE {} SET {}\nFROM (VALUES\n({}),\n",
+                plan.table,
+                assignments.join(", "),
+                typed_row.join(", ")
+            )
+        }
+        (Operation::Delete, Some(condition)) => {
+            format!("DELETE FROM {} WHERE {} IN (", plan.table, condition.db_field)
+        }
+        _ => String::new(),
+    }
+}
+
+/// 批量语句固定的结尾
+pub fn batch_suffix(plan: &GenerationPlan) -> String {
+    match (plan.operation, &plan.condition) {
+        // COPY 数据以单独一行的 \. 结束
+        (Operation::Insert, _) => "\n\\.\n".to_string(),
+        (Operation::Update, Some(condition)) => format!(
+            "\n) AS {1}({2})\nWHERE {0}.{3} = {1}.{3};\n",
+            plan.table,
+            VALUES_ALIAS,
+            values_fields(plan).join(", "),
+            condition.db_field
+        ),
+        (Operation::Delete, _) => ");\n".to_string(),
+        _ => ";\n".to_string(),
+    }
+}
+
+/// VALUES 列表的列名：条件字段在前，然后是要更新的列
+fn values_fields(plan: &GenerationPlan) -> Vec<&str> {
+    let mut fields: Vec<&str> = plan
+        .condition
+        .iter()
+        .map(|condition| condition.db_field.as_str())
+        .collect();
+    fields.extend(values_columns(plan).map(|column| column.db_field.as_str()));
+    fields
+}
+
+/// VALUES 列表中除条件字段外的列
+fn values_columns(plan: &GenerationPlan) -> impl Iterator<Item = &ColumnPlan> {
+    let condition_field = plan.condition.as_ref().map(|condition| condition.db_field.as_str());
+    plan.columns
+        .iter()
+        .filter(move |column| Some(column.db_field.as_str()) != condition_field)
+}
+
+/// bulk_load 时整个脚本在一个事务中执行；启用事务分段时由 write_rows 分段提交，
+/// 不再包一层事务，避免嵌套的 BEGIN 和提前结束外层事务的 COMMIT
+fn whole_transaction(plan: &GenerationPlan) -> bool {
+    plan.options.bulk_load && plan.transaction_rows() == 0
+}
+
+pub fn write_header(plan: &GenerationPlan, out: &mut String) {
+    if whole_transaction(plan) {
+        out.push_str("BEGIN;\n");
+    }
+}
+
+pub fn write_footer(plan: &GenerationPlan, out: &mut String) {
+    if whole_transaction(plan) {
+        out.push_str("COMMIT;\n");
+    }
+}
+
+fn write_timestamp(out: &mut String, value: &str) {
+    write_cast(out, value, "timestamp");
+}
+
+fn write_date(out: &mut String, value: &str) {
+    write_cast(out, value, "date");
+}
+
+/// `'value'::type`
+fn write_cast(out: &mut String, value: &str, type_name: &str) {
+    if value.is_empty() {
+        out.push_str("NULL");
+    } else {
+        push_pg_quoted(out, value);
+        out.push_str("::");
+        out.push_str(type_name);
+    }
+}
+
+fn write_number(out: &mut String, value: &str) {
+    // 数字类型，不加引号
+    if value.is_empty() {
+        out.push_str("NULL");
+    } else {
+        out.push_str(value);
+    }
+}
+
+fn write_boolean(out: &mut String, value: &str) {
+    match parse_bool(value) {
+        Some(true) => out.push_str("TRUE"),
+        Some(false) => out.push_str("FALSE"),
+        None => write_string(out, value),
+    }
+}
+
+fn write_string(out: &mut String, value: &str) {
+    if value.is_empty() {
+        out.push_str("NULL");
+    } else {
+        push_pg_quoted(out, value);
+    }
+}
+
+/// COPY FROM STDIN：每行数据一行文本，缺少字段的行单独生成 INSERT，不会被写成 NULL
+pub fn write_insert_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    if plan.columns.is_empty() {
+        return;
+    }
+    batch::write_list(plan, rows, out, "\n", classify_complete, write_copy_row);
+}
+
+/// `UPDATE t SET c = v.c FROM (VALUES (k, c), ...) AS v(key, c) WHERE t.key = v.key;`
+/// 或合并更新内容相同的行；VALUES 中条件值重复时只有其中一行生效，可配合合并重复行使用
+pub fn write_update_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    match plan.options.pg_update_mode {
+        PgUpdateMode::Coalesce => {
+            batch::write_grouped(plan, rows, out, write_assignments, coalesced_parts)
+        }
+        PgUpdateMode::Values => batch::write_unique_list(
+            plan,
+            rows,
+            out,
+            ",\n",
+            classify_update,
+            write_values_row,
+        ),
+        PgUpdateMode::Single => {
+            for row in rows.iter() {
+                plan.write_row(row, out);
+            }
+        }
+    }
+}
+
+/// 批量 DELETE：`DELETE FROM t WHERE key IN (v1, v2, ...);`
+pub fn write_delete_batch(plan: &GenerationPlan, rows: Rows<'_>, out: &mut String) {
+    batch::write_list(
+        plan,
+        rows,
+        out,
+        ", ",
+        batch::classify_condition,
+        batch::write_condition_value,
+    );
+}
+
+/// 所有字段都存在的行合并生成，缺少部分字段的行单独生成语句
+fn classify_complete(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if !plan.columns.iter().any(|column| column.value(row).is_some()) {
+        BatchRow::Skip
+    } else if plan.is_complete(row) {
+        BatchRow::Item
+    } else {
+        BatchRow::Single
+    }
+}
+
+fn classify_update(plan: &GenerationPlan, row: Row<'_>) -> BatchRow {
+    if plan.condition_value(row).is_none() {
+        BatchRow::Skip
+    } else {
+        classify_complete(plan, row)
+    }
+}
+
+/// COPY 文本格式的一行：制表符分隔，空值写成 \N，布尔值写成 t / f
+fn write_copy_row(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    for (i, column) in plan.columns.iter().enumerate() {
+        if i > 0 {
+            out.push('\t');
+        }
+        let value = column.value(row).unwrap_or_default();
+        if value.is_empty() {
+            out.push_str("\\N");
+            continue;
+        }
+        match (column.kind, parse_bool(value)) {
+            (FieldKind::Boolean, Some(true)) => out.push('t'),
+            (FieldKind::Boolean, Some(false)) => out.push('f'),
+            _ => push_tsv_escaped(out, value),
+        }
+    }
+}
+
+/// VALUES 列表中的一行 `(key, v1, v2, ...)`
+fn write_values_row(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    out.push('(');
+    if let (Some(condition), Some(key)) = (&plan.condition, plan.condition_value(row)) {
+        condition.write(out, key);
+    }
+    for column in values_columns(plan) {
+        out.push_str(", ");
+        column.write(out, column.value(row).unwrap_or_default());
+    }
+    out.push(')');
+}
+
+/// 写入 `c1 = v1, c2 = v2` 列表，跳过该行中不存在的字段
+fn write_assignments(plan: &GenerationPlan, row: Row<'_>, out: &mut String) {
+    let mut first = true;
+    for column in &plan.columns {
+        if let Some(value) = column.value(row) {
+            if !first {
+                out.push_str(", ");
+            }
+            out.push_str(&column.label);
+            column.write(out, value);
+            first = false;
+        }
+    }
+}
+
+/// 更新内容相同的行：`UPDATE t SET ... WHERE key IN (k1, k2, ...);`
+fn coalesced_parts(plan: &GenerationPlan, payload: &str) -> (String, String) {
+    let condition_field = plan
+        .condition
+        .as_ref()
+        .map(|condition| condition.db_field.as_str())
+        .unwrap_or("");
+    (
+        format!("{}{} WHERE {} IN (", plan.prefix, payload, condition_field),
+        ");\n".to_string(),
+    )
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::plan::{mappings, Dialect, GenerationOptions};
+    use crate::table::RowTable;
+
+    fn plan(operation: Operation) -> GenerationPlan {
+        let field_mappings =
+            mappings(&[("id", 0, "Long"), ("name", 1, "String"), ("enabled", 2, "Boolean")]);
+        let options = GenerationOptions {
+            batch_rows: 100,
+            pg_update_mode: PgUpdateMode::Values,
+            ..GenerationOptions::default()
+        };
+        GenerationPlan::compile(
+            Dialect::PostgreSql,
+            operation,
+            &field_mappings,
+            "id",
+            &["name".to_string(), "enabled".to_string()],
+            "t",
+            &options,
+        )
+        .unwrap()
+    }
+
+    #[test]
+    fn bulk_load_does_not_nest_transaction_segments() {
+        let table = RowTable::from_vecs(&[vec!["1".to_string(), "a".to_string()]]);
+        let field_mappings = mappings(&[("id", 0, "String"), ("name", 1, "String")]);
+        for transaction_statements in [0, 1] {
+            let options = GenerationOptions {
+                bulk_load: true,
+                transaction_statements,
+                ..GenerationOptions::default()
+            };
+            let plan = GenerationPlan::compile(
+                Dialect::PostgreSql,
+                Operation::Insert,
+                &field_mappings,
+                "id",
+                &[],
+                "t",
+                &options,
+            )
+            .unwrap();
+            let mut out = String::new();
+            plan.write_header(&mut out);
+            plan.write_rows(table.rows(), &mut out);
+            plan.write_footer(table.len(), &mut out);
+            let begins = out.matches("BEGIN;").count() + out.matches("START TRANSACTION;").count();
+            assert_eq!(begins, 1, "{}", out);
+            assert_eq!(out.matches("COMMIT;").count(), 1, "{}", out);
+        }
+    }
+
+    #[test]
+    fn writes_copy_and_values_batches() {
+        let table = RowTable::from_vecs(
+            &[vec!["1", "a\tb\\c", "true"], vec!["2", "O'Neil", ""], vec!["3", "x"]]
+                .map(|row| row.iter().map(|cell| cell.to_string()).collect::<Vec<_>>()),
+        );
+
+        let mut out = String::new();
+        plan(Operation::Insert).write_rows(table.rows(), &mut out);
+        assert_eq!(
+            out,
+            "COPY t (id, name, enabled) FROM STDIN;\n\
+             1\ta\\tb\\\\c\tt\n\
+             2\tO'Neil\t\\N\n\
+             \\.\n\
+             INSERT INTO t (id, name) VALUES (3, 'x');\n"
+        );
+
+        let mut out = String::new();
+        plan(Operation::Update).write_rows(table.rows().slice(0, 2), &mut out);
+        assert_eq!(
+            out,
+            "UPDATE t SET name = v.name, enabled = v.enabled\n\
+             FROM (VALUES\n\
+             ((SELECT id FROM t LIMIT 0), (SELECT name FROM t LIMIT 0), \
+             (SELECT enabled FROM t LIMIT 0)),\n\
+             (1, 'a\tb\\c', TRUE),\n\
+             (2, 'O''Neil', NULL)\n\
+             ) AS v(id, name, enabled)\n\
+             WHERE t.id = v.id;\n"
+        );
+    }
+
+    #[test]
+    fn values_update_does_not_repeat_keys() {
+        let table = RowTable::from_vecs(
+            &[vec!["1", "a", "true"], vec!["2", "b", "false"], vec!["1", "c", "false"]]
+                .map(|row| row.iter().map(|cell| cell.to_string()).collect::<Vec<_>>()),
+        );
+        let mut out = String::new();
+        plan(Operation::Update).write_rows(table.rows(), &mut out);
+        let statements: Vec<&str> = out.split_inclusive("WHERE t.id = v.id;\n").collect();
+        assert_eq!(statements.len(), 2, "{}", out);
+        assert!(statements[0].contains("(1, 'a', TRUE),\n(2, 'b', FALSE)\n"), "{}", out);
+        assert!(statements[1].contains("(1, 'c', FALSE)\n"), "{}", out);
+    }
+
+    #[test]
+    fn coalesces_identical_updates() {
+        let field_mappings =
+            mappings(&[("id", 0, "Long"), ("name", 1, "String"), ("enabled", 2, "Boolean")]);
+        let options = GenerationOptions {
+            batch_rows: 100,
+            pg_update_mode: PgUpdateMode::Coalesce,
+            ..GenerationOptions::default()
+        };
+        let plan = GenerationPlan::compile(
+            Dialect::PostgreSql,
+            Operation::Update,
+            &field_mappings,
+            "id",
+            &["name".to_string(), "enabled".to_string()],
+            "t",
+            &options,
+        )
+        .unwrap();
+        let table = RowTable::from_vecs(
+            &[vec!["1", "a", "true"], vec!["2", "a", "true"], vec!["3", "b"]]
+                .map(|row| row.iter().map(|cell| cell.to_string()).collect::<Vec<_>>()),
+        );
+
+        let mut out = String::new();
+        plan.write_rows(table.rows(), &mut out);
+        assert_eq!(
+            out,
+            "UPDATE t SET name = 'a', enabled = TRUE WHERE id IN (1, 2);\n\
+             UPDATE t SET name = 'b' WHERE id IN (3);\n"
+        );
+    }
+}
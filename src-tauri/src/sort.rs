@@ -0,0 +1,406 @@
+//! 按条件字段排序：数字类型按数值比较，其他类型按字符串比较；
+//! 数据超过内存上限时分段排序写入临时文件，最后多路归并
+
+use std::cmp::{Ordering, Reverse};
+use std::collections::BinaryHeap;
+use std::fs::{self, File};
+use std::io::{self, BufReader, BufWriter, Read, Write};
+use std::path::PathBuf;
+use std::sync::atomic::{self, AtomicUsize};
+
+use crate::plan::{FieldKind, GenerationPlan};
+use crate::table::{Row, RowTable, Rows};
+
+/// 临时文件的读写缓冲区大小
+const RUN_BUFFER_BYTES: usize = 1 << 20;
+
+/// 归并时每个临时文件的最小读取缓冲区
+const MIN_READ_BUFFER_BYTES: usize = 64 << 10;
+
+/// 区分同一进程中的临时文件
+static RUN_COUNTER: AtomicUsize = AtomicUsize::new(0);
+
+/// 排序键：能解析为数字的值排在文本前面
+#[derive(Debug)]
+enum SortKey<T> {
+    Int(i128),
+    Float(f64),
+    Text(T),
+}
+
+impl<T: Ord> Ord for SortKey<T> {
+    fn cmp(&self, other: &Self) -> Ordering {
+        match (self, other) {
+            (SortKey::Int(a), SortKey::Int(b)) => a.cmp(b),
+            (SortKey::Int(a), SortKey::Float(b)) => cmp_int_float(*a, *b),
+            (SortKey::Float(a), SortKey::Int(b)) => cmp_int_float(*b, *a).reverse(),
+            // 0.0 与 -0.0 相等，与整数 0 的比较结果一致
+            (SortKey::Float(a), SortKey::Float(b)) if a == b => Ordering::Equal,
+            (SortKey::Float(a), SortKey::Float(b)) => a.total_cmp(b),
+            (SortKey::Text(a), SortKey::Text(b)) => a.cmp(b),
+            (SortKey::Text(_), _) => Ordering::Greater,
+            (_, SortKey::Text(_)) => Ordering::Less,
+        }
+    }
+}
+
+/// 精确比较整数和浮点数：整数部分按 i128 比较，相等时再看小数部分；
+/// 不先把整数转成 f64，避免超过 2^53 的整数丢失精度导致排序不满足传递性
+fn cmp_int_float(a: i128, b: f64) -> Ordering {
+    if b.is_nan() {
+        // 与 f64::total_cmp 一致：正 NaN 排在最后，负 NaN 排在最前
+        return if b.is_sign_negative() {
+            Ordering::Greater
+        } else {
+            Ordering::Less
+        };
+    }
+    // 2^127，整数部分不小于它时超出 i128 的范围
+    let bound = i128::MAX as f64;
+    let whole = b.trunc();
+    if whole >= bound {
+        return Ordering::Less;
+    }
+    if whole < -bound {
+        return Ordering::Greater;
+    }
+    match a.cmp(&(whole as i128)) {
+        Ordering::Equal => 0f64.partial_cmp(&(b - whole)).unwrap_or(Ordering::Equal),
+        ordering => ordering,
+    }
+}
+
+impl<T: Ord> PartialOrd for SortKey<T> {
+    fn partial_cmp(&self, other: &Self) -> Option<Ordering> {
+        Some(self.cmp(other))
+    }
+}
+
+impl<T: Ord> PartialEq for SortKey<T> {
+    fn eq(&self, other: &Self) -> bool {
+        self.cmp(other) == Ordering::Equal
+    }
+}
+
+impl<T: Ord> Eq for SortKey<T> {}
+
+/// 按条件字段排序的方式
+#[derive(Clone, Copy, Debug)]
+pub struct SortSpec {
+    column: usize,
+    numeric: bool,
+}
+
+impl SortSpec {
+    /// 启用了按条件字段排序并且有条件字段（UPDATE / DELETE）时返回排序方式
+    pub fn from_plan(plan: &GenerationPlan) -> Option<SortSpec> {
+        if !plan.options.sort_by_key {
+            return None;
+        }
+        plan.condition.as_ref().map(|condition| SortSpec {
+            column: condition.csv_index,
+            numeric: matches!(
+                condition.kind,
+                FieldKind::Integer | FieldKind::Long | FieldKind::Float | FieldKind::Decimal
+            ),
+        })
+    }
+
+    fn key<'a>(&self, row: Row<'a>) -> SortKey<&'a str> {
+        let value = row.get(self.column).unwrap_or("");
+        if self.numeric {
+            let trimmed = value.trim();
+            if let Ok(number) = trimmed.parse::<i128>() {
+                return SortKey::Int(number);
+            }
+            if let Ok(number) = trimmed.parse::<f64>() {
+                if number.is_finite() {
+                    return SortKey::Float(number);
+                }
+            }
+        }
+        SortKey::Text(value)
+    }
+
+    /// 在内存中稳定排序，条件值相同的行保持原来的先后顺序
+    pub fn sort(&self, rows: Rows<'_>) -> RowTable {
+        let mut order: Vec<(SortKey<&str>, usize)> = rows
+            .iter()
+            .enumerate()
+            .map(|(index, row)| (self.key(row), index))
+            .collect();
+        order.sort_by(|a, b| a.0.cmp(&b.0));
+
+        let mut table = RowTable::with_capacity(rows.len(), 0);
+        for (_, index) in order {
+            table.extend_from(rows.slice(index, index + 1));
+        }
+        table
+    }
+}
+
+/// 外部排序：数据先累积在内存中，超过 memory_bytes 时排好序写入临时文件
+pub struct ExternalSorter {
+    spec: SortSpec,
+    memory_bytes: usize,
+    buffer: RowTable,
+    runs: Vec<PathBuf>,
+}
+
+impl ExternalSorter {
+    pub fn new(spec: SortSpec, memory_bytes: usize) -> ExternalSorter {
+        ExternalSorter {
+            spec,
+            memory_bytes,
+            buffer: RowTable::new(),
+            runs: Vec::new(),
+        }
+    }
+
+    pub fn push(&mut self, batch: RowTable) -> Result<(), String> {
+        if self.buffer.is_empty() {
+            self.buffer = batch;
+        } else {
+            self.buffer.extend_from(batch.rows());
+        }
+        if self.buffer.heap_bytes() >= self.memory_bytes {
+            self.spill()?;
+        }
+        Ok(())
+    }
+
+    /// 把内存中的数据排序后写入一个新的临时文件
+    fn spill(&mut self) -> Result<(), String> {
+        let sorted = self.spec.sort(self.buffer.rows());
+        self.buffer = RowTable::new();
+
+        let path = std::env::temp_dir().join(format!(
+            "sql-helper-sort-{}-{}.tmp",
+            std::process::id(),
+            RUN_COUNTER.fetch_add(1, atomic::Ordering::Relaxed)
+        ));
+        // 先登记路径，写入失败时也会被清理
+        self.runs.push(path.clone());
+        let file = File::create(&path).map_err(|e| format!("无法创建排序临时文件: {}", e))?;
+        let mut out = BufWriter::with_capacity(RUN_BUFFER_BYTES, file);
+        for row in sorted.rows().iter() {
+            write_run_row(&mut out, row).map_err(run_error)?;
+        }
+        out.flush().map_err(run_error)
+    }
+
+    /// 按排序后的顺序每 batch_rows 行交给 sink 一批，sink 返回 false 时停止
+    pub fn finish<F>(mut self, batch_rows: usize, mut sink: F) -> Result<(), String>
+    where
+        F: FnMut(RowTable) -> bool,
+    {
+        let batch_rows = batch_rows.max(1);
+        // 没有写过临时文件时直接在内存中排序
+        if self.runs.is_empty() {
+            let sorted = self.spec.sort(self.buffer.rows());
+            self.buffer = RowTable::new();
+            for chunk in sorted.rows().chunks(batch_rows) {
+                let mut batch = RowTable::with_capacity(chunk.len(), 0);
+                batch.extend_from(chunk);
+                if !sink(batch) {
+                    break;
+                }
+            }
+            return Ok(());
+        }
+
+        if !self.buffer.is_empty() {
+            self.spill()?;
+        }
+        let read_buffer = (RUN_BUFFER_BYTES / self.runs.len()).max(MIN_READ_BUFFER_BYTES);
+        let mut readers = Vec::with_capacity(self.runs.len());
+        for path in &self.runs {
+            let file = File::open(path).map_err(|e| format!("无法打开排序临时文件: {}", e))?;
+            readers.push(RunReader {
+                input: BufReader::with_capacity(read_buffer, file),
+                current: RowTable::new(),
+                cell: Vec::new(),
+            });
+        }
+
+        // 条件值相同时按临时文件的顺序输出，排序结果是稳定的
+        let mut heap = BinaryHeap::with_capacity(readers.len());
+        for (index, reader) in readers.iter_mut().enumerate() {
+            if reader.advance()? {
+                heap.push(Reverse((reader.key(self.spec), index)));
+            }
+        }
+        let mut batch = RowTable::with_capacity(batch_rows, 0);
+        while let Some(Reverse((_, index))) = heap.pop() {
+            let reader = &mut readers[index];
+            batch.extend_from(reader.current.rows());
+            if batch.len() >= batch_rows
+                && !sink(std::mem::replace(&mut batch, RowTable::with_capacity(batch_rows, 0)))
+            {
+                return Ok(());
+            }
+            if reader.advance()? {
+                heap.push(Reverse((reader.key(self.spec), index)));
+            }
+        }
+        if !batch.is_empty() {
+            sink(batch);
+        }
+        Ok(())
+    }
+}
+
+impl Drop for ExternalSorter {
+    fn drop(&mut self) {
+        for path in &self.runs {
+            let _ = fs::remove_file(path);
+        }
+    }
+}
+
+fn run_error(e: io::Error) -> String {
+    format!("读写排序临时文件失败: {}", e)
+}
+
+/// 临时文件中的一行：单元格个数，然后依次是每个单元格的字节数和内容
+fn write_run_row<W: Write>(out: &mut W, row: Row<'_>) -> io::Result<()> {
+    out.write_all(&(row.len() as u32).to_le_bytes())?;
+    for cell in row.iter() {
+        out.write_all(&(cell.len() as u32).to_le_bytes())?;
+        out.write_all(cell.as_bytes())?;
+    }
+    Ok(())
+}
+
+/// 顺序读取一个临时文件，current 中只保存当前行
+struct RunReader {
+    input: BufReader<File>,
+    current: RowTable,
+    cell: Vec<u8>,
+}
+
+impl RunReader {
+    /// 读取下一行，文件结束时返回 false
+    fn advance(&mut self) -> Result<bool, String> {
+        self.current.clear();
+        let cells = match read_u32(&mut self.input) {
+            Ok(cells) => cells,
+            Err(e) if e.kind() == io::ErrorKind::UnexpectedEof => return Ok(false),
+            Err(e) => return Err(run_error(e)),
+        };
+        for _ in 0..cells {
+            let len = read_u32(&mut self.input).map_err(run_error)? as usize;
+            self.cell.resize(len, 0);
+            self.input.read_exact(&mut self.cell).map_err(run_error)?;
+            let text = std::str::from_utf8(&self.cell)
+                .map_err(|e| format!("排序临时文件内容损坏: {}", e))?;
+            self.current.push_cell(text);
+        }
+        self.current.end_row();
+        Ok(true)
+    }
+
+    fn key(&self, spec: SortSpec) -> SortKey<String> {
+        match spec.key(self.current.row(0)) {
+            SortKey::Int(value) => SortKey::Int(value),
+            SortKey::Float(value) => SortKey::Float(value),
+            SortKey::Text(value) => SortKey::Text(value.to_string()),
+        }
+    }
+}
+
+fn read_u32<R: Read>(input: &mut R) -> io::Result<u32> {
+    let mut bytes = [0u8; 4];
+    input.read_exact(&mut bytes)?;
+    Ok(u32::from_le_bytes(bytes))
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn external_sort_matches_in_memory_sort() {
+        let rows: Vec<Vec<String>> = (0..500)
+            .map(|i| {
+                let key = match i % 4 {
+                    0 => format!("{}", (i * 7919) % 1000),
+                    1 => format!("{}.5", (i * 31) % 100),
+                    2 => format!("-{}", i % 13),
+                    _ => format!("k{}", i % 17),
+                };
+                vec![format!("{}", i), key]
+            })
+            .collect();
+        let table = RowTable::from_vecs(&rows);
+        let spec = SortSpec {
+            column: 1,
+            numeric: true,
+        };
+        let expected = spec.sort(table.rows());
+
+        // 数字按数值排序，文本排在最后，相同的键保持输入顺序
+        let keys: Vec<&str> = expected.rows().iter().filter_map(|row| row.get(1)).collect();
+        assert_eq!(keys.first(), Some(&"-12"));
+        assert!(keys.last().unwrap().starts_with('k'));
+        let nines: Vec<&str> = expected
+            .rows()
+            .iter()
+            .filter(|row| row.get(1) == Some("-9"))
+            .filter_map(|row| row.get(0))
+            .collect();
+        let mut ordered = nines.clone();
+        ordered.sort_by_key(|id| id.parse::<usize>().unwrap());
+        assert_eq!(nines, ordered);
+
+        // 内存上限很小，每批都会写入临时文件
+        let mut sorter = ExternalSorter::new(spec, 1);
+        for chunk in table.rows().chunks(37) {
+            let mut batch = RowTable::new();
+            batch.extend_from(chunk);
+            sorter.push(batch).unwrap();
+        }
+        let runs = sorter.runs.clone();
+        assert!(runs.len() > 1);
+        let mut merged = RowTable::new();
+        sorter
+            .finish(64, |batch| {
+                merged.extend_from(batch.rows());
+                true
+            })
+            .unwrap();
+        assert_eq!(merged.rows().to_vecs(), expected.rows().to_vecs());
+        assert!(runs.iter().all(|path| !path.exists()));
+    }
+
+    #[test]
+    fn mixed_numbers_compare_exactly() {
+        type Key = SortKey<&'static str>;
+        // 2^53 + 1 转成 f64 后等于 2^53，按 f64 比较会与 2^53 相等
+        let big = 9_007_199_254_740_993i128;
+        assert_eq!(Key::Int(big).cmp(&Key::Float(9_007_199_254_740_992.0)), Ordering::Greater);
+        assert_eq!(Key::Float(9_007_199_254_740_992.0).cmp(&Key::Int(big)), Ordering::Less);
+        assert_eq!(Key::Int(3).cmp(&Key::Float(3.5)), Ordering::Less);
+        assert_eq!(Key::Int(-3).cmp(&Key::Float(-3.5)), Ordering::Greater);
+        assert_eq!(Key::Int(0).cmp(&Key::Float(-0.0)), Ordering::Equal);
+        assert_eq!(Key::Float(0.0).cmp(&Key::Float(-0.0)), Ordering::Equal);
+        assert_eq!(Key::Int(i128::MAX).cmp(&Key::Float(f64::MAX)), Ordering::Less);
+        assert_eq!(Key::Int(i128::MIN).cmp(&Key::Float(f64::MIN)), Ordering::Greater);
+        assert_eq!(Key::Int(i128::MIN).cmp(&Key::Float(-(2f64.powi(127)))), Ordering::Equal);
+
+        // 排序结果满足传递性
+        let mut keys = vec![
+            Key::Float(9_007_199_254_740_992.0),
+            Key::Int(big),
+            Key::Int(9_007_199_254_740_992),
+            Key::Float(9_007_199_254_740_994.0),
+            Key::Int(big - 2),
+        ];
+        keys.sort();
+        for pair in keys.windows(2) {
+            assert_ne!(pair[0].cmp(&pair[1]), Ordering::Greater);
+        }
+        assert!(matches!(keys[0], Key::Int(n) if n == big - 2));
+        assert!(matches!(keys[4], Key::Float(_)));
+    }
+}
@@ -0,0 +1,380 @@
+//! 行数据的紧凑存储：所有单元格文本连续存放在一个缓冲区中，另用偏移表定位每个单元格，
+//! 生成脚本时直接借用单元格切片，不再为每个单元格单独分配字符串
+
+use std::fmt::{self, Write};
+
+/// 每一行在文本缓冲区和偏移表中的起点
+#[derive(Clone, Copy, Debug)]
+struct RowStart {
+    text: usize,
+    cell: usize,
+}
+
+/// 按行存放的表格数据
+#[derive(Debug)]
+pub struct RowTable {
+    text: String,
+    /// 每个单元格相对于所在行起点的结束位置
+    cell_ends: Vec<u32>,
+    /// 比行数多一个元素，最后一个是下一行（正在写入的行）的起点
+    starts: Vec<RowStart>,
+}
+
+impl Default for RowTable {
+    fn default() -> Self {
+        RowTable::with_capacity(0, 0)
+    }
+}
+
+impl RowTable {
+    pub fn new() -> RowTable {
+        RowTable::default()
+    }
+
+    pub fn with_capacity(rows: usize, text_bytes: usize) -> RowTable {
+        let mut starts = Vec::with_capacity(rows + 1);
+        starts.push(RowStart { text: 0, cell: 0 });
+        RowTable {
+            text: String::with_capacity(text_bytes),
+            cell_ends: Vec::new(),
+            starts,
+        }
+    }
+
+    /// 从逐行逐单元格的字符串数组转换
+    pub fn from_vecs(rows: &[Vec<String>]) -> RowTable {
+        let text_bytes = rows
+            .iter()
+            .map(|row| row.iter().map(|cell| cell.len()).sum::<usize>())
+            .sum();
+        let mut table = RowTable::with_capacity(rows.len(), text_bytes);
+        for row in rows {
+            table.push_row(row.iter().map(|cell| cell.as_str()));
+        }
+        table
+    }
+
+    fn row_start(&self) -> RowStart {
+        self.starts[self.starts.len() - 1]
+    }
+
+    /// 向当前行追加一个单元格
+    pub fn push_cell(&mut self, value: &str) {
+        self.text.push_str(value);
+        self.close_cell();
+    }
+
+    /// 向当前行追加一个单元格，直接把 value 格式化到缓冲区中
+    pub fn push_display<T: fmt::Display>(&mut self, value: T) {
+        let _ = write!(self.text, "{}", value);
+        self.close_cell();
+    }
+
+    fn close_cell(&mut self) {
+        let end = self.text.len() - self.row_start().text;
+        self.cell_ends.push(end as u32);
+    }
+
+    /// 结束当前行
+    pub fn end_row(&mut self) {
+        self.starts.push(RowStart {
+            text: self.text.len(),
+            cell: self.cell_ends.len(),
+        });
+    }
+
+    pub fn push_row<'v, I>(&mut self, cells: I)
+    where
+        I: IntoIterator<Item = &'v str>,
+    {
+        for cell in cells {
+            self.push_cell(cell);
+        }
+        self.end_row();
+    }
+
+    /// 追加另一个表中的若干行
+    pub fn extend_from(&mut self, rows: Rows<'_>) {
+        if rows.is_empty() {
+            return;
+        }
+        let first = rows.table.starts[rows.start];
+        let last = rows.table.starts[rows.end];
+        let text_base = self.text.len();
+        let cell_base = self.cell_ends.len();
+
+        self.text.push_str(&rows.table.text[first.text..last.text]);
+        self.cell_ends
+            .extend_from_slice(&rows.table.cell_ends[first.cell..last.cell]);
+        self.starts.pop();
+        self.starts.extend(
+            rows.table.starts[rows.start..=rows.end]
+                .iter()
+                .map(|start| RowStart {
+                    text: start.text - first.text + text_base,
+                    cell: start.cell - first.cell + cell_base,
+                }),
+        );
+    }
+
+    /// 清空所有行，保留已分配的内存
+    pub fn clear(&mut self) {
+        self.text.clear();
+        self.cell_ends.clear();
+        self.starts.truncate(1);
+    }
+
+    pub fn len(&self) -> usize {
+        self.starts.len() - 1
+    }
+
+    pub fn is_empty(&self) -> bool {
+        self.len() == 0
+    }
+
+    pub fn row(&self, index: usize) -> Row<'_> {
+        let start = self.starts[index];
+        let end = self.starts[index + 1];
+        Row {
+            text: &self.text[start.text..end.text],
+            ends: &self.cell_ends[start.cell..end.cell],
+        }
+    }
+
+    /// 整张表的只读视图
+    pub fn rows(&self) -> Rows<'_> {
+        Rows {
+            table: self,
+            start: 0,
+            end: self.len(),
+        }
+    }
+
+    pub fn shrink_to_fit(&mut self) {
+        self.text.shrink_to_fit();
+        self.cell_ends.shrink_to_fit();
+        self.starts.shrink_to_fit();
+    }
+
+    /// 占用的堆内存字节数
+    pub fn heap_bytes(&self) -> usize {
+        self.text.capacity()
+            + self.cell_ends.capacity() * std::mem::size_of::<u32>()
+            + self.starts.capacity() * std::mem::size_of::<RowStart>()
+    }
+}
+
+/// 借用的一行数据
+#[derive(Clone, Copy, PartialEq, Eq, Debug)]
+pub struct Row<'a> {
+    text: &'a str,
+    ends: &'a [u32],
+}
+
+impl<'a> Row<'a> {
+    /// 单元格个数
+    pub fn len(&self) -> usize {
+        self.ends.len()
+    }
+
+    /// 取出单元格，索引越界时返回 None
+    pub fn get(&self, index: usize) -> Option<&'a str> {
+        let end = *self.ends.get(index)? as usize;
+        let start = if index == 0 {
+            0
+        } else {
+            self.ends[index - 1] as usize
+        };
+        Some(&self.text[start..end])
+    }
+
+    pub fn iter(&self) -> impl Iterator<Item = &'a str> + 'a {
+        let row = *self;
+        (0..row.len()).filter_map(move |index| row.get(index))
+    }
+
+    pub fn to_vec(&self) -> Vec<String> {
+        self.iter().map(|cell| cell.to_string()).collect()
+    }
+}
+
+/// 表中连续若干行的只读视图
+#[derive(Clone, Copy)]
+pub struct Rows<'a> {
+    table: &'a RowTable,
+    start: usize,
+    end: usize,
+}
+
+impl<'a> Rows<'a> {
+    pub fn len(&self) -> usize {
+        self.end - self.start
+    }
+
+    pub fn is_empty(&self) -> bool {
+        self.start == self.end
+    }
+
+    pub fn get(&self, index: usize) -> Row<'a> {
+        self.table.row(self.start + index)
+    }
+
+    /// 视图中 [start, end) 范围内的行，超出范围的部分会被截掉
+    pub fn slice(&self, start: usize, end: usize) -> Rows<'a> {
+        let end = end.min(self.len());
+        Rows {
+            table: self.table,
+            start: self.start + start.min(end),
+            end: self.start + end,
+        }
+    }
+
+    pub fn iter(&self) -> impl Iterator<Item = Row<'a>> + 'a {
+        let table = self.table;
+        (self.start..self.end).map(move |index| table.row(index))
+    }
+
+    /// 按 chunk_len 行切分
+    pub fn chunks(&self, chunk_len: usize) -> impl Iterator<Item = Rows<'a>> + 'a {
+        let rows = *self;
+        let chunk_len = chunk_len.max(1);
+        (0..rows.len())
+            .step_by(chunk_len)
+            .map(move |start| rows.slice(start, start + chunk_len))
+    }
+
+    pub fn to_vecs(&self) -> Vec<Vec<String>> {
+        self.iter().map(|row| row.to_vec()).collect()
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use std::fmt::Write;
+
+    pub(super) fn write_cell(out: &mut String, row: usize, column: usize) {
+        let _ = match column % 3 {
+            0 => write!(out, "{}", row),
+            1 => write!(out, "name-{}-{}", row, column),
+            _ => Ok(()),
+        };
+    }
+
+    pub(super) fn cell(row: usize, column: usize) -> String {
+        let mut value = String::new();
+        write_cell(&mut value, row, column);
+        value
+    }
+
+    #[test]
+    fn cells_round_trip() {
+        let rows: Vec<Vec<String>> = (0..100)
+            .map(|row| (0..(row % 7)).map(|column| cell(row, column)).collect())
+            .collect();
+        let table = RowTable::from_vecs(&rows);
+        assert_eq!(table.len(), rows.len());
+        assert_eq!(table.rows().to_vecs(), rows);
+        assert_eq!(table.row(5).get(4), Some(rows[5][4].as_str()));
+        assert_eq!(table.row(5).get(5), None);
+
+        let mut copy = RowTable::new();
+        copy.extend_from(table.rows().slice(0, 40));
+        copy.extend_from(table.rows().slice(40, 1000));
+        assert_eq!(copy.rows().to_vecs(), rows);
+
+        let joined: Vec<Vec<String>> = table
+            .rows()
+            .chunks(13)
+            .flat_map(|chunk| chunk.to_vecs())
+            .collect();
+        assert_eq!(joined, rows);
+    }
+}
+
+/// 内存对比，需要替换全局分配器，只在开启 memory-benchmark 特性时编译：
+/// cargo test --release --features memory-benchmark memory_benchmark -- --ignored --nocapture
+#[cfg(all(test, feature = "memory-benchmark"))]
+mod memory_benchmark {
+    use super::tests::{cell, write_cell};
+    use super::*;
+    use std::alloc::{GlobalAlloc, Layout, System};
+    use std::sync::atomic::{AtomicUsize, Ordering};
+    use std::time::Instant;
+
+    /// 统计堆内存占用的分配器
+    struct CountingAllocator;
+
+    static ALLOCATED: AtomicUsize = AtomicUsize::new(0);
+    static ALLOCATIONS: AtomicUsize = AtomicUsize::new(0);
+
+    unsafe impl GlobalAlloc for CountingAllocator {
+        unsafe fn alloc(&self, layout: Layout) -> *mut u8 {
+            ALLOCATED.fetch_add(layout.size(), Ordering::Relaxed);
+            ALLOCATIONS.fetch_add(1, Ordering::Relaxed);
+            System.alloc(layout)
+        }
+
+        unsafe fn dealloc(&self, ptr: *mut u8, layout: Layout) {
+            ALLOCATED.fetch_sub(layout.size(), Ordering::Relaxed);
+            System.dealloc(ptr, layout)
+        }
+    }
+
+    #[global_allocator]
+    static GLOBAL: CountingAllocator = CountingAllocator;
+
+    fn counters() -> (usize, usize) {
+        (ALLOCATED.load(Ordering::Relaxed), ALLOCATIONS.load(Ordering::Relaxed))
+    }
+
+    #[test]
+    #[ignore]
+    fn memory_benchmark() {
+        const ROWS: usize = 200_000;
+        const COLUMNS: usize = 30;
+
+        let before = counters();
+        let started = Instant::now();
+        let mut vecs: Vec<Vec<String>> = Vec::new();
+        for row in 0..ROWS {
+            vecs.push((0..COLUMNS).map(|column| cell(row, column)).collect());
+        }
+        let vec_bytes = ALLOCATED.load(Ordering::Relaxed).saturating_sub(before.0);
+        let vec_allocations = ALLOCATIONS.load(Ordering::Relaxed) - before.1;
+        let vec_elapsed = started.elapsed();
+        drop(vecs);
+
+        let before = counters();
+        let started = Instant::now();
+        let mut table = RowTable::new();
+        let mut buffer = String::new();
+        for row in 0..ROWS {
+            for column in 0..COLUMNS {
+                buffer.clear();
+                write_cell(&mut buffer, row, column);
+                table.push_cell(&buffer);
+            }
+            table.end_row();
+        }
+        let table_bytes = ALLOCATED.load(Ordering::Relaxed).saturating_sub(before.0);
+        let table_allocations = ALLOCATIONS.load(Ordering::Relaxed) - before.1;
+        let table_elapsed = started.elapsed();
+        assert_eq!(table.len(), ROWS);
+
+        println!(
+            "Vec<Vec<String>>: {} MB, {} 次分配, {:?}",
+            vec_bytes >> 20,
+            vec_allocations,
+            vec_elapsed
+        );
+        println!(
+            "RowTable:         {} MB（其中容量 {} MB）, {} 次分配, {:?}",
+            table_bytes >> 20,
+            table.heap_bytes() >> 20,
+            table_allocations,
+            table_elapsed
+        );
+        assert!(table_bytes < vec_bytes);
+    }
+}
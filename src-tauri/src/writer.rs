@@ -0,0 +1,235 @@
+//! 脚本写入工具：所有片段直接追加到同一个输出缓冲区，避免逐个值分配临时字符串
+
+/// 写入 SQL 单引号字符串的内容，转义单引号和反斜杠
+pub fn push_sql_escaped(out: &mut String, value: &str) {
+    push_escaped(out, value, |b| match b {
+        b'\'' => Some("''"),
+        b'\\' => Some("\\\\"),
+        _ => None,
+    });
+}
+
+/// 写入 JavaScript 字符串的内容，转义引号、反斜杠和换行
+pub fn push_js_escaped(out: &mut String, value: &str) {
+    push_escaped(out, value, |b| match b {
+        b'"' => Some("\\\""),
+        b'\'' => Some("\\'"),
+        b'\\' => Some("\\\\"),
+        b'\n' => Some("\\n"),
+        b'\r' => Some("\\r"),
+        _ => None,
+    });
+}
+
+/// 写入嵌在 SQL 单引号字符串中的 JSON 字符串内容：先按 JSON 转义，再按 SQL 转义
+pub fn push_sql_json_escaped(out: &mut String, value: &str) {
+    push_escaped(out, value, |b| match b {
+        b'"' => Some("\\\\\""),
+        b'\\' => Some("\\\\\\\\"),
+        b'\'' => Some("''"),
+        b'\n' => Some("\\\\n"),
+        b'\r' => Some("\\\\r"),
+        b'\t' => Some("\\\\t"),
+        0x00..=0x1f => Some(SQL_JSON_CONTROL_ESCAPES[b as usize]),
+        _ => None,
+    });
+}
+
+/// JSON 字符串中控制字符的 \\uXXXX 写法（已按 SQL 转义反斜杠）
+const SQL_JSON_CONTROL_ESCAPES: [&str; 32] = [
+    "\\\\u0000", "\\\\u0001", "\\\\u0002", "\\\\u0003", "\\\\u0004", "\\\\u0005",
+    "\\\\u0006", "\\\\u0007", "\\\\u0008", "\\\\u0009", "\\\\u000a", "\\\\u000b",
+    "\\\\u000c", "\\\\u000d", "\\\\u000e", "\\\\u000f", "\\\\u0010", "\\\\u0011",
+    "\\\\u0012", "\\\\u0013", "\\\\u0014", "\\\\u0015", "\\\\u0016", "\\\\u0017",
+    "\\\\u0018", "\\\\u0019", "\\\\u001a", "\\\\u001b", "\\\\u001c", "\\\\u001d",
+    "\\\\u001e", "\\\\u001f",
+];
+
+/// 写入 JSON 字符串的内容，转义双引号、反斜杠和控制字符
+pub fn push_json_escaped(out: &mut String, value: &str) {
+    push_escaped(out, value, |b| match b {
+        b'"' => Some("\\\""),
+        b'\\' => Some("\\\\"),
+        b'\n' => Some("\\n"),
+        b'\r' => Some("\\r"),
+        b'\t' => Some("\\t"),
+        0x00..=0x1f => Some(JSON_CONTROL_ESCAPES[b as usize]),
+        _ => None,
+    });
+}
+
+/// JSON 字符串中控制字符的 \uXXXX 写法
+const JSON_CONTROL_ESCAPES: [&str; 32] = [
+    "\\u0000", "\\u0001", "\\u0002", "\\u0003", "\\u0004", "\\u0005", "\\u0006", "\\u0007",
+    "\\u0008", "\\u0009", "\\u000a", "\\u000b", "\\u000c", "\\u000d", "\\u000e", "\\u000f",
+    "\\u0010", "\\u0011", "\\u0012", "\\u0013", "\\u0014", "\\u0015", "\\u0016", "\\u0017",
+    "\\u0018", "\\u0019", "\\u001a", "\\u001b", "\\u001c", "\\u001d", "\\u001e", "\\u001f",
+];
+
+/// 写入 LOAD DATA 文本格式的字段内容，按默认的 ESCAPED BY '\\' 转义反斜杠、制表符、换行和 NUL
+pub fn push_tsv_escaped(out: &mut String, value: &str) {
+    push_escaped(out, value, |b| match b {
+        b'\\' => Some("\\\\"),
+        b'\t' => Some("\\t"),
+        b'\n' => Some("\\n"),
+        b'\r' => Some("\\r"),
+        b'\0' => Some("\\0"),
+        _ => None,
+    });
+}
+
+/// 写入 PostgreSQL 单引号字符串的内容（standard_conforming_strings），只转义单引号
+pub fn push_pg_escaped(out: &mut String, value: &str) {
+    push_escaped(out, value, |b| match b {
+        b'\'' => Some("''"),
+        _ => None,
+    });
+}
+
+/// 写入带单引号的 PostgreSQL 字符串
+pub fn push_pg_quoted(out: &mut String, value: &str) {
+    out.push('\'');
+    push_pg_escaped(out, value);
+    out.push('\'');
+}
+
+/// 写入带单引号的 SQL 字符串
+pub fn push_sql_quoted(out: &mut String, value: &str) {
+    out.push('\'');
+    push_sql_escaped(out, value);
+    out.push('\'');
+}
+
+/// 写入嵌在 SQL 单引号字符串中的带双引号的 JSON 字符串
+pub fn push_sql_json_quoted(out: &mut String, value: &str) {
+    out.push('"');
+    push_sql_json_escaped(out, value);
+    out.push('"');
+}
+
+/// 写入带双引号的 JSON 字符串
+pub fn push_json_quoted(out: &mut String, value: &str) {
+    out.push('"');
+    push_json_escaped(out, value);
+    out.push('"');
+}
+
+/// 写入带双引号的 JavaScript 字符串
+pub fn push_js_quoted(out: &mut String, value: &str) {
+    out.push('"');
+    push_js_escaped(out, value);
+    out.push('"');
+}
+
+/// 按字节扫描需要转义的字符，没有时整段直接复制
+fn push_escaped<F>(out: &mut String, value: &str, escape: F)
+where
+    F: Fn(u8) -> Option<&'static str>,
+{
+    let bytes = value.as_bytes();
+    let first = match bytes.iter().position(|&b| escape(b).is_some()) {
+        Some(pos) => pos,
+        None => {
+            out.push_str(value);
+            return;
+        }
+    };
+
+    // 需要转义的字符都是 ASCII，按其位置切分不会破坏 UTF-8 边界
+    let mut start = 0;
+    for (i, &b) in bytes.iter().enumerate().skip(first) {
+        if let Some(replacement) = escape(b) {
+            out.push_str(&value[start..i]);
+            out.push_str(replacement);
+            start = i + 1;
+        }
+    }
+    out.push_str(&value[start..]);
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn escaped(push: fn(&mut String, &str), value: &str) -> String {
+        let mut out = String::new();
+        push(&mut out, value);
+        out
+    }
+
+    /// 覆盖 0x00..0x7f 的全部 ASCII 字符，并在可转义字符两侧放多字节字符
+    fn ascii_with_multibyte() -> String {
+        (0u8..0x80).map(|b| format!("中{}é", b as char)).collect()
+    }
+
+    #[test]
+    fn sql_escapes_quote_and_backslash_only() {
+        assert_eq!(escaped(push_sql_escaped, "普通文本"), "普通文本");
+        assert_eq!(escaped(push_sql_escaped, ""), "");
+        assert_eq!(
+            escaped(push_sql_escaped, "它's\\路\0\r\n\t\u{1}"),
+            "它''s\\\\路\0\r\n\t\u{1}"
+        );
+        assert_eq!(escaped(push_sql_escaped, "'\\'\\"), "''\\\\''\\\\");
+        assert_eq!(escaped(push_sql_quoted, "it's"), "'it''s'");
+    }
+
+    #[test]
+    fn js_escapes_quotes_backslash_and_line_breaks() {
+        assert_eq!(
+            escaped(push_js_escaped, "它\"s'路\\\0\r\n\t\u{1}"),
+            "它\\\"s\\'路\\\\\0\\r\\n\t\u{1}"
+        );
+        assert_eq!(escaped(push_js_escaped, "\"'\\\r\n"), "\\\"\\'\\\\\\r\\n");
+        assert_eq!(escaped(push_js_quoted, "a\"b"), "\"a\\\"b\"");
+    }
+
+    #[test]
+    fn json_escapes_round_trip() {
+        assert_eq!(
+            escaped(push_json_escaped, "它\"s\\路\0\r\n\t\u{1f}"),
+            "它\\\"s\\\\路\\u0000\\r\\n\\t\\u001f"
+        );
+        assert_eq!(escaped(push_json_escaped, "\"\\\n\0"), "\\\"\\\\\\n\\u0000");
+
+        let value = ascii_with_multibyte();
+        let quoted = escaped(push_json_quoted, &value);
+        assert_eq!(serde_json::from_str::<String>(&quoted).unwrap(), value);
+    }
+
+    #[test]
+    fn sql_json_applies_json_then_sql_escapes() {
+        assert_eq!(
+            escaped(push_sql_json_escaped, "它\"'s\\路\0\r\n\t\u{1f}"),
+            "它\\\\\"''s\\\\\\\\路\\\\u0000\\\\r\\\\n\\\\t\\\\u001f"
+        );
+        assert_eq!(escaped(push_sql_json_escaped, "\"\\'"), "\\\\\"\\\\\\\\''");
+
+        let value = ascii_with_multibyte();
+        let json = escaped(push_json_escaped, &value);
+        assert_eq!(escaped(push_sql_json_escaped, &value), escaped(push_sql_escaped, &json));
+        assert_eq!(
+            escaped(push_sql_json_quoted, &value),
+            format!("\"{}\"", escaped(push_sql_escaped, &json))
+        );
+    }
+
+    #[test]
+    fn tsv_escapes_load_data_specials() {
+        assert_eq!(
+            escaped(push_tsv_escaped, "它\\s\0路\r\n\t\u{1}'\""),
+            "它\\\\s\\0路\\r\\n\\t\u{1}'\""
+        );
+        assert_eq!(escaped(push_tsv_escaped, "\\\t\n\r\0"), "\\\\\\t\\n\\r\\0");
+    }
+
+    #[test]
+    fn pg_escapes_quote_only() {
+        assert_eq!(
+            escaped(push_pg_escaped, "它's\\路\0\r\n\t\u{1}"),
+            "它''s\\路\0\r\n\t\u{1}"
+        );
+        assert_eq!(escaped(push_pg_escaped, "'''"), "''''''");
+        assert_eq!(escaped(push_pg_quoted, "it's\\"), "'it''s\\'");
+    }
+}
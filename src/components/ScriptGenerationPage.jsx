@@ -1,5 +1,5 @@
 import { useState, useEffect } from "react";
-import { invoke } from "@tauri-apps/api/core";
+import { invoke, Channel } from "@tauri-apps/api/core";
 import {
   Button,
   Select,
@@ -10,20 +10,18 @@ import {
   Typography,
   Space,
   message,
-  Input
+  Input,
+  InputNumber
 } from 'antd';
 import { FileOutlined, CodeOutlined, DownloadOutlined } from '@ant-design/icons';
 import './ScriptGenerationPage.css';
 
 
-// 添加xlsx库用于解析Excel文件
-import * as XLSX from 'xlsx';
-
 const { Title } = Typography;
 const { Option } = Select;
 const { TextArea } = Input;
 
-import { save } from '@tauri-apps/plugin-dialog';
+import { save, open } from '@tauri-apps/plugin-dialog';
 import { writeTextFile } from '@tauri-apps/plugin-fs';
 
 function ScriptGenerationPage() {
@@ -41,6 +39,31 @@ function ScriptGenerationPage() {
   const [availableTables, setAvailableTables] = useState([]);
   const [hasHeaders, setHasHeaders] = useState(true);
   const [fileType, setFileType] = useState("csv"); // 添加文件类型状态
+  const [parallel, setParallel] = useState(false); // 多线程解析和生成
+  const [batchRows, setBatchRows] = useState(1); // 每条语句合并的行数
+  const [maxStatementKb, setMaxStatementKb] = useState(1024); // 单条语句上限（KB）
+  const [bulkLoad, setBulkLoad] = useState(false); // 批量导入设置
+  const [loadData, setLoadData] = useState(false); // MySQL INSERT 输出 TSV 数据文件和 LOAD DATA 语句
+  const [extendedJson, setExtendedJson] = useState(false); // MongoDB INSERT 输出 mongoimport 使用的 Extended JSON 行
+  const [updateMode, setUpdateMode] = useState("single"); // MySQL UPDATE 生成方式
+  const [pgUpdateMode, setPgUpdateMode] = useState("single"); // PostgreSQL UPDATE 生成方式
+  const [ordered, setOrdered] = useState(false); // MongoDB 批量写入是否按顺序执行
+  const [transactionStatements, setTransactionStatements] = useState(0); // 每个事务的语句数，0 表示不分段
+  const [transactionRows, setTransactionRows] = useState(0); // 每个事务最多涉及的行数，0 表示不限制
+  const [joinRows, setJoinRows] = useState(0); // 临时表 JOIN 更新每条语句的行数，0 表示一条完成
+  const [deleteMode, setDeleteMode] = useState("in"); // MySQL 批量 DELETE 生成方式
+  const [mongoUpdateMode, setMongoUpdateMode] = useState("updateOne"); // MongoDB UPDATE 生成方式
+  const [sortByKey, setSortByKey] = useState(false); // 按条件字段排序后生成
+  const [sortMemoryMb, setSortMemoryMb] = useState(256); // 排序可使用的内存（MB）
+  const [dedupe, setDedupe] = useState("none"); // 条件值重复时保留哪一行
+  const [dedupeBloom, setDedupeBloom] = useState(false); // 用布隆过滤器预扫描，适合超大文件
+  const [diffDeletes, setDiffDeletes] = useState(false); // 增量对比时为旧数据独有的条件值生成删除语句
+  const [jobId, setJobId] = useState(null); // 正在执行的后台任务
+  const [progress, setProgress] = useState(null); // 后台任务进度
+  const [dataset, setDataset] = useState(null); // 后端保存的数据集 { handle, path, rowCount }
+  const [delimiter, setDelimiter] = useState(","); // CSV 分隔符
+  const [excelSheets, setExcelSheets] = useState(null); // Excel 工作表 { path, names }
+  const [sheetName, setSheetName] = useState(null); // 选中的工作表
 
 
   useEffect(() => {
@@ -83,69 +106,6 @@ function ScriptGenerationPage() {
         setDbType(tableType);
       }
     }
-
-    // 从localStorage加载CSV数据
-    const savedCsvData = localStorage.getItem('csvData');
-    const savedHeaders = localStorage.getItem('csvHeaders');
-    if (savedCsvData && savedHeaders) {
-      setCsvData(JSON.parse(savedCsvData));
-      setHeaders(JSON.parse(savedHeaders));
-    }
-  };
-
-  const selectCsvFile = async () => {
-    try {
-      // 创建一个隐藏的文件输入元素
-      const fileInput = document.createElement('input');
-      fileInput.type = 'file';
-      fileInput.accept = '.csv';
-
-      fileInput.onchange = async (e) => {
-        const file = e.target.files[0];
-        if (file) {
-          // 处理选择的文件
-          const reader = new FileReader();
-          reader.onload = async (event) => {
-            const content = event.target.result;
-
-            // 解析 CSV 内容
-            const lines = content.split('\n');
-            const parsedData = lines.map(line => line.split(',').map(item => item.trim()));
-
-            if (parsedData.length > 0) {
-              let headers, csvData;
-
-              if (hasHeaders) {
-                // 如果CSV有表头，第一行作为表头
-                headers = parsedData[0];
-                csvData = parsedData.slice(1).filter(row => row.length > 1);
-              } else {
-                // 如果CSV没有表头，自动生成表头（列1，列2，列3...）
-                const columnCount = parsedData[0].length;
-                headers = Array.from({ length: columnCount }, (_, i) => `列${i + 1}`);
-                csvData = parsedData.filter(row => row.length > 1); // 所有行都作为数据
-              }
-
-              // 设置状态
-              setHeaders(headers);
-              setCsvData(csvData);
-
-              // 保存到localStorage
-              localStorage.setItem('csvHeaders', JSON.stringify(headers));
-              localStorage.setItem('csvData', JSON.stringify(csvData));
-
-              message.success('CSV文件解析成功');
-            }
-          };
-          reader.readAsText(file);
-        }
-      };
-
-      fileInput.click();
-    } catch (error) {
-      console.error('选择或解析CSV文件时出错:', error);
-      message.error(`选择或解析CSV文件时出错: ${error.message}`);
-    }
   };
 
   const handleTableChange = (value) => {
@@ -166,6 +126,9 @@ function ScriptGenerationPage() {
     // 清空 CSV 数据和表头
     setHeaders([]);
     setCsvData([]);
+    releaseDataset();
+    setExcelSheets(null);
+    setSheetName(null);
 
     // 重置hasHeaders为默认值
     setHasHeaders(true);
@@ -266,14 +229,14 @@ function ScriptGenerationPage() {
       }
 
       // 根据数据库类型设置不同的文件扩展名
-      const fileExtension = dbType === "MongoDB" ? ".js" : ".sql";
-      const defaultFileName = `${selectedTable}_script_${new Date().toISOString().slice(0, 10)}${fileExtension}`;
+      const fileType = scriptFileType();
+      const defaultFileName = `${selectedTable}_script_${new Date().toISOString().slice(0, 10)}.${fileType.extension}`;
 
       // 使用Tauri的原生对话框API
       const filePath = await save({
         filters: [{
-          name: dbType === "MongoDB" ? 'JavaScript Files' : 'SQL Files',
-          extensions: [dbType === "MongoDB" ? 'js' : 'sql']
+          name: fileType.name,
+          extensions: [fileType.extension]
         }],
         defaultPath: defaultFileName
       });
@@ -392,13 +355,15 @@ function ScriptGenerationPage() {
     if (!config[tableName]) return false;
     if (dbType === "MongoDB" && config[tableName].type === "MongoDB") return true;
     if (dbType === "MySQL" && config[tableName].type === "MySQL") return true;
+    // PostgreSQL 与 MySQL 共用 MyBatis 导入的表配置
+    if (dbType === "PostgreSQL" && config[tableName].type === "MySQL") return true;
     return false;
   });
 
   // 当数据库类型变化时，重置选中的表
   useEffect(() => {
     // 如果当前选中的表不符合筛选条件，则重置选中的表
-    if (selectedTable && config[selectedTable] && config[selectedTable].type !== dbType) {
+    if (selectedTable && config[selectedTable] && !filteredTables.includes(selectedTable)) {
       setSelectedTable("");
       setFieldMappings({});
       setConditionField("");
@@ -430,309 +395,323 @@ function ScriptGenerationPage() {
     return rowData;
   });
 
+  // 释放后端保存的数据集
+  const releaseDataset = () => {
+    if (dataset) {
+      invoke("release_dataset", { handle: dataset.handle });
+      setDataset(null);
+    }
+  };
 
-  // 处理导入的数据 - 只导入前10行用于预览
-  const processImportedData = (parsedData) => {
-    if (parsedData.length > 0) {
-      let headers, csvData;
+  // 使用后端保存的数据集生成脚本，行数据不再经过页面
+  const generateScript = async () => {
+    if (!dataset) {
+      message.warning('找不到导入的文件，请重新导入数据文件');
+      return;
+    }
 
-      if (hasHeaders) {
-        // 如果有表头，第一行作为表头
-        headers = parsedData[0];
-        // 只取前10行数据用于预览
-        csvData = parsedData.slice(1, 11).filter(row => row.length > 1);
-      } else {
-        // 如果没有表头，自动生成表头（列1，列2，列3...）
-        const columnCount = parsedData[0].length;
-        headers = Array.from({ length: columnCount }, (_, i) => `列${i + 1}`);
-        // 只取前10行数据用于预览
-        csvData = parsedData.slice(0, 10).filter(row => row.length > 1);
-      }
+    const currentJobId = `script-${Date.now()}`;
+    try {
+      setJobId(currentJobId);
+      setProgress(null);
+      message.loading({ content: '正在处理数据并生成脚本...', key: 'scriptGen' });
 
-      // 设置状态
-      setHeaders(headers);
-      setCsvData(csvData);
+      const result = await invoke("generate_from_dataset", {
+        handle: dataset.handle,
+        request: buildGenerationRequest(),
+        jobId: currentJobId,
+        onProgress: createProgressChannel()
+      });
+      setScript(result);
+      setEditableScript(result);
 
-      console.log('Headers:', headers);
-      console.log('CSV Data (Preview):', csvData);
+      message.destroy('scriptGen');
+      message.success('脚本生成成功');
+    } catch (error) {
+      message.destroy('scriptGen');
+      console.error('脚本生成失败:', error);
+      message.error('脚本生成失败: ' + error);
+    } finally {
+      setJobId(null);
+    }
+  };
 
-      // 保存到localStorage - 只保存headers和文件路径
-      localStorage.setItem('csvHeaders', JSON.stringify(headers));
+  // 创建接收后台任务进度的通道
+  const createProgressChannel = () => {
+    const channel = new Channel();
+    channel.onmessage = (jobProgress) => setProgress(jobProgress);
+    return channel;
+  };
+
+  // 取消正在执行的后台任务
+  const cancelJob = async () => {
+    if (jobId) {
+      await invoke("cancel_job", { jobId });
+    }
+  };
 
-      // 保存原始文件信息，以便生成脚本时重新读取
-      localStorage.setItem('lastImportedFileType', fileType);
+  // 当前数据库和操作类型是否生成批量语句
+  const isBatchSupported = () => operationType === "DELETE" || dbType === "MongoDB" || (dbType === "MySQL" && (
+    operationType === "INSERT" || (operationType === "UPDATE" && updateMode !== "single")
+  )) || (dbType === "PostgreSQL" && (
+    operationType === "INSERT" || (operationType === "UPDATE" && pgUpdateMode !== "single")
+  ));
+
+  // 合并相同更新内容只在同一条批量语句的行之间进行，需要每条语句行数大于 1
+  const isCoalesce = () => operationType === "UPDATE" && (
+    dbType === "MongoDB" ? mongoUpdateMode === "coalesce"
+      : (dbType === "PostgreSQL" ? pgUpdateMode : updateMode) === "coalesce"
+  );
+  const ensureCoalesceBatch = (mode) => {
+    if (mode === "coalesce" && batchRows <= 1) {
+      setBatchRows(1000);
+    }
+  };
 
-      // 不再保存完整数据到localStorage
-      // localStorage.setItem('csvData', JSON.stringify(csvData));
+  // mongoimport 模式输出 JSON 行而不是 mongosh 脚本
+  const isExtendedJson = () => dbType === "MongoDB" && operationType === "INSERT" && extendedJson;
 
-      message.success(`${fileType.toUpperCase()}文件解析成功（预览模式：仅显示前10行）`);
+  // 导出文件的扩展名和过滤器名称
+  const scriptFileType = () => {
+    if (isExtendedJson()) {
+      return { name: 'Extended JSON Files', extension: 'json' };
     }
+    return dbType === "MongoDB"
+      ? { name: 'JavaScript Files', extension: 'js' }
+      : { name: 'SQL Files', extension: 'sql' };
   };
 
-  // 修改generateScript函数，在生成脚本前重新导入完整数据
-  const generateScript = async () => {
+  // 组装 CSV 解析选项，勾选多线程时同时启用多线程解析
+  const buildCsvOptions = () => ({ delimiter, parallel });
+
+  // 组装后端生成请求
+  const buildGenerationRequest = () => ({
+    dbType,
+    operationType,
+    fieldMappings,
+    conditionField,
+    updateFields,
+    tableName: selectedTable,
+    options: {
+      parallel,
+      batchRows,
+      maxStatementBytes: maxStatementKb * 1024,
+      bulkLoad,
+      updateMode,
+      pgUpdateMode,
+      ordered,
+      transactionStatements,
+      transactionRows,
+      joinRows,
+      deleteMode,
+      mongoUpdateMode,
+      sortByKey,
+      sortMemoryMb,
+      dedupe,
+      dedupeBloom,
+      loadData,
+      extendedJson
+    }
+  });
+
+  // 流式生成：由后端直接读取数据文件并写入脚本文件，数据不经过页面
+  const generateScriptToFile = async () => {
+    const currentJobId = `file-${Date.now()}`;
     try {
-      message.loading({ content: '正在处理数据并生成脚本...', key: 'scriptGen' });
-      
-      // 检查是否需要重新导入完整数据
-      const fullDataNeeded = true; // 始终重新导入完整数据
-
-      if (fullDataNeeded) {
-        // 获取上次导入的文件信息
-        const lastFileInput = document.getElementById('hiddenFileInput');
-
-        if (lastFileInput && lastFileInput.files && lastFileInput.files[0]) {
-          const file = lastFileInput.files[0];
-          const fileExtension = file.name.split('.').pop().toLowerCase();
-
-          // 读取完整文件数据
-          let fullData = [];
-
-          if (fileExtension === 'csv') {
-            // 处理CSV文件
-            const content = await readFileAsText(file);
-            const lines = content.split('\n');
-            fullData = lines.map(line => line.split(',').map(item => item.trim()));
-          } else if (fileExtension === 'xlsx' || fileExtension === 'xls') {
-            // 处理Excel文件
-            const data = await readFileAsArrayBuffer(file);
-            const workbook = XLSX.read(new Uint8Array(data), {
-              type: 'array',
-              cellFormula: false,
-              cellHTML: false,
-              cellText: false
-            });
-
-            const firstSheetName = workbook.SheetNames[0];
-            const worksheet = workbook.Sheets[firstSheetName];
-
-            fullData = XLSX.utils.sheet_to_json(worksheet, {
-              header: 1,
-              raw: true,
-              defval: ''
-            });
-          }
-
-          // 提取完整数据
-          let fullCsvData;
-          if (hasHeaders) {
-            fullCsvData = fullData.slice(1).filter(row => row.length > 1);
-          } else {
-            fullCsvData = fullData.filter(row => row.length > 1);
-          }
-
-          // 生成数据库脚本
-          await generateScriptWithData(fullCsvData);
-        } else {
-          message.destroy('scriptGen');
-          message.warning('找不到导入的文件，请重新导入数据文件');
-        }
-      } else {
-        // 使用当前数据生成脚本
-        await generateScriptWithData(csvData);
+      // 优先使用已导入的数据文件
+      const inputPath = dataset ? dataset.path : await open({
+        multiple: false,
+        filters: [{ name: '数据文件', extensions: ['csv', 'xlsx', 'xls'] }]
+      });
+      if (!inputPath) {
+        return;
       }
+
+      const fileType = scriptFileType();
+      const outputPath = await save({
+        filters: [{
+          name: fileType.name,
+          extensions: [fileType.extension]
+        }],
+        defaultPath: `${selectedTable}_script_${new Date().toISOString().slice(0, 10)}.${fileType.extension}`
+      });
+      if (!outputPath) {
+        return;
+      }
+
+      setJobId(currentJobId);
+      setProgress(null);
+      message.loading({ content: '正在生成脚本文件...', key: 'scriptFile', duration: 0 });
+      const summary = await invoke("generate_script_file", {
+        request: buildGenerationRequest(),
+        inputPath,
+        outputPath,
+        hasHeaders,
+        csvOptions: buildCsvOptions(),
+        sheetName: dataset ? sheetName : null,
+        jobId: currentJobId,
+        onProgress: createProgressChannel()
+      });
+      message.success({
+        content: `脚本已写入 ${summary.outputPath}${summary.dataPath ? `，数据文件 ${summary.dataPath}` : ''}（${summary.rows} 行${summary.duplicateRows ? `，合并重复行 ${summary.duplicateRows}` : ''}，${(summary.bytesWritten / 1024 / 1024).toFixed(1)} MB，耗时 ${summary.elapsedMs} ms）`,
+        key: 'scriptFile'
+      });
     } catch (error) {
-      message.destroy('scriptGen');
+      message.destroy('scriptFile');
       console.error('脚本生成失败:', error);
       message.error('脚本生成失败: ' + error);
+    } finally {
+      setJobId(null);
     }
   };
 
-  // 辅助函数：读取文件为文本
-  const readFileAsText = (file) => {
-    return new Promise((resolve, reject) => {
-      const reader = new FileReader();
-      reader.onload = (event) => resolve(event.target.result);
-      reader.onerror = (error) => reject(error);
-      reader.readAsText(file);
-    });
-  };
+  // 增量对比：当前数据文件为新数据，另选旧数据文件，只为变化的行生成脚本
+  const generateDiffScriptToFile = async () => {
+    const currentJobId = `diff-${Date.now()}`;
+    try {
+      const newPath = dataset ? dataset.path : await open({
+        multiple: false,
+        title: '选择新数据文件',
+        filters: [{ name: '数据文件', extensions: ['csv', 'xlsx', 'xls'] }]
+      });
+      if (!newPath) {
+        return;
+      }
+      const oldPath = await open({
+        multiple: false,
+        title: '选择旧数据文件（与新数据列顺序相同）',
+        filters: [{ name: '数据文件', extensions: ['csv', 'xlsx', 'xls'] }]
+      });
+      if (!oldPath) {
+        return;
+      }
 
-  // 辅助函数：读取文件为ArrayBuffer
-  const readFileAsArrayBuffer = (file) => {
-    return new Promise((resolve, reject) => {
-      const reader = new FileReader();
-      reader.onload = (event) => resolve(event.target.result);
-      reader.onerror = (error) => reject(error);
-      reader.readAsArrayBuffer(file);
-    });
+      const fileExtension = dbType === "MongoDB" ? "js" : "sql";
+      const outputPath = await save({
+        filters: [{
+          name: dbType === "MongoDB" ? 'JavaScript Files' : 'SQL Files',
+          extensions: [fileExtension]
+        }],
+        defaultPath: `${selectedTable}_diff_${new Date().toISOString().slice(0, 10)}.${fileExtension}`
+      });
+      if (!outputPath) {
+        return;
+      }
+
+      setJobId(currentJobId);
+      setProgress(null);
+      message.loading({ content: '正在对比数据并生成脚本...', key: 'diffFile', duration: 0 });
+      const summary = await invoke("generate_diff_script_file", {
+        request: buildGenerationRequest(),
+        oldPath,
+        newPath,
+        outputPath,
+        hasHeaders,
+        csvOptions: buildCsvOptions(),
+        sheetName: dataset ? sheetName : null,
+        includeDeletes: diffDeletes,
+        jobId: currentJobId,
+        onProgress: createProgressChannel()
+      });
+      message.success({
+        content: `脚本已写入 ${summary.outputPath}（更新 ${summary.updatedRows} 行，新增 ${summary.insertedRows} 行，删除 ${summary.deletedRows} 行，未变化 ${summary.unchangedRows} 行，耗时 ${summary.elapsedMs} ms）`,
+        key: 'diffFile'
+      });
+    } catch (error) {
+      message.destroy('diffFile');
+      console.error('增量对比生成失败:', error);
+      message.error('增量对比生成失败: ' + error);
+    } finally {
+      setJobId(null);
+    }
   };
 
-  // 使用数据生成脚本的核心函数
-  const generateScriptWithData = async (data) => {
+  // 选择数据文件；Excel 文件先列出工作表，默认导入第一个工作表
+  const selectDataFile = async () => {
     try {
-      if (dbType === "MongoDB") {
-        if (operationType === "UPDATE") {
-          const result = await invoke("generate_mongodb_script", {
-            csvData: data,
-            fieldMappings, // 现在包含了字段类型信息
-            conditionField,
-            updateFields,
-            tableName: selectedTable
-          });
-          setScript(result);
-          setEditableScript(result);
-        } else if (operationType === "INSERT") {
-          const result = await invoke("generate_mongodb_insert_script", {
-            csvData: data,
-            fieldMappings,
-            tableName: selectedTable
-          });
-          setScript(result);
-          setEditableScript(result);
-        } else if (operationType === "DELETE") {
-          const result = await invoke("generate_mongodb_delete_script", {
-            csvData: data,
-            fieldMappings,
-            conditionField,
-            tableName: selectedTable
-          });
-          setScript(result);
-          setEditableScript(result);
-        }
-      } else { // MySQL
-        if (operationType === "UPDATE") {
-          const result = await invoke("generate_mysql_script", {
-            csvData: data,
-            fieldMappings,
-            conditionField,
-            updateFields,
-            tableName: selectedTable
-          });
-          setScript(result);
-          setEditableScript(result);
-        } else if (operationType === "INSERT") {
-          const result = await invoke("generate_mysql_insert_script", {
-            csvData: data,
-            fieldMappings,
-            tableName: selectedTable
-          });
-          setScript(result);
-          setEditableScript(result);
-        } else if (operationType === "DELETE") {
-          const result = await invoke("generate_mysql_delete_script", {
-            csvData: data,
-            fieldMappings,
-            conditionField,
-            tableName: selectedTable
-          });
-          setScript(result);
-          setEditableScript(result);
-        }
+      const filePath = await open({
+        multiple: false,
+        filters: [{ name: '数据文件', extensions: ['csv', 'xlsx', 'xls'] }]
+      });
+      if (!filePath) {
+        return;
       }
-      message.destroy('scriptGen');
-      message.success('脚本生成成功');
+
+      // 根据文件扩展名判断文件类型
+      const fileExtension = filePath.split('.').pop().toLowerCase();
+      setFileType(fileExtension);
+
+      let sheet = null;
+      if (fileExtension === 'xlsx' || fileExtension === 'xls') {
+        const names = await invoke("list_excel_sheets", { filePath });
+        setExcelSheets({ path: filePath, names });
+        sheet = names.length > 0 ? names[0] : null;
+      } else {
+        setExcelSheets(null);
+      }
+      setSheetName(sheet);
+
+      await importDataFile(filePath, sheet);
     } catch (error) {
-      message.destroy('scriptGen');
-      console.error('脚本生成失败:', error);
-      message.error('脚本生成失败: ' + error);
+      console.error('选择或解析文件时出错:', error);
+      message.error(`选择或解析文件时出错: ${error}`);
     }
   };
 
-  // 修改文件选择函数，保存文件引用
+  // 切换 Excel 工作表后重新导入
+  const handleSheetChange = async (value) => {
+    setSheetName(value);
+    await importDataFile(excelSheets.path, value);
+  };
 
-  // 修改文件选择函数，保存文件引用
-  function selectDataFile() {
+  // 由后端解析数据文件并保存，页面只保留表头和预览数据
+  const importDataFile = async (filePath, sheet) => {
+    const currentJobId = `import-${Date.now()}`;
+    const fileExtension = filePath.split('.').pop().toLowerCase();
     try {
-      // 移除旧的文件输入元素（如果存在）
-      const oldInput = document.getElementById('hiddenFileInput');
-      if (oldInput) {
-        document.body.removeChild(oldInput);
+      setJobId(currentJobId);
+      setProgress(null);
+
+      // 先读取开头几行显示表头和预览，大文件完整解析需要较长时间
+      const previewRows = await invoke("preview_data_file", {
+        filePath,
+        csvOptions: buildCsvOptions(),
+        sheetName: sheet
+      });
+      if (previewRows.length > 0) {
+        setHeaders(hasHeaders ? previewRows[0] : previewRows[0].map((_, i) => `列${i + 1}`));
+        setCsvData(hasHeaders ? previewRows.slice(1) : previewRows);
       }
 
-      // 创建一个隐藏的文件输入元素
-      const fileInput = document.createElement('input');
-      fileInput.type = 'file';
-      fileInput.accept = '.csv,.xlsx,.xls'; // 同时接受CSV和Excel文件
-      fileInput.id = 'hiddenFileInput';
-      fileInput.style.display = 'none';
-      document.body.appendChild(fileInput);
-
-      fileInput.onchange = async (e) => {
-        const file = e.target.files[0];
-        if (file) {
-          // 根据文件扩展名判断文件类型
-          const fileExtension = file.name.split('.').pop().toLowerCase();
-          setFileType(fileExtension);
-
-          if (fileExtension === 'csv') {
-            // 处理CSV文件
-            const reader = new FileReader();
-            reader.onload = async (event) => {
-              const content = event.target.result;
-
-              // 解析 CSV 内容
-              const lines = content.split('\n');
-              const parsedData = lines.map(line => line.split(',').map(item => item.trim()));
-
-              processImportedData(parsedData);
-            };
-            reader.readAsText(file);
-          } else if (fileExtension === 'xlsx' || fileExtension === 'xls') {
-            // 处理Excel文件 - 只读取前几行用于预览
-            try {
-              message.loading({ content: '正在解析Excel文件...', key: 'excelLoading' });
-
-              const reader = new FileReader();
-              reader.onload = async (event) => {
-                try {
-                  const data = new Uint8Array(event.target.result);
-
-                  // 使用更高效的方式读取Excel文件
-                  const workbook = XLSX.read(data, {
-                    type: 'array',
-                    cellFormula: false,  // 禁用公式解析
-                    cellHTML: false,     // 禁用HTML解析
-                    cellText: false      // 禁用富文本解析
-                  });
-
-                  // 获取第一个工作表
-                  const firstSheetName = workbook.SheetNames[0];
-                  const worksheet = workbook.Sheets[firstSheetName];
-
-                  // 使用更高效的方式转换数据 - 只读取前几行
-                  const sheetRange = XLSX.utils.decode_range(worksheet['!ref']);
-                  // 限制读取范围为前11行（1行表头+10行数据）或更少
-                  const limitedRange = {
-                    s: { r: sheetRange.s.r, c: sheetRange.s.c },
-                    e: {
-                      r: Math.min(sheetRange.s.r + 10, sheetRange.e.r),
-                      c: sheetRange.e.c
-                    }
-                  };
-
-                  worksheet['!ref'] = XLSX.utils.encode_range(limitedRange);
-
-                  const parsedData = XLSX.utils.sheet_to_json(worksheet, {
-                    header: 1,
-                    raw: true,
-                    defval: ''
-                  });
-
-                  message.destroy('excelLoading');
-                  processImportedData(parsedData);
-                } catch (error) {
-                  message.destroy('excelLoading');
-                  console.error('解析Excel文件时出错:', error);
-                  message.error(`解析Excel文件时出错: ${error.message}`);
-                }
-              };
-              reader.readAsArrayBuffer(file);
-            } catch (error) {
-              message.destroy('excelLoading');
-              console.error('解析Excel文件时出错:', error);
-              message.error(`解析Excel文件时出错: ${error.message}`);
-            }
-          } else {
-            message.error('不支持的文件格式，请选择CSV或Excel文件');
-          }
-        }
-      };
+      message.loading({ content: '正在解析数据文件...', key: 'dataImport', duration: 0 });
+      const info = await invoke("import_dataset", {
+        filePath,
+        hasHeaders,
+        csvOptions: buildCsvOptions(),
+        sheetName: sheet,
+        jobId: currentJobId,
+        onProgress: createProgressChannel()
+      });
+
+      releaseDataset();
+      setDataset({ handle: info.handle, path: info.path, rowCount: info.rowCount });
+      setHeaders(info.headers);
+      setCsvData(info.preview);
 
-      fileInput.click();
+      // 保存到localStorage - 只保存headers和文件类型
+      localStorage.setItem('csvHeaders', JSON.stringify(info.headers));
+      localStorage.setItem('lastImportedFileType', fileExtension);
+
+      message.success({
+        content: `${fileExtension.toUpperCase()}文件解析成功，共 ${info.rowCount} 行（预览模式：仅显示前10行）`,
+        key: 'dataImport'
+      });
     } catch (error) {
-      console.error('选择或解析文件时出错:', error);
-      message.error(`选择或解析文件时出错: ${error.message}`);
+      message.destroy('dataImport');
+      console.error('解析文件时出错:', error);
+      message.error(`解析文件时出错: ${error}`);
+    } finally {
+      setJobId(null);
     }
   };
 
@@ -752,6 +731,7 @@ function ScriptGenerationPage() {
               >
                 <Option value="MongoDB">MongoDB</Option>
                 <Option value="MySQL">MySQL</Option>
+                <Option value="PostgreSQL">PostgreSQL</Option>
               </Select>
             </div>
 
@@ -799,6 +779,32 @@ function ScriptGenerationPage() {
               >
                 文件包含表头
               </Checkbox>
+              <span style={{ marginLeft: '10px' }}>CSV分隔符：</span>
+              <Select
+                style={{ width: 100 }}
+                value={delimiter}
+                onChange={(value) => setDelimiter(value)}
+              >
+                <Option value=",">逗号</Option>
+                <Option value={"\t"}>制表符</Option>
+                <Option value=";">分号</Option>
+                <Option value="|">竖线</Option>
+              </Select>
+              {excelSheets && excelSheets.names.length > 1 && (
+                <>
+                  <span style={{ marginLeft: '10px' }}>工作表：</span>
+                  <Select
+                    style={{ width: 160 }}
+                    value={sheetName}
+                    onChange={handleSheetChange}
+                    disabled={!!jobId}
+                  >
+                    {excelSheets.names.map((name) => (
+                      <Option key={name} value={name}>{name}</Option>
+                    ))}
+                  </Select>
+                </>
+              )}
               <span style={{ marginLeft: '10px', color: '#888' }}>
                 支持格式: CSV, XLSX, XLS
               </span>
@@ -825,12 +831,258 @@ function ScriptGenerationPage() {
               <Button
                 type="primary"
                 onClick={generateScript}
-                disabled={isGenerateButtonDisabled()}
+                disabled={isGenerateButtonDisabled() || !!jobId}
                 style={{ marginTop: 16 }}
                 icon={<CodeOutlined />}
               >
                 生成{operationType === "UPDATE" ? "更新" : operationType === "INSERT" ? "插入" : "删除"}脚本
               </Button>
+              <Button
+                onClick={generateScriptToFile}
+                disabled={isGenerateButtonDisabled() || !!jobId}
+                style={{ marginTop: 16, marginLeft: '10px' }}
+                icon={<DownloadOutlined />}
+              >
+                直接生成到文件
+              </Button>
+              {operationType === "UPDATE" && (
+                <>
+                  <Button
+                    onClick={generateDiffScriptToFile}
+                    disabled={isGenerateButtonDisabled() || !!jobId}
+                    style={{ marginTop: 16, marginLeft: '10px' }}
+                    icon={<DownloadOutlined />}
+                  >
+                    与旧数据对比生成
+                  </Button>
+                  <Checkbox
+                    checked={diffDeletes}
+                    onChange={(e) => setDiffDeletes(e.target.checked)}
+                    style={{ marginLeft: '10px', marginTop: 16 }}
+                  >
+                    对比时删除旧数据独有的行
+                  </Checkbox>
+                </>
+              )}
+              <Checkbox
+                checked={parallel}
+                onChange={(e) => setParallel(e.target.checked)}
+                style={{ marginLeft: '10px', marginTop: 16 }}
+              >
+                多线程解析和生成
+              </Checkbox>
+              {dbType === "MySQL" && operationType === "UPDATE" && (
+                <div style={{ marginTop: 8 }}>
+                  <span>更新方式：</span>
+                  <Select
+                    style={{ width: 360 }}
+                    value={updateMode}
+                    onChange={(value) => {
+                      setUpdateMode(value);
+                      ensureCoalesceBatch(value);
+                    }}
+                  >
+                    <Option value="single">逐行 UPDATE</Option>
+                    <Option value="upsert">INSERT ... ON DUPLICATE KEY UPDATE（MySQL 8.0.19+，条件字段须为唯一键）</Option>
+                    <Option value="case">UPDATE ... CASE 批量更新</Option>
+                    <Option value="tempTable">临时表 + UPDATE JOIN（适合百万行以上）</Option>
+                    <Option value="jsonTable">JSON_TABLE 批量更新（MySQL 8，条件字段须为唯一键）</Option>
+                    <Option value="coalesce">更新内容相同的行合并为 WHERE key IN (...)</Option>
+                  </Select>
+                  {updateMode === "tempTable" && (
+                    <>
+                      <span style={{ marginLeft: '10px' }}>每条 UPDATE JOIN 行数：</span>
+                      <InputNumber
+                        min={0}
+                        value={joinRows}
+                        onChange={(value) => setJoinRows(value || 0)}
+                      />
+                      <span style={{ marginLeft: '10px', color: '#888' }}>0 表示一条 UPDATE 完成</span>
+                    </>
+                  )}
+                </div>
+              )}
+              {dbType === "PostgreSQL" && operationType === "UPDATE" && (
+                <div style={{ marginTop: 8 }}>
+                  <span>更新方式：</span>
+                  <Select
+                    style={{ width: 360 }}
+                    value={pgUpdateMode}
+                    onChange={(value) => {
+                      setPgUpdateMode(value);
+                      ensureCoalesceBatch(value);
+                    }}
+                  >
+                    <Option value="single">逐行 UPDATE</Option>
+                    <Option value="values">UPDATE ... FROM (VALUES ...) 批量更新</Option>
+                    <Option value="coalesce">更新内容相同的行合并为 WHERE key IN (...)</Option>
+                  </Select>
+                </div>
+              )}
+              {dbType === "MongoDB" && operationType === "UPDATE" && (
+                <div style={{ marginTop: 8 }}>
+                  <span>更新方式：</span>
+                  <Select
+                    style={{ width: 360 }}
+                    value={mongoUpdateMode}
+                    onChange={(value) => {
+                      setMongoUpdateMode(value);
+                      ensureCoalesceBatch(value);
+                    }}
+                  >
+                    <Option value="updateOne">updateOne / bulkWrite</Option>
+                    <Option value="merge">暂存集合 + $merge（条件字段须有唯一索引）</Option>
+                    <Option value="coalesce">更新内容相同的行合并为 updateMany + $in</Option>
+                  </Select>
+                </div>
+              )}
+              {dbType === "MySQL" && operationType === "DELETE" && (
+                <div style={{ marginTop: 8 }}>
+                  <span>删除方式：</span>
+                  <Select
+                    style={{ width: 360 }}
+                    value={deleteMode}
+                    onChange={(value) => setDeleteMode(value)}
+                  >
+                    <Option value="in">DELETE ... WHERE key IN (...)</Option>
+                    <Option value="jsonTable">DELETE ... JOIN JSON_TABLE（MySQL 8）</Option>
+                  </Select>
+                </div>
+              )}
+              {isBatchSupported() && (
+                <div style={{ marginTop: 8 }}>
+                  <span>每条语句行数：</span>
+                  <InputNumber
+                    min={isCoalesce() ? 2 : 1}
+                    max={100000}
+                    value={batchRows}
+                    onChange={(value) => setBatchRows(value || 1)}
+                  />
+                  {isCoalesce() && (
+                    <span style={{ marginLeft: '10px', color: '#888' }}>合并只在同一条语句的行之间进行，行数须大于 1</span>
+                  )}
+                  <span style={{ marginLeft: '10px' }}>单条语句上限(KB)：</span>
+                  <InputNumber
+                    min={1}
+                    value={maxStatementKb}
+                    onChange={(value) => setMaxStatementKb(value || 1024)}
+                  />
+                  {dbType === "MySQL" && (
+                    <Checkbox
+                      checked={bulkLoad}
+                      onChange={(e) => setBulkLoad(e.target.checked)}
+                      style={{ marginLeft: '10px' }}
+                    >
+                      批量导入设置（关闭唯一性和外键检查，最后统一提交）
+                    </Checkbox>
+                  )}
+                  {dbType === "PostgreSQL" && (
+                    <Checkbox
+                      checked={bulkLoad}
+                      onChange={(e) => setBulkLoad(e.target.checked)}
+                      style={{ marginLeft: '10px' }}
+                    >
+                      整个脚本在一个事务中执行（设置了事务分段时按分段提交；INSERT 批量时使用 COPY FROM STDIN，需用 psql 执行）
+                    </Checkbox>
+                  )}
+                  {dbType === "MySQL" && operationType === "INSERT" && (
+                    <Checkbox
+                      checked={loadData}
+                      onChange={(e) => setLoadData(e.target.checked)}
+                      style={{ marginLeft: '10px' }}
+                    >
+                      LOAD DATA 模式（写出 TSV 数据文件 + LOAD DATA LOCAL INFILE，仅直接生成到文件）
+                    </Checkbox>
+                  )}
+                  {dbType === "MongoDB" && operationType === "INSERT" && (
+                    <Checkbox
+                      checked={extendedJson}
+                      onChange={(e) => setExtendedJson(e.target.checked)}
+                      style={{ marginLeft: '10px' }}
+                    >
+                      mongoimport 模式（每行一个 Extended JSON 文档）
+                    </Checkbox>
+                  )}
+                  {dbType === "MongoDB" && operationType !== "DELETE" && (
+                    <Checkbox
+                      checked={ordered}
+                      onChange={(e) => setOrdered(e.target.checked)}
+                      style={{ marginLeft: '10px' }}
+                    >
+                      按顺序写入（ordered，出错时停止后续写入）
+                    </Checkbox>
+                  )}
+                </div>
+              )}
+              {operationType !== "INSERT" && (
+                <div style={{ marginTop: 8 }}>
+                  <Checkbox
+                    checked={sortByKey}
+                    onChange={(e) => setSortByKey(e.target.checked)}
+                  >
+                    按条件字段排序（数字按数值比较）
+                  </Checkbox>
+                  <span style={{ marginLeft: '10px' }}>重复条件值：</span>
+                  <Select
+                    style={{ width: 160 }}
+                    value={dedupe}
+                    onChange={(value) => setDedupe(value)}
+                  >
+                    <Option value="none">不合并</Option>
+                    <Option value="keepFirst">保留第一行</Option>
+                    <Option value="keepLast">保留最后一行</Option>
+                  </Select>
+                  {dedupe !== "none" && (
+                    <Checkbox
+                      checked={dedupeBloom}
+                      onChange={(e) => setDedupeBloom(e.target.checked)}
+                      style={{ marginLeft: '10px' }}
+                    >
+                      低内存模式（布隆过滤器预扫描，仅生成到文件时有效）
+                    </Checkbox>
+                  )}
+                  {sortByKey && (
+                    <>
+                      <span style={{ marginLeft: '10px' }}>排序内存上限(MB)：</span>
+                      <InputNumber
+                        min={16}
+                        value={sortMemoryMb}
+                        onChange={(value) => setSortMemoryMb(value || 256)}
+                      />
+                      <span style={{ marginLeft: '10px', color: '#888' }}>超过后使用临时文件排序</span>
+                    </>
+                  )}
+                </div>
+              )}
+              {(dbType === "MySQL" || dbType === "PostgreSQL") && (
+                <div style={{ marginTop: 8 }}>
+                  <span>每个事务语句数：</span>
+                  <InputNumber
+                    min={0}
+                    value={transactionStatements}
+                    onChange={(value) => setTransactionStatements(value || 0)}
+                  />
+                  <span style={{ marginLeft: '10px' }}>每个事务最多行数：</span>
+                  <InputNumber
+                    min={0}
+                    value={transactionRows}
+                    disabled={!transactionStatements}
+                    onChange={(value) => setTransactionRows(value || 0)}
+                  />
+                  <span style={{ marginLeft: '10px', color: '#888' }}>0 表示不分事务 / 不限制行数</span>
+                </div>
+              )}
+              {jobId && (
+                <div style={{ marginTop: 8 }}>
+                  <span style={{ color: '#888' }}>
+                    已处理 {progress?.rowsProcessed || 0} 行，已生成 {((progress?.bytesWritten || 0) / 1024 / 1024).toFixed(1)} MB
+                    {progress?.duplicateRows ? `，合并重复行 ${progress.duplicateRows}` : ''}
+                  </span>
+                  <Button size="small" danger onClick={cancelJob} style={{ marginLeft: '10px' }}>
+                    取消
+                  </Button>
+                </div>
+              )}
             </Card>
           )}
 